@@ -24,32 +24,50 @@ import android.appwidget.AppWidgetProviderInfo;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.Bundle;
+import android.preference.PreferenceManager;
 import android.provider.Settings;
 import android.text.TextUtils;
 import android.text.format.DateFormat;
+import android.text.format.DateUtils;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.View;
 import android.widget.RemoteViews;
 
+import com.android.alarmclock.WidgetUtils.LayoutMetrics;
+import com.android.deskclock.AsyncHandler;
 import com.android.deskclock.DeskClock;
 import com.android.deskclock.R;
+import com.android.deskclock.SettingsActivity;
+import com.android.deskclock.TimeBoundaryScheduler;
 import com.android.deskclock.Utils;
 import com.android.deskclock.alarms.AlarmNotifications;
 import com.android.deskclock.worldclock.Cities;
 import com.android.deskclock.worldclock.CitiesActivity;
+import com.android.deskclock.worldclock.CityObj;
+import com.android.deskclock.worldclock.ZoneOffsetCache;
 
+import java.util.HashSet;
 import java.util.Locale;
+import java.util.TimeZone;
 
 public class DigitalAppWidgetProvider extends AppWidgetProvider {
     private static final String TAG = "DigitalAppWidgetProvider";
 
     /**
-     * Intent to be used for checking if a world clock's date has changed. Must be every fifteen
-     * minutes because not all time zones are hour-locked.
+     * Intent broadcast when the date of the device or of one of the world clock cities changes.
+     * Scheduled for the exact instant rather than polled, since not all time zones are
+     * hour-locked.
      **/
-    public static final String ACTION_ON_QUARTER_HOUR = "com.android.deskclock.ON_QUARTER_HOUR";
+    public static final String ACTION_ON_DAY_CHANGE = "com.android.deskclock.ON_DAY_CHANGE";
+
+    // The last values pushed to each widget by a partial update, keyed by widget id. Used to
+    // skip the update entirely when nothing visible changed. Static because a new provider
+    // instance is created for every broadcast.
+    private static final SparseArray<WidgetState> sWidgetStates = new SparseArray<WidgetState>();
 
     // Lazily creating this intent to use with the AlarmManager
     private PendingIntent mPendingIntent;
@@ -62,13 +80,13 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
     @Override
     public void onEnabled(Context context) {
         super.onEnabled(context);
-        startAlarmOnQuarterHour(context);
+        startAlarmOnDayChange(context);
     }
 
     @Override
     public void onDisabled(Context context) {
         super.onDisabled(context);
-        cancelAlarmOnQuarterHour(context);
+        cancelAlarmOnDayChange(context);
     }
 
     @Override
@@ -79,11 +97,14 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
         }
         super.onReceive(context, intent);
 
-        if (ACTION_ON_QUARTER_HOUR.equals(action)
+        if (ACTION_ON_DAY_CHANGE.equals(action)
                 || Intent.ACTION_DATE_CHANGED.equals(action)
                 || Intent.ACTION_TIMEZONE_CHANGED.equals(action)
                 || Intent.ACTION_TIME_CHANGED.equals(action)
                 || Intent.ACTION_LOCALE_CHANGED.equals(action)) {
+            if (Intent.ACTION_TIMEZONE_CHANGED.equals(action)) {
+                ZoneOffsetCache.invalidate();
+            }
             AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
             if (appWidgetManager != null) {
                 int[] appWidgetIds = appWidgetManager.getAppWidgetIds(getComponentName(context));
@@ -91,19 +112,13 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
                     appWidgetManager.
                             notifyAppWidgetViewDataChanged(appWidgetId,
                                     R.id.digital_appwidget_listview);
-                    RemoteViews widget = new RemoteViews(context.getPackageName(),
-                            R.layout.digital_appwidget);
-                    float ratio = WidgetUtils.getScaleRatio(context, null, appWidgetId);
-                    WidgetUtils.setTimeFormat(widget, 0/*no am/pm*/, R.id.the_clock);
-                    WidgetUtils.setClockSize(context, widget, ratio);
-                    refreshAlarm(context, widget);
-                    appWidgetManager.partiallyUpdateAppWidget(appWidgetId, widget);
+                    refreshClock(context, appWidgetManager, appWidgetId);
                 }
             }
-            if(!ACTION_ON_QUARTER_HOUR.equals(action)) {
-                cancelAlarmOnQuarterHour(context);
+            if(!ACTION_ON_DAY_CHANGE.equals(action)) {
+                cancelAlarmOnDayChange(context);
             }
-            startAlarmOnQuarterHour(context);
+            startAlarmOnDayChange(context);
         } else if (AlarmManager.ACTION_NEXT_ALARM_CLOCK_CHANGED.equals(action)
                 || Intent.ACTION_SCREEN_ON.equals(action)) {
             // Refresh the next alarm
@@ -111,10 +126,7 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
             if (appWidgetManager != null) {
                 int[] appWidgetIds = appWidgetManager.getAppWidgetIds(getComponentName(context));
                 for (int appWidgetId : appWidgetIds) {
-                    RemoteViews widget = new RemoteViews(context.getPackageName(),
-                            R.layout.digital_appwidget);
-                    refreshAlarm(context, widget);
-                    appWidgetManager.partiallyUpdateAppWidget(appWidgetId, widget);
+                    refreshClock(context, appWidgetManager, appWidgetId);
                 }
             }
         } else if (Cities.WORLDCLOCK_UPDATE_INTENT.equals(action)) {
@@ -128,6 +140,22 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
                                     R.id.digital_appwidget_listview);
                 }
             }
+            // The set of cities whose date changes must be watched may have changed.
+            cancelAlarmOnDayChange(context);
+            startAlarmOnDayChange(context);
+        }
+    }
+
+    @Override
+    public void onDeleted(Context context, int[] appWidgetIds) {
+        super.onDeleted(context, appWidgetIds);
+        synchronized (sWidgetStates) {
+            for (int appWidgetId : appWidgetIds) {
+                sWidgetStates.remove(appWidgetId);
+            }
+        }
+        for (int appWidgetId : appWidgetIds) {
+            WidgetUtils.removeLayoutMetrics(appWidgetId);
         }
     }
 
@@ -137,10 +165,10 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
             Log.i(TAG, "onUpdate");
         }
         for (int appWidgetId : appWidgetIds) {
-            float ratio = WidgetUtils.getScaleRatio(context, null, appWidgetId);
-            updateClock(context, appWidgetManager, appWidgetId, ratio);
+            LayoutMetrics metrics = WidgetUtils.updateLayoutMetrics(context, null, appWidgetId);
+            updateClock(context, appWidgetManager, appWidgetId, metrics);
         }
-        startAlarmOnQuarterHour(context);
+        startAlarmOnDayChange(context);
         super.onUpdate(context, appWidgetManager, appWidgetIds);
     }
 
@@ -148,13 +176,14 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
     public void onAppWidgetOptionsChanged(Context context, AppWidgetManager appWidgetManager,
             int appWidgetId, Bundle newOptions) {
         // scale the fonts of the clock to fit inside the new size
-        float ratio = WidgetUtils.getScaleRatio(context, newOptions, appWidgetId);
+        LayoutMetrics metrics = WidgetUtils.updateLayoutMetrics(context, newOptions, appWidgetId);
         AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
-        updateClock(context, widgetManager, appWidgetId, ratio);
+        updateClock(context, widgetManager, appWidgetId, metrics);
     }
 
     private void updateClock(
-            Context context, AppWidgetManager appWidgetManager, int appWidgetId, float ratio) {
+            Context context, AppWidgetManager appWidgetManager, int appWidgetId,
+            LayoutMetrics metrics) {
         RemoteViews widget = new RemoteViews(context.getPackageName(), R.layout.digital_appwidget);
 
         // Launch clock when clicking on the time in the widget only if not a lock screen widget
@@ -167,15 +196,8 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
         }
 
         // Setup alarm text clock's format and font sizes
-        refreshAlarm(context, widget);
-        WidgetUtils.setTimeFormat(widget, 0/*no am/pm*/, R.id.the_clock);
-        WidgetUtils.setClockSize(context, widget, ratio);
-
-        // Set today's date format
-        CharSequence dateFormat = DateFormat.getBestDateTimePattern(Locale.getDefault(),
-                context.getString(R.string.abbrev_wday_month_day_no_year));
-        widget.setCharSequence(R.id.date, "setFormat12Hour", dateFormat);
-        widget.setCharSequence(R.id.date, "setFormat24Hour", dateFormat);
+        final WidgetState state = new WidgetState(context, metrics);
+        state.apply(context, widget);
 
         // Set up R.id.digital_appwidget_listview to use a remote views adapter
         // That remote views adapter connects to a RemoteViewsService through intent.
@@ -194,10 +216,34 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
         appWidgetManager.notifyAppWidgetViewDataChanged(
                 appWidgetId, R.id.digital_appwidget_listview);
         appWidgetManager.updateAppWidget(appWidgetId, widget);
+        synchronized (sWidgetStates) {
+            sWidgetStates.put(appWidgetId, state);
+        }
+    }
+
+    /**
+     * Pushes the clock format, size, date format and next alarm to the widget, unless they are
+     * all unchanged since the last update, in which case no IPC is made.
+     */
+    private void refreshClock(Context context, AppWidgetManager appWidgetManager,
+            int appWidgetId) {
+        final WidgetState state = new WidgetState(context,
+                WidgetUtils.getLayoutMetrics(context, appWidgetId));
+        synchronized (sWidgetStates) {
+            if (state.equals(sWidgetStates.get(appWidgetId))) {
+                if (DigitalAppWidgetService.LOGGING) {
+                    Log.v(TAG, "Widget " + appWidgetId + " unchanged, skipping update");
+                }
+                return;
+            }
+            sWidgetStates.put(appWidgetId, state);
+        }
+        RemoteViews widget = new RemoteViews(context.getPackageName(), R.layout.digital_appwidget);
+        state.apply(context, widget);
+        appWidgetManager.partiallyUpdateAppWidget(appWidgetId, widget);
     }
 
-    protected void refreshAlarm(Context context, RemoteViews widget) {
-        final String nextAlarm = Utils.getNextAlarm(context);
+    private static void refreshAlarm(Context context, RemoteViews widget, String nextAlarm) {
         if (!TextUtils.isEmpty(nextAlarm)) {
             widget.setTextViewText(R.id.nextAlarm,
                     context.getString(R.string.control_set_alarm_with_existing, nextAlarm));
@@ -214,59 +260,160 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
     }
 
     /**
-     * Start an alarm that fires on the next quarter hour to update the world clock city
-     * day when the local time or the world city crosses midnight.
+     * Start an alarm that fires exactly when the local date or the date of one of the world clock
+     * cities next changes, to update the world clock city day.
      *
      * @param context The context in which the PendingIntent should perform the broadcast.
      */
-    private void startAlarmOnQuarterHour(Context context) {
+    private void startAlarmOnDayChange(Context context) {
         if (context != null) {
-            long onQuarterHour = Utils.getAlarmOnQuarterHour();
-            PendingIntent quarterlyIntent = getOnQuarterHourPendingIntent(context);
-            AlarmManager alarmManager = ((AlarmManager) context
-                    .getSystemService(Context.ALARM_SERVICE));
-            if (Utils.isKitKatOrLater()) {
-                alarmManager.setExact(AlarmManager.RTC, onQuarterHour, quarterlyIntent);
-            } else {
-                alarmManager.set(AlarmManager.RTC, onQuarterHour, quarterlyIntent);
-            }
-            if (DigitalAppWidgetService.LOGGING) {
-                Log.v(TAG, "startAlarmOnQuarterHour " + context.toString());
-            }
+            // Reading the selected cities may load them from the provider, so the alarm is set in
+            // the background, keeping the broadcast alive until then. There is no broadcast to
+            // keep alive when this isn't called from onReceive.
+            final Context appContext = context.getApplicationContext();
+            final PendingIntent dayChangeIntent = getOnDayChangePendingIntent(context);
+            final PendingResult result = goAsync();
+            AsyncHandler.post(AsyncHandler.LANE_DEFAULT, "startAlarmOnDayChange", new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        setAlarmOnDayChange(appContext, dayChangeIntent);
+                    } finally {
+                        if (result != null) {
+                            result.finish();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private static void setAlarmOnDayChange(Context context, PendingIntent dayChangeIntent) {
+        long onDayChange = getNextDayChange(context);
+        AlarmManager alarmManager = ((AlarmManager) context
+                .getSystemService(Context.ALARM_SERVICE));
+        if (Utils.isKitKatOrLater()) {
+            alarmManager.setExact(AlarmManager.RTC, onDayChange, dayChangeIntent);
+        } else {
+            alarmManager.set(AlarmManager.RTC, onDayChange, dayChangeIntent);
+        }
+        if (DigitalAppWidgetService.LOGGING) {
+            Log.v(TAG, "startAlarmOnDayChange " + onDayChange);
         }
     }
 
 
     /**
-     * Remove the alarm for the quarter hour update.
+     * Remove the alarm for the day change update.
      *
      * @param context The context in which the PendingIntent was started to perform the broadcast.
      */
-    public void cancelAlarmOnQuarterHour(Context context) {
+    public void cancelAlarmOnDayChange(Context context) {
         if (context != null) {
-            PendingIntent quarterlyIntent = getOnQuarterHourPendingIntent(context);
+            PendingIntent dayChangeIntent = getOnDayChangePendingIntent(context);
             if (DigitalAppWidgetService.LOGGING) {
-                Log.v(TAG, "cancelAlarmOnQuarterHour " + context.toString());
+                Log.v(TAG, "cancelAlarmOnDayChange " + context.toString());
             }
             ((AlarmManager) context.getSystemService(Context.ALARM_SERVICE)).cancel(
-                    quarterlyIntent);
+                    dayChangeIntent);
         }
     }
 
     /**
-     * Create the pending intent that is broadcast on the quarter hour.
+     * Returns the next instant at which the date changes on the device or in any of the
+     * selected world clock cities (including the home city), plus one second to ensure the date
+     * has changed.
+     */
+    private static long getNextDayChange(Context context) {
+        final long now = System.currentTimeMillis();
+        long next = TimeBoundaryScheduler.getNextBoundary(
+                TimeBoundaryScheduler.MIDNIGHT, null, now);
+
+        final HashSet<String> zones = new HashSet<String>();
+        for (CityObj city : Cities.getSnapshot(context).cities.values()) {
+            zones.add(city.mTimeZone);
+        }
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        if (prefs.getBoolean(SettingsActivity.KEY_AUTO_HOME_CLOCK, false)) {
+            zones.add(prefs.getString(SettingsActivity.KEY_HOME_TZ,
+                    TimeZone.getDefault().getID()));
+        }
+        for (String zone : zones) {
+            if (zone != null) {
+                next = Math.min(next, TimeBoundaryScheduler.getNextBoundary(
+                        TimeBoundaryScheduler.MIDNIGHT, zone, now));
+            }
+        }
+        return next + DateUtils.SECOND_IN_MILLIS;
+    }
+
+    /**
+     * Create the pending intent that is broadcast when the date changes.
      *
      * @param context The Context in which this PendingIntent should perform the broadcast.
      * @return a pending intent with an intent unique to DigitalAppWidgetProvider
      */
-    private PendingIntent getOnQuarterHourPendingIntent(Context context) {
+    private PendingIntent getOnDayChangePendingIntent(Context context) {
         if (mPendingIntent == null) {
             mPendingIntent = PendingIntent.getBroadcast(context, 0,
-                new Intent(ACTION_ON_QUARTER_HOUR), PendingIntent.FLAG_CANCEL_CURRENT);
+                new Intent(ACTION_ON_DAY_CHANGE), PendingIntent.FLAG_CANCEL_CURRENT);
         }
         return mPendingIntent;
     }
 
+    /**
+     * The values of a widget that are set by partial updates.
+     */
+    private static final class WidgetState {
+        final LayoutMetrics metrics;
+        final String format12;
+        final String format24;
+        final String dateFormat;
+        final String nextAlarm;
+
+        WidgetState(Context context, LayoutMetrics metrics) {
+            this.metrics = metrics;
+            format12 = Utils.get12ModeFormat(0/*no am/pm*/).toString();
+            format24 = Utils.get24ModeFormat().toString();
+            dateFormat = DateFormat.getBestDateTimePattern(Locale.getDefault(),
+                    context.getString(R.string.abbrev_wday_month_day_no_year));
+            nextAlarm = Utils.getNextAlarm(context);
+        }
+
+        void apply(Context context, RemoteViews widget) {
+            refreshAlarm(context, widget, nextAlarm);
+            WidgetUtils.setTimeFormat(widget, 0/*no am/pm*/, R.id.the_clock);
+            WidgetUtils.setClockSize(widget, metrics);
+
+            // Set today's date format
+            widget.setCharSequence(R.id.date, "setFormat12Hour", dateFormat);
+            widget.setCharSequence(R.id.date, "setFormat24Hour", dateFormat);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof WidgetState)) {
+                return false;
+            }
+            final WidgetState other = (WidgetState) o;
+            return metrics.clockFontSize == other.metrics.clockFontSize
+                    && TextUtils.equals(format12, other.format12)
+                    && TextUtils.equals(format24, other.format24)
+                    && TextUtils.equals(dateFormat, other.dateFormat)
+                    && TextUtils.equals(nextAlarm, other.nextAlarm);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Float.floatToIntBits(metrics.clockFontSize);
+            result = 31 * result + (format12 != null ? format12.hashCode() : 0);
+            result = 31 * result + (format24 != null ? format24.hashCode() : 0);
+            result = 31 * result + (dateFormat != null ? dateFormat.hashCode() : 0);
+            result = 31 * result + (nextAlarm != null ? nextAlarm.hashCode() : 0);
+            return result;
+        }
+    }
+
     /**
      * Create the component name for this class
      *
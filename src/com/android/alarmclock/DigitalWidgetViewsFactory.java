@@ -27,15 +27,10 @@ import android.view.View;
 import android.widget.RemoteViews;
 import android.widget.RemoteViewsService.RemoteViewsFactory;
 
+import com.android.alarmclock.WidgetUtils.LayoutMetrics;
 import com.android.deskclock.R;
-import com.android.deskclock.Utils;
-import com.android.deskclock.worldclock.CityObj;
 import com.android.deskclock.worldclock.WorldClockAdapter;
 
-import java.util.Calendar;
-import java.util.Locale;
-import java.util.TimeZone;
-
 public class DigitalWidgetViewsFactory implements RemoteViewsFactory {
     private static final String TAG = "DigitalWidgetViewsFactory";
 
@@ -43,25 +38,26 @@ public class DigitalWidgetViewsFactory implements RemoteViewsFactory {
     private Resources mResources;
     private int mId = AppWidgetManager.INVALID_APPWIDGET_ID;
     private RemoteWorldClockAdapter mAdapter;
-    private float mFontScale = 1;
+    private LayoutMetrics mMetrics;
 
     // An adapter to provide the view for the list of cities in the world clock.
     private class RemoteWorldClockAdapter extends WorldClockAdapter {
-        private final float mFontSize;
-        private final float mFont24Size;
-
         public RemoteWorldClockAdapter(Context context) {
             super(context);
             mClocksPerRow = context.getResources().getInteger(
                     R.integer.appwidget_world_clocks_per_row);
-            mFontSize = context.getResources().getDimension(R.dimen.widget_medium_font_size);
-            mFont24Size = context.getResources().getDimension(R.dimen.widget_24_medium_font_size);
         }
 
         public RemoteViews getViewAt(int position) {
+            // The day labels change when the date changes here or in one of the cities.
+            if (!mModel.isValid(System.currentTimeMillis())) {
+                loadData(mContext);
+            }
+            final CityRow[] rows = mModel.rows;
+
             // There are 2 cities per item
             int index = position * 2;
-            if (index < 0 || index >= mCitiesList.length) {
+            if (index < 0 || index >= rows.length) {
                 return null;
             }
 
@@ -69,13 +65,13 @@ public class DigitalWidgetViewsFactory implements RemoteViewsFactory {
                     mContext.getPackageName(), R.layout.world_clock_remote_list_item);
 
             // Always how the left clock
-            updateView(views, (CityObj) mCitiesList[index], R.id.left_clock,
+            updateView(views, rows[index], R.id.left_clock,
                     R.id.city_name_left, R.id.city_day_left);
             // Show the right clock if any, make it invisible if there is no
             // clock on the right
             // to keep the left view on the left.
-            if (index + 1 < mCitiesList.length) {
-                updateView(views, (CityObj) mCitiesList[index + 1], R.id.right_clock,
+            if (index + 1 < rows.length) {
+                updateView(views, rows[index + 1], R.id.right_clock,
                         R.id.city_name_right, R.id.city_day_right);
             } else {
                 hideView(views, R.id.right_clock, R.id.city_name_right,
@@ -83,7 +79,7 @@ public class DigitalWidgetViewsFactory implements RemoteViewsFactory {
             }
 
             // Hide last spacer if last row
-            int lastRow = ((mCitiesList.length + 1) / 2) - 1;
+            int lastRow = ((rows.length + 1) / 2) - 1;
             if (position == lastRow) {
                 views.setViewVisibility(R.id.city_spacer, View.GONE);
             } else {
@@ -93,30 +89,18 @@ public class DigitalWidgetViewsFactory implements RemoteViewsFactory {
             return views;
         }
 
-        private void updateView(RemoteViews clock, CityObj cityObj, int clockId,
+        private void updateView(RemoteViews clock, CityRow row, int clockId,
                 int labelId, int dayId) {
-            final Calendar now = Calendar.getInstance();
-            now.setTimeInMillis(System.currentTimeMillis());
-            int myDayOfWeek = now.get(Calendar.DAY_OF_WEEK);
-            CityObj cityInDb = mCitiesDb.get(cityObj.mCityId);
-            String cityTZ = (cityInDb != null) ? cityInDb.mTimeZone : cityObj.mTimeZone;
-            now.setTimeZone(TimeZone.getTimeZone(cityTZ));
-            int cityDayOfWeek = now.get(Calendar.DAY_OF_WEEK);
-
-            WidgetUtils.setTimeFormat(clock,
-                    (int)mResources.getDimension(R.dimen.widget_label_font_size), clockId);
-            float fontSize = mFontScale * (DateFormat.is24HourFormat(mContext)
-                    ? mFont24Size : mFontSize);
-            clock.setTextViewTextSize(clockId, TypedValue.COMPLEX_UNIT_PX, fontSize * mFontScale);
-            clock.setString(clockId, "setTimeZone", cityObj.mTimeZone);
-
-            // Home city or city not in DB , use data from the save selected cities list
-            clock.setTextViewText(labelId, Utils.getCityName(cityObj, cityInDb));
-
-            if (myDayOfWeek != cityDayOfWeek) {
-                clock.setTextViewText(dayId, mContext.getString(
-                        R.string.world_day_of_week_label, now.getDisplayName(
-                                Calendar.DAY_OF_WEEK, Calendar.SHORT, Locale.getDefault())));
+            WidgetUtils.setTimeFormat(clock, mMetrics.listAmPmFontSize, clockId);
+            float fontSize = DateFormat.is24HourFormat(mContext)
+                    ? mMetrics.listClock24FontSize : mMetrics.listClockFontSize;
+            clock.setTextViewTextSize(clockId, TypedValue.COMPLEX_UNIT_PX, fontSize);
+            clock.setString(clockId, "setTimeZone", row.timeZone);
+
+            clock.setTextViewText(labelId, row.name);
+
+            if (row.dayLabel != null) {
+                clock.setTextViewText(dayId, row.dayLabel);
                 clock.setViewVisibility(dayId, View.VISIBLE);
             } else {
                 clock.setViewVisibility(dayId, View.GONE);
@@ -148,7 +132,7 @@ public class DigitalWidgetViewsFactory implements RemoteViewsFactory {
 
     @Override
     public int getCount() {
-        if (WidgetUtils.showList(mContext, mId, mFontScale)) {
+        if (WidgetUtils.showList(mContext, mId)) {
             return mAdapter.getCount();
         }
         return 0;
@@ -193,11 +177,17 @@ public class DigitalWidgetViewsFactory implements RemoteViewsFactory {
 
     @Override
     public void onDataSetChanged() {
-        mAdapter.loadData(mContext);
-        mAdapter.loadCitiesDb(mContext);
-        mAdapter.updateHomeLabel(mContext);
+        // This runs on every date, time zone and locale change, but the city list itself
+        // rarely changes. Only reload it when the selected cities snapshot, the locale, the
+        // settings or a city's date changed; the clocks themselves tick on their own.
+        if (!mAdapter.isModelCurrent(System.currentTimeMillis())) {
+            if (DigitalAppWidgetService.LOGGING) {
+                Log.i(TAG, "Reloading world clock cities for widget " + mId);
+            }
+            mAdapter.loadData(mContext);
+        }
 
-        mFontScale = WidgetUtils.getScaleRatio(mContext, null, mId);
+        mMetrics = WidgetUtils.getLayoutMetrics(mContext, mId);
     }
 
     @Override
@@ -22,6 +22,7 @@ import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.os.Bundle;
 import android.util.Log;
+import android.util.SparseArray;
 import android.util.TypedValue;
 import android.widget.RemoteViews;
 import android.widget.RemoteViews.RemoteView;
@@ -33,36 +34,111 @@ import com.android.deskclock.Utils;
 public class WidgetUtils {
     static final String TAG = "WidgetUtils";
 
-    public static void setClockSize(Context context, RemoteViews clock, float scale) {
-        float fontSize = context.getResources().getDimension(R.dimen.widget_big_font_size);
-        clock.setTextViewTextSize(
-                R.id.the_clock, TypedValue.COMPLEX_UNIT_PX, fontSize * scale);
+    // Layout metrics per widget id, shared by DigitalAppWidgetProvider and
+    // DigitalWidgetViewsFactory. Populated from the widget options on first use and replaced
+    // when the options change.
+    private static final SparseArray<LayoutMetrics> sLayoutMetrics =
+            new SparseArray<LayoutMetrics>();
+
+    /**
+     * Scale ratio, list visibility and font sizes of one widget, computed once from its options
+     * so that refreshes need neither an AppWidgetManager call nor resource lookups.
+     */
+    public static final class LayoutMetrics {
+        /** Scale factor of the fonts in the widget. */
+        public final float scale;
+        /** Whether the widget is big enough to show the world clock list. */
+        public final boolean showList;
+        /** Size in pixels of the main clock. */
+        public final float clockFontSize;
+        /** Size in pixels of the world clock list clocks in 12 hour mode. */
+        public final float listClockFontSize;
+        /** Size in pixels of the world clock list clocks in 24 hour mode. */
+        public final float listClock24FontSize;
+        /** Size in pixels of the am/pm label of the world clock list clocks. */
+        public final int listAmPmFontSize;
+
+        // Configuration the metrics were computed for. The font sizes are in sp, so besides
+        // orientation and density they also depend on the font scale.
+        private final Configuration mConfiguration;
+
+        private LayoutMetrics(Context context, Bundle options) {
+            final Resources res = context.getResources();
+            mConfiguration = new Configuration(res.getConfiguration());
+            scale = computeScaleRatio(res, options);
+            showList = computeShowList(res, options, scale);
+            clockFontSize = scale * res.getDimension(R.dimen.widget_big_font_size);
+            listClockFontSize = scale * scale
+                    * res.getDimension(R.dimen.widget_medium_font_size);
+            listClock24FontSize = scale * scale
+                    * res.getDimension(R.dimen.widget_24_medium_font_size);
+            listAmPmFontSize = (int) res.getDimension(R.dimen.widget_label_font_size);
+        }
+
+        private boolean isValid(Resources res) {
+            return mConfiguration.equals(res.getConfiguration());
+        }
     }
 
-    // Calculate the scale factor of the fonts in the widget
-    public static float getScaleRatio(Context context, Bundle options, int id) {
+    /**
+     * Returns the cached layout metrics of a widget, computing them if needed.
+     */
+    public static LayoutMetrics getLayoutMetrics(Context context, int id) {
+        synchronized (sLayoutMetrics) {
+            final LayoutMetrics metrics = sLayoutMetrics.get(id);
+            if (metrics != null && metrics.isValid(context.getResources())) {
+                return metrics;
+            }
+        }
+        return updateLayoutMetrics(context, null, id);
+    }
+
+    /**
+     * Recomputes the layout metrics of a widget, e.g. from
+     * {@link android.appwidget.AppWidgetProvider#onAppWidgetOptionsChanged}.
+     *
+     * @param options the new widget options, or null to fetch them from the AppWidgetManager
+     */
+    public static LayoutMetrics updateLayoutMetrics(Context context, Bundle options, int id) {
         if (options == null) {
             AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
-            if (widgetManager == null) {
-                // no manager , do no scaling
-                return 1f;
+            if (widgetManager != null) {
+                options = widgetManager.getAppWidgetOptions(id);
             }
-            options = widgetManager.getAppWidgetOptions(id);
         }
+        final LayoutMetrics metrics = new LayoutMetrics(context, options);
+        synchronized (sLayoutMetrics) {
+            sLayoutMetrics.put(id, metrics);
+        }
+        return metrics;
+    }
+
+    public static void removeLayoutMetrics(int id) {
+        synchronized (sLayoutMetrics) {
+            sLayoutMetrics.remove(id);
+        }
+    }
+
+    public static void setClockSize(RemoteViews clock, LayoutMetrics metrics) {
+        clock.setTextViewTextSize(
+                R.id.the_clock, TypedValue.COMPLEX_UNIT_PX, metrics.clockFontSize);
+    }
+
+    // Calculate the scale factor of the fonts in the widget
+    private static float computeScaleRatio(Resources res, Bundle options) {
         if (options != null) {
             int minWidth = options.getInt(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH);
             if (minWidth == 0) {
                 // No data , do no scaling
                 return 1f;
             }
-            Resources res = context.getResources();
             float density = res.getDisplayMetrics().density;
             float ratio = (density * minWidth) / res.getDimension(R.dimen.min_digital_widget_width);
             // Check if the height could introduce a font size constraint
             int minHeight = options.getInt(AppWidgetManager.OPTION_APPWIDGET_MIN_HEIGHT);
             if (minHeight > 0 && (density * minHeight)
                     < res.getDimension(R.dimen.min_digital_widget_height)) {
-                ratio = Math.min(ratio, getHeightScaleRatio(context, options, id));
+                ratio = Math.min(ratio, computeHeightScaleRatio(res, options));
             }
             return (ratio > 1) ? 1 : ratio;
         }
@@ -70,31 +146,20 @@ public class WidgetUtils {
     }
 
     // Calculate the scale factor of the fonts in the list of  the widget using the widget height
-    private static float getHeightScaleRatio(Context context, Bundle options, int id) {
-        if (options == null) {
-            AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
-            if (widgetManager == null) {
-                // no manager , do no scaling
-                return 1f;
-            }
-            options = widgetManager.getAppWidgetOptions(id);
+    private static float computeHeightScaleRatio(Resources res, Bundle options) {
+        int minHeight = options.getInt(AppWidgetManager.OPTION_APPWIDGET_MIN_HEIGHT);
+        if (minHeight == 0) {
+            // No data , do no scaling
+            return 1f;
         }
-        if (options != null) {
-            int minHeight = options.getInt(AppWidgetManager.OPTION_APPWIDGET_MIN_HEIGHT);
-            if (minHeight == 0) {
-                // No data , do no scaling
-                return 1f;
-            }
-            Resources res = context.getResources();
-            float density = res.getDisplayMetrics().density;
-            // Estimate height of date text box - 1.35 roughly approximates the text box padding
-            float lblBox = 1.35f * res.getDimension(R.dimen.label_font_size);
-            // Ensure divisor for ratio is positive number
-            if (res.getDimension(R.dimen.min_digital_widget_height) - lblBox > 0) {
-                float ratio = ((density * minHeight) - lblBox)
-                        / (res.getDimension(R.dimen.min_digital_widget_height) - lblBox);
-                return (ratio > 1) ? 1 : ratio;
-            }
+        float density = res.getDisplayMetrics().density;
+        // Estimate height of date text box - 1.35 roughly approximates the text box padding
+        float lblBox = 1.35f * res.getDimension(R.dimen.label_font_size);
+        // Ensure divisor for ratio is positive number
+        if (res.getDimension(R.dimen.min_digital_widget_height) - lblBox > 0) {
+            float ratio = ((density * minHeight) - lblBox)
+                    / (res.getDimension(R.dimen.min_digital_widget_height) - lblBox);
+            return (ratio > 1) ? 1 : ratio;
         }
         return 1;
     }
@@ -102,18 +167,15 @@ public class WidgetUtils {
 
     // Decide if to show the list of world clock.
     // Check to see if the widget size is big enough, if it is return true.
-    public static boolean showList(Context context, int id, float scale) {
-        AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
-        if (widgetManager == null) {
-            // no manager to make the calculation, show the list anyway
-            return true;
-        }
-        Bundle options = widgetManager.getAppWidgetOptions(id);
+    public static boolean showList(Context context, int id) {
+        return getLayoutMetrics(context, id).showList;
+    }
+
+    private static boolean computeShowList(Resources res, Bundle options, float scale) {
         if (options == null) {
             // no data to make the calculation, show the list anyway
             return true;
         }
-        Resources res = context.getResources();
         String whichHeight = res.getConfiguration().orientation ==
                 Configuration.ORIENTATION_PORTRAIT
                 ? AppWidgetManager.OPTION_APPWIDGET_MAX_HEIGHT
@@ -36,10 +36,8 @@ import android.database.DataSetObserver;
 import android.graphics.Color;
 import android.graphics.Rect;
 import android.graphics.Typeface;
-import android.media.Ringtone;
 import android.media.RingtoneManager;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Vibrator;
 import android.transition.AutoTransition;
@@ -69,6 +67,7 @@ import android.widget.TextView;
 import android.widget.TimePicker;
 import android.widget.Toast;
 
+import com.android.deskclock.alarms.AlarmMutationExecutor;
 import com.android.deskclock.alarms.AlarmStateManager;
 import com.android.deskclock.provider.Alarm;
 import com.android.deskclock.provider.AlarmInstance;
@@ -78,6 +77,7 @@ import com.android.deskclock.widget.TextTime;
 
 import java.text.DateFormatSymbols;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashSet;
 
 /**
@@ -98,7 +98,6 @@ public class AlarmClockFragment extends DeskClockFragment implements
 
     private static final String KEY_EXPANDED_ID = "expandedId";
     private static final String KEY_REPEAT_CHECKED_IDS = "repeatCheckedIds";
-    private static final String KEY_RINGTONE_TITLE_CACHE = "ringtoneTitleCache";
     private static final String KEY_SELECTED_ALARMS = "selectedAlarms";
     private static final String KEY_DELETED_ALARM = "deletedAlarm";
     private static final String KEY_UNDO_SHOWING = "undoShowing";
@@ -124,7 +123,15 @@ public class AlarmClockFragment extends DeskClockFragment implements
     private View mEmptyView;
     private View mFooterView;
 
-    private Bundle mRingtoneTitleCache; // Key: ringtone uri, value: ringtone title
+    // Rebinds the list once ringtone titles missing from RingtoneTitleCache are resolved.
+    private final Runnable mRingtoneTitlesResolved = new Runnable() {
+        @Override
+        public void run() {
+            if (mAdapter != null) {
+                mAdapter.notifyDataSetChanged();
+            }
+        }
+    };
     private ActionableToastBar mUndoBar;
     private View mUndoFrame;
 
@@ -168,7 +175,6 @@ public class AlarmClockFragment extends DeskClockFragment implements
         if (savedState != null) {
             expandedId = savedState.getLong(KEY_EXPANDED_ID);
             repeatCheckedIds = savedState.getLongArray(KEY_REPEAT_CHECKED_IDS);
-            mRingtoneTitleCache = savedState.getBundle(KEY_RINGTONE_TITLE_CACHE);
             mDeletedAlarm = savedState.getParcelable(KEY_DELETED_ALARM);
             mUndoShowing = savedState.getBoolean(KEY_UNDO_SHOWING);
             selectedAlarms = savedState.getLongArray(KEY_SELECTED_ALARMS);
@@ -242,10 +248,6 @@ public class AlarmClockFragment extends DeskClockFragment implements
             }
         });
 
-        if (mRingtoneTitleCache == null) {
-            mRingtoneTitleCache = new Bundle();
-        }
-
         mAlarmsList.setAdapter(mAdapter);
         mAlarmsList.setVerticalScrollBarEnabled(true);
         mAlarmsList.setOnCreateContextMenuListener(this);
@@ -337,7 +339,6 @@ public class AlarmClockFragment extends DeskClockFragment implements
         outState.putLong(KEY_EXPANDED_ID, mAdapter.getExpandedId());
         outState.putLongArray(KEY_REPEAT_CHECKED_IDS, mAdapter.getRepeatArray());
         outState.putLongArray(KEY_SELECTED_ALARMS, mAdapter.getSelectedAlarmsArray());
-        outState.putBundle(KEY_RINGTONE_TITLE_CACHE, mRingtoneTitleCache);
         outState.putParcelable(KEY_DELETED_ALARM, mDeletedAlarm);
         outState.putBoolean(KEY_UNDO_SHOWING, mUndoShowing);
         outState.putBundle(KEY_PREVIOUS_DAY_MAP, mAdapter.getPreviousDaysOfWeekMap());
@@ -413,6 +414,7 @@ public class AlarmClockFragment extends DeskClockFragment implements
     @Override
     public void onLoadFinished(Loader<Cursor> cursorLoader, final Cursor data) {
         mAdapter.swapCursor(data);
+        prefetchRingtoneTitles(data);
         if (mScrollToAlarmId != INVALID_ID) {
             scrollToAlarm(mScrollToAlarmId);
             mScrollToAlarmId = INVALID_ID;
@@ -453,6 +455,24 @@ public class AlarmClockFragment extends DeskClockFragment implements
         mAdapter.swapCursor(null);
     }
 
+    /**
+     * Resolves in the background the titles of all ringtones used by the given alarms, so that
+     * expanding an alarm never has to look up its ringtone.
+     */
+    private void prefetchRingtoneTitles(Cursor data) {
+        if (data == null || !data.moveToFirst()) {
+            return;
+        }
+        final HashSet<Uri> alerts = new HashSet<Uri>();
+        do {
+            final Alarm alarm = new Alarm(data);
+            if (!Alarm.NO_RINGTONE_URI.equals(alarm.alert)) {
+                alerts.add(alarm.alert);
+            }
+        } while (data.moveToNext());
+        RingtoneTitleCache.prefetch(getActivity(), alerts, mRingtoneTitlesResolved);
+    }
+
     private void launchRingTonePicker(Alarm alarm) {
         mSelectedAlarm = alarm;
         Uri oldRingtone = Alarm.NO_RINGTONE_URI.equals(alarm.alert) ? null : alarm.alert;
@@ -1025,21 +1045,19 @@ public class AlarmClockFragment extends DeskClockFragment implements
 
 
         /**
-         * Does a read-through cache for ringtone titles.
+         * Returns the cached title of a ringtone without touching media. If the title hasn't been
+         * resolved yet, e.g. for a ringtone that was just picked, it is looked up in the
+         * background and the list rebound.
          *
          * @param uri The uri of the ringtone.
-         * @return The ringtone title. {@literal null} if no matching ringtone found.
+         * @return The ringtone title, or an empty string until it is resolved.
          */
         private String getRingToneTitle(Uri uri) {
-            // Try the cache first
-            String title = mRingtoneTitleCache.getString(uri.toString());
+            final String title = RingtoneTitleCache.peekTitle(uri);
             if (title == null) {
-                // This is slow because a media player is created during Ringtone object creation.
-                Ringtone ringTone = RingtoneManager.getRingtone(mContext, uri);
-                title = ringTone.getTitle(mContext);
-                if (title != null) {
-                    mRingtoneTitleCache.putString(uri.toString(), title);
-                }
+                RingtoneTitleCache.prefetch(mContext, Collections.singletonList(uri),
+                        mRingtoneTitlesResolved);
+                return "";
             }
             return title;
         }
@@ -1353,30 +1371,30 @@ public class AlarmClockFragment extends DeskClockFragment implements
 
     private void asyncDeleteAlarm(final Alarm alarm) {
         final Context context = AlarmClockFragment.this.getActivity().getApplicationContext();
-        final AsyncTask<Void, Void, Void> deleteTask = new AsyncTask<Void, Void, Void>() {
+        final AlarmMutationExecutor.Mutation<Void> deleteTask =
+                new AlarmMutationExecutor.Mutation<Void>() {
             @Override
-            protected Void doInBackground(Void... parameters) {
+            protected Void doInBackground() {
                 // Activity may be closed at this point , make sure data is still valid
                 if (context != null && alarm != null) {
                     ContentResolver cr = context.getContentResolver();
                     AlarmStateManager.deleteAllInstances(context, alarm.id);
                     Alarm.deleteAlarm(cr, alarm.id);
-                    sDeskClockExtensions.deleteAlarm(
-                            AlarmClockFragment.this.getActivity().getApplicationContext(), alarm.id);
+                    sDeskClockExtensions.deleteAlarm(context, alarm.id);
                 }
                 return null;
             }
         };
         mUndoShowing = true;
-        deleteTask.execute();
+        AlarmMutationExecutor.execute(alarm.id, "deleteAlarm", deleteTask);
     }
 
     private void asyncAddAlarm(final Alarm alarm) {
         final Context context = AlarmClockFragment.this.getActivity().getApplicationContext();
-        final AsyncTask<Void, Void, AlarmInstance> updateTask =
-                new AsyncTask<Void, Void, AlarmInstance>() {
+        final AlarmMutationExecutor.Mutation<AlarmInstance> updateTask =
+                new AlarmMutationExecutor.Mutation<AlarmInstance>() {
             @Override
-            protected AlarmInstance doInBackground(Void... parameters) {
+            protected AlarmInstance doInBackground() {
                 if (context != null && alarm != null) {
                     ContentResolver cr = context.getContentResolver();
 
@@ -1386,9 +1404,7 @@ public class AlarmClockFragment extends DeskClockFragment implements
 
                     // Create and add instance to db
                     if (newAlarm.enabled) {
-                        sDeskClockExtensions.addAlarm(
-                                AlarmClockFragment.this.getActivity().getApplicationContext(),
-                                newAlarm);
+                        sDeskClockExtensions.addAlarm(context, newAlarm);
                         return setupAlarmInstance(context, newAlarm);
                     }
                 }
@@ -1402,27 +1418,18 @@ public class AlarmClockFragment extends DeskClockFragment implements
                 }
             }
         };
-        updateTask.execute();
+        // A restored alarm keeps its id, so it must be added after its pending deletion
+        AlarmMutationExecutor.execute(alarm.id, "addAlarm", updateTask);
     }
 
     private void asyncUpdateAlarm(final Alarm alarm, final boolean popToast) {
         final Context context = AlarmClockFragment.this.getActivity().getApplicationContext();
-        final AsyncTask<Void, Void, AlarmInstance> updateTask =
-                new AsyncTask<Void, Void, AlarmInstance>() {
+        final AlarmMutationExecutor.Mutation<AlarmInstance> updateTask =
+                new AlarmMutationExecutor.Mutation<AlarmInstance>() {
             @Override
-            protected AlarmInstance doInBackground(Void ... parameters) {
-                ContentResolver cr = context.getContentResolver();
-
-                // Dismiss all old instances
-                AlarmStateManager.deleteAllInstances(context, alarm.id);
-
-                // Update alarm
-                Alarm.updateAlarm(cr, alarm);
-                if (alarm.enabled) {
-                    return setupAlarmInstance(context, alarm);
-                }
-
-                return null;
+            protected AlarmInstance doInBackground() {
+                // Only reschedules if the time, repeat days or enabled state changed
+                return AlarmStateManager.applyAlarmEdit(context, alarm);
             }
 
             @Override
@@ -1432,7 +1439,13 @@ public class AlarmClockFragment extends DeskClockFragment implements
                 }
             }
         };
-        updateTask.execute();
+        // Each update saves the whole alarm, so a newer one can replace one still queued; but
+        // not one that pops a toast, which the user expects to see.
+        if (popToast) {
+            AlarmMutationExecutor.execute(alarm.id, "updateAlarm", updateTask);
+        } else {
+            AlarmMutationExecutor.executeCoalescing(alarm.id, "updateAlarm", updateTask);
+        }
     }
 
     @Override
@@ -27,6 +27,8 @@ import com.android.deskclock.alarms.AlarmStateManager;
 
 import com.android.deskclock.timer.TimerObj;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class AlarmInitReceiver extends BroadcastReceiver {
 
     // A flag that indicates that switching the volume button default was done
@@ -48,10 +50,27 @@ public class AlarmInitReceiver extends BroadcastReceiver {
         // We need to increment the global id out of the async task to prevent
         // race conditions
         AlarmStateManager.updateGlobalIntentId(context);
-        AsyncHandler.post(new Runnable() {
-            @Override public void run() {
-                // Remove the snooze alarm after a boot.
-                if (action.equals(Intent.ACTION_BOOT_COMPLETED)) {
+
+        // The broadcast is finished once the instances are fixed and, after a boot, the stopwatch
+        // and timer data are reset.
+        final boolean bootCompleted = action.equals(Intent.ACTION_BOOT_COMPLETED);
+        final AtomicInteger pendingJobs = new AtomicInteger(bootCompleted ? 2 : 1);
+        final Runnable onJobDone = new Runnable() {
+            @Override
+            public void run() {
+                if (pendingJobs.decrementAndGet() == 0) {
+                    result.finish();
+                    LogUtils.v("AlarmInitReceiver finished");
+                    wl.release();
+                }
+            }
+        };
+
+        // Remove the snooze alarm after a boot.
+        if (bootCompleted) {
+            AsyncHandler.post(AsyncHandler.LANE_BULK, "resetAfterBoot", new Runnable() {
+                @Override
+                public void run() {
                     // Clear stopwatch and timers data
                     SharedPreferences prefs =
                             PreferenceManager.getDefaultSharedPreferences(context);
@@ -64,16 +83,13 @@ public class AlarmInitReceiver extends BroadcastReceiver {
                         LogUtils.v("AlarmInitReceiver - resetting volume button default");
                         switchVolumeButtonDefault(prefs);
                     }
+                    onJobDone.run();
                 }
+            });
+        }
 
-                // Update all the alarm instances on time change event
-                AlarmStateManager.fixAlarmInstances(context);
-
-                result.finish();
-                LogUtils.v("AlarmInitReceiver finished");
-                wl.release();
-            }
-        });
+        // Update all the alarm instances on time change event
+        AlarmStateManager.scheduleFixAlarmInstances(context, onJobDone);
     }
 
     private void switchVolumeButtonDefault(SharedPreferences prefs) {
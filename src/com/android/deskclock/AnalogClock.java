@@ -17,54 +17,48 @@
 package com.android.deskclock;
 
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
-import android.content.BroadcastReceiver;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.ColorFilter;
 import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
-import android.os.Handler;
 import android.text.format.DateUtils;
-import android.text.format.Time;
 import android.util.AttributeSet;
 import android.view.View;
-import android.widget.RemoteViews.RemoteView;
 
-import java.util.TimeZone;
+import com.android.deskclock.worldclock.ZoneOffsetCache;
 
 /**
  * This widget display an analogic clock with two hands for hours and
  * minutes.
+ *
+ * The dial is drawn by the view's background, which hardware accelerated rendering records and
+ * keeps separately from the view's content, so a tick only re-records the rotated hands. Ticks
+ * come from the shared {@link ClockTicker} rather than a per-view handler and receiver.
  */
-public class AnalogClock extends View {
-    private Time mCalendar;
-
+public class AnalogClock extends View implements ClockTicker.OnTickListener {
     private final Drawable mHourHand;
     private final Drawable mMinuteHand;
     private final Drawable mSecondHand;
-    private final Drawable mDial;
 
     private final int mDialWidth;
     private final int mDialHeight;
 
     private boolean mAttached;
 
-    private final Handler mHandler = new Handler();
     private float mSeconds;
     private float mMinutes;
     private float mHour;
+    private long mDescribedMinute = -1;
     private boolean mChanged;
     private final Context mContext;
     private String mTimeZoneId;
     private boolean mNoSeconds = false;
 
-    private final float mDotRadius;
-    private final float mDotOffset;
-    private Paint mDotPaint;
-
     public AnalogClock(Context context) {
         this(context, null);
     }
@@ -79,24 +73,21 @@ public class AnalogClock extends View {
         mContext = context;
         Resources r = mContext.getResources();
 
-        mDial = r.getDrawable(R.drawable.clock_analog_dial_mipmap);
+        final Drawable dial = r.getDrawable(R.drawable.clock_analog_dial_mipmap);
         mHourHand = r.getDrawable(R.drawable.clock_analog_hour_mipmap);
         mMinuteHand = r.getDrawable(R.drawable.clock_analog_minute_mipmap);
         mSecondHand = r.getDrawable(R.drawable.clock_analog_second_mipmap);
 
         TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.AnalogClock);
-        mDotRadius = a.getDimension(R.styleable.AnalogClock_jewelRadius, 0);
-        mDotOffset = a.getDimension(R.styleable.AnalogClock_jewelOffset, 0);
+        final float dotRadius = a.getDimension(R.styleable.AnalogClock_jewelRadius, 0);
+        final float dotOffset = a.getDimension(R.styleable.AnalogClock_jewelOffset, 0);
         final int dotColor = a.getColor(R.styleable.AnalogClock_jewelColor, Color.WHITE);
-        if (dotColor != 0) {
-            mDotPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-            mDotPaint.setColor(dotColor);
-        }
+        a.recycle();
 
-        mCalendar = new Time();
+        mDialWidth = dial.getIntrinsicWidth();
+        mDialHeight = dial.getIntrinsicHeight();
 
-        mDialWidth = mDial.getIntrinsicWidth();
-        mDialHeight = mDial.getIntrinsicHeight();
+        setBackground(new DialDrawable(dial, dotRadius, dotOffset, dotColor));
     }
 
     @Override
@@ -105,35 +96,18 @@ public class AnalogClock extends View {
 
         if (!mAttached) {
             mAttached = true;
-            IntentFilter filter = new IntentFilter();
-
-            filter.addAction(Intent.ACTION_TIME_TICK);
-            filter.addAction(Intent.ACTION_TIME_CHANGED);
-            filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
-
-            getContext().registerReceiver(mIntentReceiver, filter, null, mHandler);
+            ClockTicker.register(mContext, this, !mNoSeconds);
         }
 
-        // NOTE: It's safe to do these after registering the receiver since the receiver always runs
-        // in the main thread, therefore the receiver can't run before this method returns.
-
-        // The time zone may have changed while the receiver wasn't registered, so update the Time
-        mCalendar = new Time();
-
-        // Make sure we update to the current time
-        onTimeChanged();
-
-        // tick the seconds
-        post(mClockTick);
-
+        // The time or time zone may have changed while we weren't registered.
+        onTick(System.currentTimeMillis());
     }
 
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
         if (mAttached) {
-            getContext().unregisterReceiver(mIntentReceiver);
-            removeCallbacks(mClockTick);
+            ClockTicker.unregister(this);
             mAttached = false;
         }
     }
@@ -184,29 +158,16 @@ public class AnalogClock extends View {
         int x = availableWidth / 2;
         int y = availableHeight / 2;
 
-        final Drawable dial = mDial;
-        int w = dial.getIntrinsicWidth();
-        int h = dial.getIntrinsicHeight();
-
         boolean scaled = false;
 
-        if (availableWidth < w || availableHeight < h) {
+        if (availableWidth < mDialWidth || availableHeight < mDialHeight) {
             scaled = true;
-            float scale = Math.min((float) availableWidth / (float) w,
-                                   (float) availableHeight / (float) h);
+            float scale = Math.min((float) availableWidth / (float) mDialWidth,
+                                   (float) availableHeight / (float) mDialHeight);
             canvas.save();
             canvas.scale(scale, scale, x, y);
         }
 
-        if (changed) {
-            dial.setBounds(x - (w / 2), y - (h / 2), x + (w / 2), y + (h / 2));
-        }
-        dial.draw(canvas);
-
-        if (mDotRadius > 0f && mDotPaint != null) {
-            canvas.drawCircle(x, y - (h / 2) + mDotOffset, mDotRadius, mDotPaint);
-        }
-
         drawHand(canvas, mHourHand, x, y, mHour / 12.0f * 360.0f, changed);
         drawHand(canvas, mMinuteHand, x, y, mMinutes / 60.0f * 360.0f, changed);
         if (!mNoSeconds) {
@@ -231,63 +192,144 @@ public class AnalogClock extends View {
       canvas.restore();
     }
 
-    private void onTimeChanged() {
-        mCalendar.setToNow();
+    @Override
+    public void onTick(long now) {
+        final String zoneId = mTimeZoneId != null ? mTimeZoneId : ClockTicker.getDefaultZoneId();
+        final long local = now + ZoneOffsetCache.getOffset(zoneId, now);
+        final long localSeconds = Utils.floorDiv(local, DateUtils.SECOND_IN_MILLIS);
+
+        final int second = (int) (localSeconds % 60);
+        final int minute = (int) (localSeconds / 60 % 60);
+        final int hour = (int) (localSeconds / 3600 % 24);
+
+        final float seconds = second;
+        final float minutes = minute + second / 60.0f;
+        final float hours = hour + minutes / 60.0f;
+        if (seconds != mSeconds || minutes != mMinutes || hours != mHour) {
+            mSeconds = seconds;
+            mMinutes = minutes;
+            mHour = hours;
+            invalidate();
+        }
 
-        if (mTimeZoneId != null) {
-            mCalendar.switchTimezone(mTimeZoneId);
+        final long minuteOfEpoch = localSeconds / 60;
+        if (minuteOfEpoch != mDescribedMinute) {
+            mDescribedMinute = minuteOfEpoch;
+            updateContentDescription(now);
         }
+    }
 
-        int hour = mCalendar.hour;
-        int minute = mCalendar.minute;
-        int second = mCalendar.second;
-  //      long millis = System.currentTimeMillis() % 1000;
+    private void updateContentDescription(long time) {
+        final int flags = DateUtils.FORMAT_SHOW_TIME | DateUtils.FORMAT_24HOUR;
+        String contentDescription = DateUtils.formatDateTime(mContext, time, flags);
+        setContentDescription(contentDescription);
+    }
 
-        mSeconds = second;//(float) ((second * 1000 + millis) / 166.666);
-        mMinutes = minute + second / 60.0f;
-        mHour = hour + mMinutes / 60.0f;
-        mChanged = true;
+    public void setTimeZone(String id) {
+        mTimeZoneId = id;
+        mDescribedMinute = -1;
+        onTick(System.currentTimeMillis());
+    }
 
-        updateContentDescription(mCalendar);
+    public void enableSeconds(boolean enable) {
+        if (mNoSeconds == !enable) {
+            return;
+        }
+        mNoSeconds = !enable;
+        if (mAttached) {
+            ClockTicker.register(mContext, this, enable);
+        }
+        invalidate();
     }
 
-    private final BroadcastReceiver mIntentReceiver = new BroadcastReceiver() {
+    /**
+     * Draws the dial and the optional jewel, centered and scaled down to fit the bounds like the
+     * hands are in {@link #onDraw(Canvas)}. Used as the view's background so that it is not
+     * redrawn when only the hands move.
+     */
+    private static final class DialDrawable extends Drawable {
+        private final Drawable mDial;
+        private final float mDotRadius;
+        private final float mDotOffset;
+        private final Paint mDotPaint;
+        private float mScale = 1.0f;
+
+        DialDrawable(Drawable dial, float dotRadius, float dotOffset, int dotColor) {
+            mDial = dial;
+            mDotRadius = dotRadius;
+            mDotOffset = dotOffset;
+            if (dotColor != 0 && dotRadius > 0f) {
+                mDotPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+                mDotPaint.setColor(dotColor);
+            } else {
+                mDotPaint = null;
+            }
+        }
+
         @Override
-        public void onReceive(Context context, Intent intent) {
-            if (intent.getAction().equals(Intent.ACTION_TIMEZONE_CHANGED)) {
-                String tz = intent.getStringExtra("time-zone");
-                mCalendar = new Time(TimeZone.getTimeZone(tz).getID());
+        protected void onBoundsChange(Rect bounds) {
+            final int w = mDial.getIntrinsicWidth();
+            final int h = mDial.getIntrinsicHeight();
+            final int x = bounds.centerX();
+            final int y = bounds.centerY();
+            mDial.setBounds(x - (w / 2), y - (h / 2), x + (w / 2), y + (h / 2));
+            if (bounds.width() < w || bounds.height() < h) {
+                mScale = Math.min((float) bounds.width() / (float) w,
+                                  (float) bounds.height() / (float) h);
+            } else {
+                mScale = 1.0f;
             }
-            onTimeChanged();
-            invalidate();
         }
-    };
 
-    private final Runnable mClockTick = new Runnable () {
+        @Override
+        public void draw(Canvas canvas) {
+            final Rect bounds = getBounds();
+            final int x = bounds.centerX();
+            final int y = bounds.centerY();
+            final boolean scaled = mScale != 1.0f;
+            if (scaled) {
+                canvas.save();
+                canvas.scale(mScale, mScale, x, y);
+            }
+            mDial.draw(canvas);
+            if (mDotPaint != null) {
+                canvas.drawCircle(x, y - (mDial.getIntrinsicHeight() / 2) + mDotOffset,
+                        mDotRadius, mDotPaint);
+            }
+            if (scaled) {
+                canvas.restore();
+            }
+        }
 
         @Override
-        public void run() {
-            onTimeChanged();
-            invalidate();
-            AnalogClock.this.postDelayed(mClockTick, 1000);
+        public int getIntrinsicWidth() {
+            return mDial.getIntrinsicWidth();
         }
-    };
 
-    private void updateContentDescription(Time time) {
-        final int flags = DateUtils.FORMAT_SHOW_TIME | DateUtils.FORMAT_24HOUR;
-        String contentDescription = DateUtils.formatDateTime(mContext,
-                time.toMillis(false), flags);
-        setContentDescription(contentDescription);
-    }
+        @Override
+        public int getIntrinsicHeight() {
+            return mDial.getIntrinsicHeight();
+        }
 
-    public void setTimeZone(String id) {
-        mTimeZoneId = id;
-        onTimeChanged();
-    }
+        @Override
+        public void setAlpha(int alpha) {
+            mDial.setAlpha(alpha);
+            if (mDotPaint != null) {
+                mDotPaint.setAlpha(alpha);
+            }
+        }
 
-    public void enableSeconds(boolean enable) {
-        mNoSeconds = !enable;
-    }
+        @Override
+        public void setColorFilter(ColorFilter cf) {
+            mDial.setColorFilter(cf);
+            if (mDotPaint != null) {
+                mDotPaint.setColorFilter(cf);
+            }
+        }
 
+        @Override
+        public int getOpacity() {
+            return PixelFormat.TRANSLUCENT;
+        }
+    }
 }
-
@@ -18,22 +18,71 @@ package com.android.deskclock;
 
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
 
 /**
- * Helper class for managing the background thread used to perform io operations
+ * Helper class for managing the background threads used to perform io operations
  * and handle async broadcasts.
+ *
+ * Work is split into lanes, each with its own thread, so that a long maintenance job can't hold
+ * up work the user is waiting for:
+ * <ul>
+ *     <li>{@link #LANE_CRITICAL} for alarm firing, snooze and dismiss and other alarm writes</li>
+ *     <li>{@link #LANE_DEFAULT} for work started from the UI</li>
+ *     <li>{@link #LANE_BULK} for maintenance, e.g. after boot or a time change</li>
+ * </ul>
+ * Queue and run times are recorded per task type and dumped by {@link #dump}.
  */
 public final class AsyncHandler {
-    private static final HandlerThread sHandlerThread = new HandlerThread("AsyncHandler");
-    private static final Handler sHandler;
+
+    public static final int LANE_CRITICAL = 0;
+    public static final int LANE_DEFAULT = 1;
+    public static final int LANE_BULK = 2;
+
+    private static final String[] LANE_NAMES = { "AsyncHandler-critical", "AsyncHandler",
+            "AsyncHandler-bulk" };
+    private static final int[] LANE_PRIORITIES = { Process.THREAD_PRIORITY_FOREGROUND,
+            Process.THREAD_PRIORITY_DEFAULT, Process.THREAD_PRIORITY_BACKGROUND };
+
+    private static final Handler[] sHandlers = new Handler[LANE_NAMES.length];
+    private static final TaskStats sStats = new TaskStats("AsyncHandler");
 
     static {
-        sHandlerThread.start();
-        sHandler = new Handler(sHandlerThread.getLooper());
+        for (int lane = 0; lane < LANE_NAMES.length; lane++) {
+            final HandlerThread thread = new HandlerThread(LANE_NAMES[lane], LANE_PRIORITIES[lane]);
+            thread.start();
+            sHandlers[lane] = new Handler(thread.getLooper());
+        }
     }
 
+    /**
+     * Runs a task on the default lane, recording it under its class name.
+     */
     public static void post(Runnable r) {
-        sHandler.post(r);
+        post(LANE_DEFAULT, r.getClass().getName(), r);
+    }
+
+    /**
+     * Runs a task on the given lane, recording its queue and run times under {@code type}.
+     */
+    public static void post(final int lane, final String type, final Runnable r) {
+        final long postedAt = SystemClock.elapsedRealtime();
+        sHandlers[lane].post(new Runnable() {
+            @Override
+            public void run() {
+                final long start = SystemClock.elapsedRealtime();
+                r.run();
+                sStats.record(LANE_NAMES[lane] + "/" + type, start - postedAt,
+                        SystemClock.elapsedRealtime() - start);
+            }
+        });
+    }
+
+    public static void dump(PrintWriter pw) {
+        sStats.dump(pw);
     }
 
     private AsyncHandler() {}
@@ -0,0 +1,580 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.AudioAttributes;
+import android.media.AudioManager;
+import android.media.MediaPlayer;
+import android.media.RingtoneManager;
+import android.media.SoundPool;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Plays the looping ringtones of alarms and timers on the alarm stream.
+ *
+ * Each client, i.e. alarms and timers, plays at most one ringtone at a time. Media players are
+ * reset and pooled rather than released when a ringtone stops. Ringtones are opened on an
+ * {@link AsyncHandler} lane, as resolving the default ringtone and opening a content uri are
+ * calls to other processes, and then prepared asynchronously, so the caller is never blocked; a
+ * ringtone may also be prepared ahead of time with {@link #prepare}. If a ringtone fails to
+ * prepare within {@link #PREPARE_TIMEOUT_MS} or fails while playing, the fallback ringtone is
+ * played instead. The fallback and in-call tones are decoded once into a {@link SoundPool}, so
+ * they start right away. Audio focus is held while any client is playing.
+ *
+ * A ringtone may fade in over a given duration from the moment it becomes audible. The volume of
+ * all fading ringtones is raised by one runnable every {@link #CRESCENDO_STEP_MS}, which stops
+ * rescheduling itself once no ringtone is fading. The volume rises linearly in decibels, from
+ * {@link #CRESCENDO_START_DB} to the full volume, which sounds even to the ear.
+ *
+ * Must only be used from the main thread.
+ */
+public final class AudioEngine implements AudioManager.OnAudioFocusChangeListener {
+
+    public static final int CLIENT_ALARM = 0;
+    public static final int CLIENT_TIMER = 1;
+    private static final int CLIENT_COUNT = 2;
+
+    private static final String[] CLIENT_NAMES = { "alarm", "timer" };
+
+    // Volume suggested by media team for in-call alarms.
+    private static final float IN_CALL_VOLUME = 0.125f;
+
+    /** How long a ringtone may take to prepare before the fallback is played instead. */
+    private static final long PREPARE_TIMEOUT_MS = 2000;
+
+    private static final long CRESCENDO_STEP_MS = 250;
+    private static final float CRESCENDO_START_DB = -40f;
+
+    private static final AudioAttributes ALARM_ATTRIBUTES = new AudioAttributes.Builder()
+            .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+            .setUsage(AudioAttributes.USAGE_ALARM)
+            .build();
+
+    /**
+     * A ringtone to play: a content uri or an asset.
+     */
+    public static final class Source {
+        private final Uri mUri;
+        private final String mAsset;
+        private final int mResId;
+
+        private Source(Uri uri, String asset, int resId) {
+            mUri = uri;
+            mAsset = asset;
+            mResId = resId;
+        }
+
+        /**
+         * @param uri a ringtone uri; the default alarm uri is resolved to the ringtone it
+         *     points to when the ringtone is prepared
+         */
+        public static Source forUri(Uri uri) {
+            return new Source(uri, null, 0);
+        }
+
+        public static Source forAsset(String path) {
+            return new Source(null, path, 0);
+        }
+
+        private static Source forResource(int resId) {
+            return new Source(null, null, resId);
+        }
+
+        /**
+         * Opens the ringtone up front, so that a missing or unreadable one fails here rather
+         * than in prepare. Resolving the default ringtone and opening a content uri are calls to
+         * other processes, so this is done off the main thread except for local resources.
+         */
+        private AssetFileDescriptor open(Context context) throws IOException {
+            final AssetFileDescriptor afd;
+            if (mUri != null) {
+                Uri uri = mUri;
+                if (RingtoneManager.isDefault(uri)) {
+                    uri = RingtoneManager.getActualDefaultRingtoneUri(context,
+                            RingtoneManager.TYPE_ALARM);
+                    if (uri == null) {
+                        throw new IOException("No default alarm ringtone");
+                    }
+                }
+                afd = context.getContentResolver().openAssetFileDescriptor(uri, "r");
+            } else if (mAsset != null) {
+                afd = context.getAssets().openFd(mAsset);
+            } else {
+                afd = context.getResources().openRawResourceFd(mResId);
+            }
+            if (afd == null) {
+                throw new IOException("Could not open " + this);
+            }
+            return afd;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Source)) {
+                return false;
+            }
+            final Source other = (Source) o;
+            return (mUri == null ? other.mUri == null : mUri.equals(other.mUri))
+                    && (mAsset == null ? other.mAsset == null : mAsset.equals(other.mAsset))
+                    && mResId == other.mResId;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mUri != null ? mUri.hashCode() : 0;
+            result = 31 * result + (mAsset != null ? mAsset.hashCode() : 0);
+            return 31 * result + mResId;
+        }
+
+        @Override
+        public String toString() {
+            return mUri != null ? mUri.toString() : mAsset != null ? mAsset : "res:" + mResId;
+        }
+    }
+
+    /**
+     * Playback state of one client.
+     */
+    private final class Client implements MediaPlayer.OnPreparedListener,
+            MediaPlayer.OnErrorListener, Runnable {
+        final int id;
+        MediaPlayer player;
+        Source source;
+        boolean prepared;
+        /** Incremented whenever the player is dropped, to ignore ringtones opened for it. */
+        int generation;
+        /** Whether the client wants its ringtone to sound, even if it isn't audible yet. */
+        boolean playing;
+        /** Volume once any crescendo is over. */
+        float volume = 1f;
+        long crescendoMillis;
+        /** When the ringtone became audible, or 0. */
+        long audibleAt;
+        /** Sound pool stream of the fallback or in-call tone, or 0. */
+        int streamId;
+        long playRequestedAt;
+        Runnable onAudible;
+
+        Client(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public void onPrepared(MediaPlayer mp) {
+            if (mp != player) {
+                return;
+            }
+            mHandler.removeCallbacks(this);
+            prepared = true;
+            if (playing) {
+                startPlayer(this, "prepared on demand");
+            }
+        }
+
+        @Override
+        public boolean onError(MediaPlayer mp, int what, int extra) {
+            if (mp == player) {
+                LogUtils.e("Error " + what + "/" + extra + " playing " + source + " for "
+                        + CLIENT_NAMES[id]);
+                fail(this);
+            }
+            return true;
+        }
+
+        /** Prepare timeout. */
+        @Override
+        public void run() {
+            LogUtils.w("Timed out preparing " + source + " for " + CLIENT_NAMES[id]);
+            fail(this);
+        }
+    }
+
+    private static AudioEngine sInstance;
+
+    private final Context mContext;
+    private final AudioManager mAudioManager;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Client[] mClients = new Client[CLIENT_COUNT];
+    private final ArrayList<MediaPlayer> mIdlePlayers = new ArrayList<MediaPlayer>(CLIENT_COUNT);
+
+    private final SoundPool mSoundPool;
+    private final int mFallbackSoundId;
+    private final int mInCallSoundId;
+    private boolean mFallbackLoaded;
+    private boolean mInCallLoaded;
+
+    private boolean mHasFocus;
+
+    private final Runnable mCrescendoStep = new Runnable() {
+        @Override
+        public void run() {
+            final long now = SystemClock.elapsedRealtime();
+            boolean fading = false;
+            for (Client client : mClients) {
+                if (client.audibleAt != 0 && client.crescendoMillis > 0) {
+                    applyVolume(client, now);
+                    fading |= now - client.audibleAt < client.crescendoMillis;
+                }
+            }
+            if (fading) {
+                mHandler.postDelayed(this, CRESCENDO_STEP_MS);
+            }
+        }
+    };
+
+    public static AudioEngine getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AudioEngine(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private AudioEngine(Context context) {
+        mContext = context;
+        mAudioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+        for (int i = 0; i < CLIENT_COUNT; i++) {
+            mClients[i] = new Client(i);
+        }
+
+        mSoundPool = new SoundPool.Builder()
+                .setMaxStreams(CLIENT_COUNT)
+                .setAudioAttributes(ALARM_ATTRIBUTES)
+                .build();
+        mSoundPool.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
+            @Override
+            public void onLoadComplete(SoundPool soundPool, int sampleId, int status) {
+                if (status != 0) {
+                    LogUtils.e("Failed to decode tone " + sampleId);
+                } else if (sampleId == mFallbackSoundId) {
+                    mFallbackLoaded = true;
+                } else if (sampleId == mInCallSoundId) {
+                    mInCallLoaded = true;
+                }
+            }
+        });
+        mFallbackSoundId = mSoundPool.load(context, R.raw.fallbackring, 1);
+        mInCallSoundId = mSoundPool.load(context, R.raw.in_call_alarm, 1);
+    }
+
+    /**
+     * Prepares the given ringtone so that a later {@link #play} of it starts right away. Does
+     * nothing while the client is playing.
+     */
+    public void prepare(int clientId, Source source) {
+        final Client client = mClients[clientId];
+        if (client.playing || (client.player != null && source.equals(client.source))) {
+            return;
+        }
+        reset(client);
+        startPrepare(client, source, AsyncHandler.LANE_DEFAULT);
+    }
+
+    /**
+     * Plays the given ringtone in a loop until {@link #stop} is called, unless the alarm stream
+     * is muted. If the user is in a call the in-call tone is played at a low volume instead.
+     *
+     * @param crescendoMillis how long the ringtone takes to fade in to full volume, or 0; the
+     *     in-call tone doesn't fade in
+     */
+    public void play(int clientId, Source source, boolean inTelephoneCall,
+            long crescendoMillis) {
+        final Client client = mClients[clientId];
+        if (client.playing || !(source.equals(client.source) && client.player != null)
+                || inTelephoneCall) {
+            reset(client);
+        }
+        client.playing = true;
+        client.crescendoMillis = crescendoMillis;
+        client.playRequestedAt = SystemClock.elapsedRealtime();
+
+        // do not play alarms if stream volume is 0 (typically because ringer mode is silent).
+        if (mAudioManager.getStreamVolume(AudioManager.STREAM_ALARM) == 0) {
+            LogUtils.v("Alarm stream is muted, not playing " + source);
+            return;
+        }
+        requestFocus();
+
+        // Check if we are in a call. If we are, use the in-call alarm
+        // resource at a low volume to not disrupt the call.
+        if (inTelephoneCall) {
+            LogUtils.v("Using the in-call alarm");
+            client.volume = IN_CALL_VOLUME;
+            client.crescendoMillis = 0;
+            playTone(client, mInCallLoaded ? mInCallSoundId : 0,
+                    Source.forResource(R.raw.in_call_alarm));
+        } else if (client.prepared) {
+            startPlayer(client, "prepared ahead");
+        } else if (client.player == null) {
+            mHandler.postDelayed(client, PREPARE_TIMEOUT_MS);
+            startPrepare(client, source, AsyncHandler.LANE_CRITICAL);
+        } else {
+            // Still preparing from an earlier call to prepare
+            mHandler.postDelayed(client, PREPARE_TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * Sets a listener run whenever a ringtone of the client becomes audible; may be null.
+     */
+    public void setOnAudibleListener(int clientId, Runnable listener) {
+        mClients[clientId].onAudible = listener;
+    }
+
+    /**
+     * Stops the client's ringtone, or drops the one it prepared.
+     */
+    public void stop(int clientId) {
+        reset(mClients[clientId]);
+        abandonFocusIfIdle();
+    }
+
+    @Override
+    public void onAudioFocusChange(int focusChange) {
+        // Alarms keep ringing whatever else wants to play.
+    }
+
+    /**
+     * Opens the ringtone on the given lane, then prepares it asynchronously on a player that
+     * lives on the main thread, so its callbacks are delivered here as well. Ringtones that must
+     * sound now are opened on the critical lane, ahead of background work.
+     */
+    private void startPrepare(final Client client, final Source source, int lane) {
+        client.source = source;
+        client.prepared = false;
+        client.player = obtainPlayer(client);
+        final int generation = ++client.generation;
+        AsyncHandler.post(lane, "openRingtone", new Runnable() {
+            @Override
+            public void run() {
+                AssetFileDescriptor afd = null;
+                Exception error = null;
+                try {
+                    afd = source.open(mContext);
+                } catch (Exception ex) {
+                    error = ex;
+                }
+                final AssetFileDescriptor opened = afd;
+                final Exception openError = error;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (client.generation != generation) {
+                            // Stopped or replaced while opening
+                            closeQuietly(opened);
+                            return;
+                        }
+                        try {
+                            if (openError != null) {
+                                throw openError;
+                            }
+                            setDataSource(client.player, opened);
+                            client.player.setAudioStreamType(AudioManager.STREAM_ALARM);
+                            client.player.setLooping(true);
+                            client.player.prepareAsync();
+                        } catch (Exception ex) {
+                            LogUtils.e("Failed to prepare " + source + " for "
+                                    + CLIENT_NAMES[client.id], ex);
+                            fail(client);
+                        } finally {
+                            closeQuietly(opened);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private static void setDataSource(MediaPlayer player, AssetFileDescriptor afd)
+            throws IOException {
+        if (afd.getDeclaredLength() < 0) {
+            player.setDataSource(afd.getFileDescriptor());
+        } else {
+            player.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(),
+                    afd.getDeclaredLength());
+        }
+    }
+
+    private static void closeQuietly(AssetFileDescriptor afd) {
+        if (afd != null) {
+            try {
+                afd.close();
+            } catch (IOException e) {
+                // Nothing to do
+            }
+        }
+    }
+
+    private void startPlayer(Client client, String how) {
+        onAudible(client);
+        client.player.start();
+        LogUtils.i("Playing " + client.source + " for " + CLIENT_NAMES[client.id] + ", "
+                + how + ", after " + (SystemClock.elapsedRealtime() - client.playRequestedAt)
+                + " ms");
+    }
+
+    /**
+     * Drops the client's player after an error or timeout and, if it is supposed to be playing,
+     * plays the fallback ringtone instead.
+     */
+    private void fail(Client client) {
+        mHandler.removeCallbacks(client);
+        final boolean wasFallback = client.source != null && client.source.mResId != 0;
+        client.generation++;
+        if (client.player != null) {
+            // Don't pool a player that failed; it may be stuck in prepare.
+            client.player.release();
+            client.player = null;
+        }
+        client.source = null;
+        client.prepared = false;
+        if (client.playing && !wasFallback) {
+            LogUtils.v("Using the fallback ringtone");
+            playTone(client, mFallbackLoaded ? mFallbackSoundId : 0,
+                    Source.forResource(R.raw.fallbackring));
+        }
+    }
+
+    /**
+     * Plays a decoded tone from the sound pool, or if it isn't decoded yet, prepares it from its
+     * resource which being a local file is quick.
+     */
+    private void playTone(Client client, int soundId, Source resource) {
+        if (soundId != 0) {
+            final float volume = client.crescendoMillis > 0 ? getCrescendoGain(0) * client.volume
+                    : client.volume;
+            client.streamId = mSoundPool.play(soundId, volume, volume, 1, -1 /* loop */, 1f);
+            if (client.streamId != 0) {
+                onAudible(client);
+                LogUtils.i("Playing decoded " + resource + " for " + CLIENT_NAMES[client.id]
+                        + " after " + (SystemClock.elapsedRealtime() - client.playRequestedAt)
+                        + " ms");
+                return;
+            }
+        }
+        client.source = resource;
+        client.player = obtainPlayer(client);
+        AssetFileDescriptor afd = null;
+        try {
+            afd = resource.open(mContext);
+            setDataSource(client.player, afd);
+            client.player.setAudioStreamType(AudioManager.STREAM_ALARM);
+            client.player.setLooping(true);
+            client.player.prepare();
+            client.prepared = true;
+            startPlayer(client, "prepared synchronously");
+        } catch (Exception ex) {
+            // At this point we just don't play anything.
+            LogUtils.e("Failed to play " + resource, ex);
+            client.player.release();
+            client.player = null;
+            client.source = null;
+        } finally {
+            closeQuietly(afd);
+        }
+    }
+
+    private void reset(Client client) {
+        mHandler.removeCallbacks(client);
+        client.generation++;
+        if (client.streamId != 0) {
+            mSoundPool.stop(client.streamId);
+            client.streamId = 0;
+        }
+        if (client.player != null) {
+            client.player.reset();
+            mIdlePlayers.add(client.player);
+            client.player = null;
+        }
+        client.source = null;
+        client.prepared = false;
+        client.playing = false;
+        client.volume = 1f;
+        client.crescendoMillis = 0;
+        client.audibleAt = 0;
+    }
+
+    private void onAudible(Client client) {
+        client.audibleAt = SystemClock.elapsedRealtime();
+        applyVolume(client, client.audibleAt);
+        if (client.crescendoMillis > 0) {
+            mHandler.removeCallbacks(mCrescendoStep);
+            mHandler.postDelayed(mCrescendoStep, CRESCENDO_STEP_MS);
+        }
+        if (client.onAudible != null) {
+            client.onAudible.run();
+        }
+    }
+
+    private void applyVolume(Client client, long now) {
+        float volume = client.volume;
+        if (client.crescendoMillis > 0) {
+            volume *= getCrescendoGain((float) (now - client.audibleAt) / client.crescendoMillis);
+        }
+        if (client.streamId != 0) {
+            mSoundPool.setVolume(client.streamId, volume, volume);
+        } else if (client.player != null) {
+            client.player.setVolume(volume, volume);
+        }
+    }
+
+    /**
+     * @param progress how far the crescendo is, from 0 to 1
+     */
+    private static float getCrescendoGain(float progress) {
+        if (progress >= 1f) {
+            return 1f;
+        }
+        return (float) Math.pow(10, CRESCENDO_START_DB * (1f - progress) / 20);
+    }
+
+    private MediaPlayer obtainPlayer(Client client) {
+        final MediaPlayer player = mIdlePlayers.isEmpty()
+                ? new MediaPlayer() : mIdlePlayers.remove(mIdlePlayers.size() - 1);
+        player.setOnPreparedListener(client);
+        player.setOnErrorListener(client);
+        return player;
+    }
+
+    private void requestFocus() {
+        if (!mHasFocus) {
+            mAudioManager.requestAudioFocus(this, AudioManager.STREAM_ALARM,
+                    AudioManager.AUDIOFOCUS_GAIN_TRANSIENT);
+            mHasFocus = true;
+        }
+    }
+
+    private void abandonFocusIfIdle() {
+        if (!mHasFocus) {
+            return;
+        }
+        for (Client client : mClients) {
+            if (client.playing) {
+                return;
+            }
+        }
+        mAudioManager.abandonAudioFocus(this);
+        mHasFocus = false;
+    }
+}
@@ -24,8 +24,10 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.database.DataSetObserver;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
@@ -34,12 +36,14 @@ import android.view.View.OnClickListener;
 import android.view.View.OnTouchListener;
 import android.view.ViewConfiguration;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.ImageButton;
 import android.widget.ListView;
 import android.widget.TextClock;
 
 import com.android.deskclock.worldclock.CitiesActivity;
 import com.android.deskclock.worldclock.WorldClockAdapter;
+import com.android.deskclock.worldclock.ZoneOffsetCache;
 
 /**
  * Fragment that shows  the clock (analog or digital), the next alarm info and the world clock.
@@ -67,29 +71,23 @@ public class ClockFragment extends DeskClockFragment implements OnSharedPreferen
                     || action.equals(Intent.ACTION_TIMEZONE_CHANGED)
                     || action.equals(Intent.ACTION_LOCALE_CHANGED);
             if (changed) {
+                if (action.equals(Intent.ACTION_TIMEZONE_CHANGED)) {
+                    ZoneOffsetCache.invalidate();
+                }
                 Utils.updateDate(mDateFormat, mDateFormatForAccessibility, mClockFrame);
+                // Locale change: update digital clock format
+                if (action.equals(Intent.ACTION_LOCALE_CHANGED) && mDigitalClock != null) {
+                    Utils.setTimeFormat(
+                            (TextClock) (mDigitalClock.findViewById(R.id.digital_clock)),
+                            (int) context.getResources().
+                                    getDimension(R.dimen.main_ampm_font_size)
+                    );
+                }
                 if (mAdapter != null) {
-                    // *CHANGED may modify the need for showing the Home City
-                    if (mAdapter.hasHomeCity() != mAdapter.needHomeCity()) {
-                        mAdapter.reloadData(context);
-                    } else {
-                        mAdapter.notifyDataSetChanged();
-                    }
-                    // Locale change: update digital clock format and
-                    // reload the cities list with new localized names
-                    if (action.equals(Intent.ACTION_LOCALE_CHANGED)) {
-                        if (mDigitalClock != null) {
-                            Utils.setTimeFormat(
-                                    (TextClock) (mDigitalClock.findViewById(R.id.digital_clock)),
-                                    (int) context.getResources().
-                                            getDimension(R.dimen.main_ampm_font_size)
-                            );
-                        }
-                        mAdapter.loadCitiesDb(context);
-                        mAdapter.notifyDataSetChanged();
-                    }
+                    // *CHANGED may modify the need for showing the Home City, the day labels
+                    // and the localized city names.
+                    mAdapter.reloadData(context);
                 }
-                Utils.setQuarterHourUpdater(mHandler, mQuarterHourUpdater);
             }
             if (changed || action.equals(AlarmManager.ACTION_NEXT_ALARM_CLOCK_CHANGED)) {
                 Utils.refreshAlarm(getActivity(), mClockFrame);
@@ -99,16 +97,28 @@ public class ClockFragment extends DeskClockFragment implements OnSharedPreferen
 
     private final Handler mHandler = new Handler();
 
-    // Thread that runs on every quarter-hour and refreshes the date.
-    private final Runnable mQuarterHourUpdater = new Runnable() {
+    // Refreshes the main and world clock dates whenever the date changes here or in any of the
+    // displayed cities.
+    private final TimeBoundaryScheduler.OnBoundaryListener mDateUpdater =
+            new TimeBoundaryScheduler.OnBoundaryListener() {
         @Override
-        public void run() {
-            // Update the main and world clock dates
+        public void onBoundary(int boundaries, long now) {
             Utils.updateDate(mDateFormat, mDateFormatForAccessibility, mClockFrame);
             if (mAdapter != null) {
-                mAdapter.notifyDataSetChanged();
+                mAdapter.reloadData(getActivity());
+            }
+        }
+    };
+
+    // Updates the list chrome and the date boundaries of interest whenever the cities change.
+    private final DataSetObserver mCitiesObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            updateCitiesVisibility();
+            if (isResumed()) {
+                TimeBoundaryScheduler.subscribe(getActivity(), mDateUpdater,
+                        TimeBoundaryScheduler.MIDNIGHT, mAdapter.getTimeZoneIds());
             }
-            Utils.setQuarterHourUpdater(mHandler, mQuarterHourUpdater);
         }
     };
 
@@ -118,8 +128,9 @@ public class ClockFragment extends DeskClockFragment implements OnSharedPreferen
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
             Bundle icicle) {
+        final long createTime = SystemClock.uptimeMillis();
         // Inflate the layout for this fragment
-        View v = inflater.inflate(R.layout.clock_fragment, container, false);
+        final View v = inflater.inflate(R.layout.clock_fragment, container, false);
         if (icicle != null) {
             mButtonsHidden = icicle.getBoolean(BUTTONS_HIDDEN_KEY, false);
         }
@@ -173,7 +184,6 @@ public class ClockFragment extends DeskClockFragment implements OnSharedPreferen
         if (mClockFrame == null) {
             mClockFrame = inflater.inflate(R.layout.main_clock_frame, mList, false);
             mHairline = mClockFrame.findViewById(R.id.hairline);
-            mHairline.setVisibility(View.VISIBLE);
             mList.addHeaderView(mClockFrame, null, false);
         } else {
             mHairline.setVisibility(View.GONE);
@@ -195,11 +205,21 @@ public class ClockFragment extends DeskClockFragment implements OnSharedPreferen
                 (int) getResources().getDimension(R.dimen.main_ampm_font_size));
         View footerView = inflater.inflate(R.layout.blank_footer_view, mList, false);
         mList.addFooterView(footerView, null, false);
+        // The cities are loaded in the background from onResume; until then the list is empty.
         mAdapter = new WorldClockAdapter(getActivity());
-        if (mAdapter.getCount() == 0) {
-            mHairline.setVisibility(View.GONE);
-        }
+        mAdapter.registerDataSetObserver(mCitiesObserver);
         mList.setAdapter(mAdapter);
+        updateCitiesVisibility();
+
+        v.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                v.getViewTreeObserver().removeOnPreDrawListener(this);
+                LogUtils.v(TAG, "First frame %d ms after creating the view",
+                        SystemClock.uptimeMillis() - createTime);
+                return true;
+            }
+        });
 
         mPrefs = PreferenceManager.getDefaultSharedPreferences(getActivity());
         mDefaultClockStyle = getActivity().getResources().getString(R.string.default_clock_style);
@@ -220,8 +240,7 @@ public class ClockFragment extends DeskClockFragment implements OnSharedPreferen
         mDateFormat = getString(R.string.abbrev_wday_month_day_no_year);
         mDateFormatForAccessibility = getString(R.string.full_wday_month_day_no_year);
 
-        Utils.setQuarterHourUpdater(mHandler, mQuarterHourUpdater);
-        // Besides monitoring when quarter-hour changes, monitor other actions that
+        // Besides monitoring when the date changes, monitor other actions that
         // effect clock time
         IntentFilter filter = new IntentFilter();
         filter.addAction(AlarmManager.ACTION_NEXT_ALARM_CLOCK_CHANGED);
@@ -231,23 +250,15 @@ public class ClockFragment extends DeskClockFragment implements OnSharedPreferen
         activity.registerReceiver(mIntentReceiver, filter);
 
         // Resume can invoked after changing the cities list or a change in locale
-        if (mAdapter != null) {
-            mAdapter.loadCitiesDb(activity);
-            mAdapter.reloadData(activity);
-        }
+        mAdapter.refreshData(activity);
         // Resume can invoked after changing the clock style.
         View clockView = Utils.setClockStyle(activity, mDigitalClock, mAnalogClock,
                 SettingsActivity.KEY_CLOCK_STYLE);
         mClockStyle = (clockView == mDigitalClock ?
                 Utils.CLOCK_TYPE_DIGITAL : Utils.CLOCK_TYPE_ANALOG);
 
-        // Center the main clock frame if cities are empty.
-        if (getView().findViewById(R.id.main_clock_left_pane) != null && mAdapter.getCount() == 0) {
-            mList.setVisibility(View.GONE);
-        } else {
-            mList.setVisibility(View.VISIBLE);
-        }
-        mAdapter.notifyDataSetChanged();
+        TimeBoundaryScheduler.subscribe(activity, mDateUpdater, TimeBoundaryScheduler.MIDNIGHT,
+                mAdapter.getTimeZoneIds());
 
         Utils.updateDate(mDateFormat, mDateFormatForAccessibility, mClockFrame);
         Utils.refreshAlarm(activity, mClockFrame);
@@ -257,11 +268,25 @@ public class ClockFragment extends DeskClockFragment implements OnSharedPreferen
     public void onPause() {
         super.onPause();
         mPrefs.unregisterOnSharedPreferenceChangeListener(this);
-        Utils.cancelQuarterHourUpdater(mHandler, mQuarterHourUpdater);
+        TimeBoundaryScheduler.unsubscribe(mDateUpdater);
         Activity activity = getActivity();
         activity.unregisterReceiver(mIntentReceiver);
     }
 
+    /**
+     * Shows the hairline above the cities only if there are any, and centers the main clock frame
+     * if there are none.
+     */
+    private void updateCitiesVisibility() {
+        final boolean empty = mAdapter.getCount() == 0;
+        final boolean leftPane = mClockFrame.getId() == R.id.main_clock_left_pane;
+        if (leftPane) {
+            mList.setVisibility(empty ? View.GONE : View.VISIBLE);
+        } else {
+            mHairline.setVisibility(empty ? View.GONE : View.VISIBLE);
+        }
+    }
+
     @Override
     public void onSaveInstanceState(Bundle outState) {
         outState.putBoolean(BUTTONS_HIDDEN_KEY, mButtonsHidden);
@@ -272,7 +297,7 @@ public class ClockFragment extends DeskClockFragment implements OnSharedPreferen
     public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
         if (key == SettingsActivity.KEY_CLOCK_STYLE) {
             mClockStyle = prefs.getString(SettingsActivity.KEY_CLOCK_STYLE, mDefaultClockStyle);
-            mAdapter.notifyDataSetChanged();
+            mAdapter.reloadData(getActivity());
         }
     }
 
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.text.format.DateUtils;
+import android.view.Choreographer;
+
+import com.android.deskclock.worldclock.ZoneOffsetCache;
+
+import java.util.ArrayList;
+import java.util.TimeZone;
+
+/**
+ * Shared main-thread tick source for clock views. All registered listeners are driven from a
+ * single {@link Choreographer} frame callback aligned to the next second (or the next minute
+ * when no listener needs seconds), and from a single receiver for time and time zone changes.
+ * Several clocks on screen therefore cost one wake-up per tick instead of one each, and their
+ * hands move in the same frame.
+ *
+ * All methods must be called on the main thread.
+ */
+public final class ClockTicker {
+
+    public interface OnTickListener {
+        /**
+         * Called on each tick, and immediately when the time or time zone is changed.
+         *
+         * @param now the current wall time, as from {@link System#currentTimeMillis()}
+         */
+        void onTick(long now);
+    }
+
+    private static final ArrayList<OnTickListener> sSecondListeners =
+            new ArrayList<OnTickListener>();
+    private static final ArrayList<OnTickListener> sMinuteListeners =
+            new ArrayList<OnTickListener>();
+
+    /** Snapshot of both lists used for dispatch, so listeners may unregister from onTick. */
+    private static OnTickListener[] sDispatchSeconds = new OnTickListener[0];
+    private static OnTickListener[] sDispatchMinutes = new OnTickListener[0];
+
+    private static Context sAppContext;
+    private static String sDefaultZoneId;
+    private static boolean sScheduled;
+    private static long sLastMinute = -1;
+
+    private static final Choreographer.FrameCallback sFrameCallback =
+            new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            sScheduled = false;
+            dispatch(System.currentTimeMillis(), false);
+            scheduleNextTick();
+        }
+    };
+
+    private static final BroadcastReceiver sTimeChangedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_TIMEZONE_CHANGED.equals(intent.getAction())) {
+                ZoneOffsetCache.invalidate();
+                sDefaultZoneId = TimeZone.getDefault().getID();
+            }
+            // The next aligned tick has moved; dispatch now and re-align.
+            cancelNextTick();
+            dispatch(System.currentTimeMillis(), true);
+            scheduleNextTick();
+        }
+    };
+
+    private ClockTicker() {
+    }
+
+    /**
+     * Registers a listener. A listener that is already registered is moved to the requested
+     * granularity. The listener is not called back from within this method.
+     *
+     * @param seconds true to be called every second, false for every minute
+     */
+    public static void register(Context context, OnTickListener listener, boolean seconds) {
+        sSecondListeners.remove(listener);
+        sMinuteListeners.remove(listener);
+        (seconds ? sSecondListeners : sMinuteListeners).add(listener);
+        if (sAppContext == null) {
+            sAppContext = context.getApplicationContext();
+            sDefaultZoneId = TimeZone.getDefault().getID();
+            final IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_TIME_CHANGED);
+            filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+            sAppContext.registerReceiver(sTimeChangedReceiver, filter);
+        }
+        updateDispatchLists();
+        // Adding a seconds listener may need an earlier tick than the one already posted.
+        cancelNextTick();
+        scheduleNextTick();
+    }
+
+    public static void unregister(OnTickListener listener) {
+        if (!sSecondListeners.remove(listener) && !sMinuteListeners.remove(listener)) {
+            return;
+        }
+        updateDispatchLists();
+        if (sSecondListeners.isEmpty() && sMinuteListeners.isEmpty()) {
+            cancelNextTick();
+            sAppContext.unregisterReceiver(sTimeChangedReceiver);
+            sAppContext = null;
+            sDefaultZoneId = null;
+        }
+    }
+
+    /**
+     * Returns the id of the device's time zone. While any listener is registered this is kept
+     * up to date from the time zone broadcast without allocating a {@link TimeZone} per call.
+     */
+    public static String getDefaultZoneId() {
+        return sDefaultZoneId != null ? sDefaultZoneId : TimeZone.getDefault().getID();
+    }
+
+    private static void updateDispatchLists() {
+        sDispatchSeconds = sSecondListeners.toArray(new OnTickListener[sSecondListeners.size()]);
+        sDispatchMinutes = sMinuteListeners.toArray(new OnTickListener[sMinuteListeners.size()]);
+    }
+
+    private static void dispatch(long now, boolean force) {
+        for (OnTickListener listener : sDispatchSeconds) {
+            listener.onTick(now);
+        }
+        final long minute = now / DateUtils.MINUTE_IN_MILLIS;
+        if (force || minute != sLastMinute) {
+            sLastMinute = minute;
+            for (OnTickListener listener : sDispatchMinutes) {
+                listener.onTick(now);
+            }
+        }
+    }
+
+    private static void scheduleNextTick() {
+        if (sScheduled || (sSecondListeners.isEmpty() && sMinuteListeners.isEmpty())) {
+            return;
+        }
+        final long period = sSecondListeners.isEmpty()
+                ? DateUtils.MINUTE_IN_MILLIS : DateUtils.SECOND_IN_MILLIS;
+        final long now = System.currentTimeMillis();
+        Choreographer.getInstance().postFrameCallbackDelayed(sFrameCallback,
+                period - now % period);
+        sScheduled = true;
+    }
+
+    private static void cancelNextTick() {
+        if (sScheduled) {
+            Choreographer.getInstance().removeFrameCallback(sFrameCallback);
+            sScheduled = false;
+        }
+    }
+}
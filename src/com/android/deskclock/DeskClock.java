@@ -32,12 +32,12 @@ import android.content.res.Configuration;
 import android.graphics.Outline;
 import android.media.AudioManager;
 import android.os.Bundle;
-import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.preference.PreferenceManager;
 import android.support.v13.app.FragmentPagerAdapter;
 import android.support.v4.view.ViewPager;
 import android.text.TextUtils;
-import android.text.format.DateUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -45,10 +45,13 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.View.OnTouchListener;
+import android.view.ViewGroup;
 import android.view.ViewOutlineProvider;
 import android.widget.ImageButton;
 import android.widget.TextView;
 
+import com.android.deskclock.alarms.AlarmFireTrace;
+import com.android.deskclock.alarms.AlarmMutationExecutor;
 import com.android.deskclock.alarms.AlarmStateManager;
 import com.android.deskclock.provider.Alarm;
 import com.android.deskclock.stopwatch.StopwatchFragment;
@@ -58,6 +61,8 @@ import com.android.deskclock.timer.TimerFragment;
 import com.android.deskclock.timer.TimerObj;
 import com.android.deskclock.timer.Timers;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Locale;
@@ -73,8 +78,6 @@ public class DeskClock extends Activity implements LabelDialogFragment.TimerLabe
     // Alarm action for midnight (so we can update the date display).
     private static final String KEY_SELECTED_TAB = "selected_tab";
     private static final String KEY_LAST_HOUR_COLOR = "last_hour_color";
-    // Check whether to change background every minute
-    private static final long BACKGROUND_COLOR_CHECK_DELAY_MILLIS = DateUtils.MINUTE_IN_MILLIS;
     private static final int BACKGROUND_COLOR_INITIAL_ANIMATION_DURATION_MILLIS = 3000;
     private static final int UNKNOWN_COLOR_ID = 0;
 
@@ -87,17 +90,32 @@ public class DeskClock extends Activity implements LabelDialogFragment.TimerLabe
     private Menu mMenu;
     private ViewPager mViewPager;
     private TabsAdapter mTabsAdapter;
-    private Handler mHander;
     private ImageButton mFab;
     private ImageButton mLeftButton;
     private ImageButton mRightButton;
     private int mSelectedTab;
     private int mLastHourColor = UNKNOWN_COLOR_ID;
-    private final Runnable mBackgroundColorChanger = new Runnable() {
+    // The background color changes on the hour, which is also a quarter-hour boundary.
+    private final TimeBoundaryScheduler.OnBoundaryListener mBackgroundColorChanger =
+            new TimeBoundaryScheduler.OnBoundaryListener() {
         @Override
-        public void run() {
+        public void onBoundary(int boundaries, long now) {
             setBackgroundColor();
-            mHander.postDelayed(this, BACKGROUND_COLOR_CHECK_DELAY_MILLIS);
+        }
+    };
+
+    /**
+     * Creates the fragments of the tabs that aren't selected once the first frame is drawn and
+     * the main thread goes idle, so that a cold start only inflates and loads the selected tab.
+     */
+    private final MessageQueue.IdleHandler mDeferredTabsCreator = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            if (!isDestroyed() && mTabsAdapter != null) {
+                mTabsAdapter.createDeferredTabs();
+                reportFullyDrawn();
+            }
+            return false;
         }
     };
 
@@ -119,16 +137,14 @@ public class DeskClock extends Activity implements LabelDialogFragment.TimerLabe
     @Override
     protected void onStart() {
         super.onStart();
-        if (mHander == null) {
-            mHander = new Handler();
-        }
-        mHander.postDelayed(mBackgroundColorChanger, BACKGROUND_COLOR_CHECK_DELAY_MILLIS);
+        TimeBoundaryScheduler.subscribe(this, mBackgroundColorChanger,
+                TimeBoundaryScheduler.QUARTER_HOUR);
     }
 
     @Override
     protected void onStop() {
         super.onStop();
-        mHander.removeCallbacks(mBackgroundColorChanger);
+        TimeBoundaryScheduler.unsubscribe(mBackgroundColorChanger);
     }
 
     @Override
@@ -225,6 +241,7 @@ public class DeskClock extends Activity implements LabelDialogFragment.TimerLabe
 
             mActionBar.setSelectedNavigationItem(selectedIndex);
             mTabsAdapter.notifySelectedPage(selectedIndex);
+            mTabsAdapter.onTabsCreated();
         }
     }
 
@@ -256,13 +273,28 @@ public class DeskClock extends Activity implements LabelDialogFragment.TimerLabe
         }
         initViews();
         setHomeTimeZone();
+        Looper.myQueue().addIdleHandler(mDeferredTabsCreator);
 
         // We need to update the system next alarm time on app startup because the
         // user might have clear our data.
-        AlarmStateManager.updateNextAlarm(this);
+        final Context context = getApplicationContext();
+        AlarmMutationExecutor.execute(AlarmMutationExecutor.NO_ALARM, "updateNextAlarm",
+                new AlarmMutationExecutor.Mutation<Void>() {
+            @Override
+            protected Void doInBackground() {
+                AlarmStateManager.updateNextAlarm(context);
+                return null;
+            }
+        });
         ExtensionsFactory.init(getAssets());
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        Looper.myQueue().removeIdleHandler(mDeferredTabsCreator);
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -307,6 +339,14 @@ public class DeskClock extends Activity implements LabelDialogFragment.TimerLabe
         outState.putInt(KEY_LAST_HOUR_COLOR, mLastHourColor);
     }
 
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        AlarmMutationExecutor.dump(writer);
+        AsyncHandler.dump(writer);
+        AlarmFireTrace.dump(writer);
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // We only want to show it as a menu in landscape, and only for clock/alarm fragment.
@@ -451,6 +491,11 @@ public class DeskClock extends Activity implements LabelDialogFragment.TimerLabe
         }
 
         private final ArrayList<TabInfo> mTabs = new ArrayList<TabInfo>();
+        /** Held by the pager in place of the fragments of tabs not created yet. */
+        private final Object mDeferredPage = new Object();
+        private boolean mDeferring = true;
+        /** Whether the initial tab has been selected, after all tabs were added. */
+        private boolean mTabsCreated;
         ActionBar mMainActionBar;
         Context mContext;
         ViewPager mPager;
@@ -483,6 +528,56 @@ public class DeskClock extends Activity implements LabelDialogFragment.TimerLabe
             return fragment;
         }
 
+        @Override
+        public Object instantiateItem(ViewGroup container, int position) {
+            // Fragments restored from a saved state are used right away.
+            if (mDeferring && position != getRtlPosition(mSelectedTab)
+                    && getFragmentManager().findFragmentByTag(
+                            makeFragmentName(container.getId(), position)) == null) {
+                return mDeferredPage;
+            }
+            return super.instantiateItem(container, position);
+        }
+
+        @Override
+        public void destroyItem(ViewGroup container, int position, Object object) {
+            if (object != mDeferredPage) {
+                super.destroyItem(container, position, object);
+            }
+        }
+
+        @Override
+        public void setPrimaryItem(ViewGroup container, int position, Object object) {
+            if (object != mDeferredPage) {
+                super.setPrimaryItem(container, position, object);
+            }
+        }
+
+        @Override
+        public boolean isViewFromObject(View view, Object object) {
+            return object != mDeferredPage && super.isViewFromObject(view, object);
+        }
+
+        @Override
+        public int getItemPosition(Object object) {
+            return object == mDeferredPage ? POSITION_NONE : POSITION_UNCHANGED;
+        }
+
+        public void onTabsCreated() {
+            mTabsCreated = true;
+        }
+
+        /**
+         * Creates the fragments of the tabs that were deferred; the pager replaces their
+         * placeholders right away.
+         */
+        public void createDeferredTabs() {
+            if (mDeferring) {
+                mDeferring = false;
+                notifyDataSetChanged();
+            }
+        }
+
         /**
          * Copied from:
          * android/frameworks/support/v13/java/android/support/v13/app/FragmentPagerAdapter.java#94
@@ -531,7 +626,10 @@ public class DeskClock extends Activity implements LabelDialogFragment.TimerLabe
 
         @Override
         public void onPageScrollStateChanged(int state) {
-            // Do nothing
+            // The neighbouring tabs must be there before they slide into view.
+            if (state != ViewPager.SCROLL_STATE_IDLE) {
+                createDeferredTabs();
+            }
         }
 
         @Override
@@ -544,6 +642,10 @@ public class DeskClock extends Activity implements LabelDialogFragment.TimerLabe
             final TabInfo info = (TabInfo) tab.getTag();
             final int position = info.getPosition();
             final int rtlSafePosition = getRtlPosition(position);
+            // Adding the first tab selects it, which isn't the user switching tabs.
+            if (mTabsCreated && position != mSelectedTab) {
+                createDeferredTabs();
+            }
             mSelectedTab = position;
 
             if (mIsFirstLaunch && isClockTab(rtlSafePosition)) {
@@ -18,6 +18,7 @@ package com.android.deskclock;
 
 import android.app.Activity;
 import android.content.ContentResolver;
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.media.RingtoneManager;
@@ -26,6 +27,7 @@ import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.text.TextUtils;
 
+import com.android.deskclock.alarms.AlarmMutationExecutor;
 import com.android.deskclock.alarms.AlarmStateManager;
 import com.android.deskclock.provider.Alarm;
 import com.android.deskclock.provider.AlarmInstance;
@@ -108,31 +110,12 @@ public class HandleApiCalls extends Activity {
         final List<String> args = new ArrayList<String>();
         setSelectionFromIntent(intent, hour, minutes, selection, args);
 
-        // Check if the alarm already exists and handle it
-        final ContentResolver cr = getContentResolver();
-        final List<Alarm> alarms = Alarm.getAlarms(cr,
-                selection.toString(),
-                args.toArray(new String[args.size()]));
-        if (!alarms.isEmpty()) {
-            Alarm alarm = alarms.get(0);
-            alarm.enabled = true;
-            Alarm.updateAlarm(cr, alarm);
-
-            // Delete all old instances and create a new one with updated values
-            AlarmStateManager.deleteAllInstances(this, alarm.id);
-            setupInstance(alarm.createInstanceAfter(Calendar.getInstance()), skipUi);
-            LogUtils.i("HandleApiCalls deleted old, created new alarm: %s", alarm);
-            finish();
-            return;
-        }
-
-        // Otherwise insert it and handle it
         final String message = getMessageFromIntent(intent);
         final DaysOfWeek daysOfWeek = getDaysFromIntent(intent);
         final boolean vibrate = intent.getBooleanExtra(EXTRA_VIBRATE, false);
         final String alert = intent.getStringExtra(EXTRA_RINGTONE);
 
-        Alarm alarm = new Alarm(hour, minutes);
+        final Alarm alarm = new Alarm(hour, minutes);
         alarm.enabled = true;
         alarm.label = message;
         alarm.daysOfWeek = daysOfWeek;
@@ -147,9 +130,41 @@ public class HandleApiCalls extends Activity {
         }
         alarm.deleteAfterUse = !daysOfWeek.isRepeating() && skipUi;
 
-        alarm = Alarm.addAlarm(cr, alarm);
-        setupInstance(alarm.createInstanceAfter(Calendar.getInstance()), skipUi);
-        LogUtils.i("HandleApiCalls set up alarm: %s", alarm);
+        // The lookup and the writes are made on the alarm mutation thread, ordered with the
+        // other alarm edits; this activity finishes right away.
+        final Context context = getApplicationContext();
+        AlarmMutationExecutor.execute(AlarmMutationExecutor.NO_ALARM, "setAlarmFromIntent",
+                new AlarmMutationExecutor.Mutation<AlarmInstance>() {
+            @Override
+            protected AlarmInstance doInBackground() {
+                // Check if the alarm already exists and handle it
+                final ContentResolver cr = context.getContentResolver();
+                final List<Alarm> alarms = Alarm.getAlarms(cr,
+                        selection.toString(),
+                        args.toArray(new String[args.size()]));
+                if (!alarms.isEmpty()) {
+                    final Alarm existing = alarms.get(0);
+                    existing.enabled = true;
+                    Alarm.updateAlarm(cr, existing);
+
+                    // Delete all old instances and create a new one with updated values
+                    AlarmStateManager.deleteAllInstances(context, existing.id);
+                    LogUtils.i("HandleApiCalls deleted old, created new alarm: %s", existing);
+                    return setupInstance(context,
+                            existing.createInstanceAfter(Calendar.getInstance()));
+                }
+
+                // Otherwise insert it and handle it
+                Alarm.addAlarm(cr, alarm);
+                LogUtils.i("HandleApiCalls set up alarm: %s", alarm);
+                return setupInstance(context, alarm.createInstanceAfter(Calendar.getInstance()));
+            }
+
+            @Override
+            protected void onPostExecute(AlarmInstance instance) {
+                showInstance(context, instance, skipUi);
+            }
+        });
         finish();
     }
 
@@ -215,16 +230,20 @@ public class HandleApiCalls extends Activity {
         LogUtils.i("HandleApiCalls timer created: %s", timer);
     }
 
-    private void setupInstance(AlarmInstance instance, boolean skipUi) {
-        instance = AlarmInstance.addInstance(this.getContentResolver(), instance);
-        AlarmStateManager.registerInstance(this, instance, true);
-        AlarmUtils.popAlarmSetToast(this, instance.getAlarmTime().getTimeInMillis());
+    private static AlarmInstance setupInstance(Context context, AlarmInstance instance) {
+        instance = AlarmInstance.addInstance(context.getContentResolver(), instance);
+        AlarmStateManager.registerInstance(context, instance, true);
+        return instance;
+    }
+
+    private static void showInstance(Context context, AlarmInstance instance, boolean skipUi) {
+        AlarmUtils.popAlarmSetToast(context, instance.getAlarmTime().getTimeInMillis());
         if (!skipUi) {
-            Intent showAlarm = Alarm.createIntent(this, DeskClock.class, instance.mAlarmId);
+            Intent showAlarm = Alarm.createIntent(context, DeskClock.class, instance.mAlarmId);
             showAlarm.putExtra(DeskClock.SELECT_TAB_INTENT_EXTRA, DeskClock.ALARM_TAB_INDEX);
             showAlarm.putExtra(AlarmClockFragment.SCROLL_TO_ALARM_INTENT_EXTRA, instance.mAlarmId);
             showAlarm.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-            startActivity(showAlarm);
+            context.startActivity(showAlarm);
         }
     }
 
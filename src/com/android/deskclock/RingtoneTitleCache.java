@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.ContentObserver;
+import android.media.Ringtone;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.provider.Settings;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide cache of ringtone titles keyed by ringtone uri, persisted to a private preferences
+ * file so titles survive process death. Looking up a title through {@link RingtoneManager} creates
+ * a media player, so titles are resolved on {@link AsyncHandler} by {@link #prefetch} and the UI
+ * only ever reads them with {@link #peekTitle}.
+ *
+ * The persisted titles are loaded by the first {@link #prefetch}, so until then every title reads
+ * as unresolved. The cache is dropped when the media store or the default alarm ringtone changes,
+ * and when the locale or media store version differs from the one the persisted titles were
+ * resolved with.
+ */
+public final class RingtoneTitleCache {
+
+    private static final String PREFS_NAME = "ringtone_titles";
+    /** Records the locale and media store version of the persisted titles. */
+    private static final String KEY_STAMP = "stamp";
+
+    private static final ConcurrentHashMap<String, String> sTitles =
+            new ConcurrentHashMap<String, String>();
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Guards the generation, so that a title resolved before the cache was dropped is neither
+     * cached nor persisted afterwards.
+     */
+    private static final Object sLock = new Object();
+    private static int sGeneration;
+
+    // Set once by the first prefetch job, on the AsyncHandler thread.
+    private static Context sAppContext;
+    private static SharedPreferences sPrefs;
+
+    private static final ContentObserver sMediaObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            LogUtils.v("Ringtones changed, clearing title cache");
+            synchronized (sLock) {
+                sGeneration++;
+                sTitles.clear();
+                sPrefs.edit().clear().putString(KEY_STAMP, getStamp(sAppContext)).apply();
+            }
+        }
+    };
+
+    private RingtoneTitleCache() {
+    }
+
+    /**
+     * Returns the cached title of the given ringtone, or null if it hasn't been resolved yet.
+     * A ringtone that could not be resolved has an empty title.
+     * Only reads the in-memory cache, so it is safe to call while binding views.
+     */
+    public static String peekTitle(Uri uri) {
+        return sTitles.get(uri.toString());
+    }
+
+    /**
+     * Resolves on a background thread the titles of those ringtones that are not cached yet,
+     * loading the persisted titles first if they haven't been.
+     *
+     * @param onResolved run on the main thread if any title was newly loaded or resolved; may be
+     *     null
+     */
+    public static void prefetch(Context context, Collection<Uri> uris,
+            final Runnable onResolved) {
+        final ArrayList<Uri> missing = new ArrayList<Uri>();
+        for (Uri uri : uris) {
+            if (!sTitles.containsKey(uri.toString()) && !missing.contains(uri)) {
+                missing.add(uri);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        final Context appContext = context.getApplicationContext();
+        AsyncHandler.post(AsyncHandler.LANE_DEFAULT, "resolveRingtoneTitles", new Runnable() {
+            @Override
+            public void run() {
+                boolean resolved = ensureInitialized(appContext);
+                final int generation;
+                synchronized (sLock) {
+                    generation = sGeneration;
+                }
+                final SharedPreferences.Editor editor = sPrefs.edit();
+                boolean changed = false;
+                for (Uri uri : missing) {
+                    final String key = uri.toString();
+                    if (sTitles.containsKey(key)) {
+                        continue;
+                    }
+                    // Ringtones that can't be resolved are cached as untitled so they aren't
+                    // looked up again on every bind.
+                    final String loaded = loadTitle(uri);
+                    final String title = loaded != null ? loaded : "";
+                    synchronized (sLock) {
+                        if (generation != sGeneration) {
+                            // The ringtones changed while this one was being resolved; have the
+                            // caller look up its titles again.
+                            resolved = true;
+                            break;
+                        }
+                        sTitles.put(key, title);
+                    }
+                    editor.putString(key, title);
+                    changed = true;
+                    resolved = true;
+                }
+                if (changed) {
+                    synchronized (sLock) {
+                        if (generation == sGeneration) {
+                            editor.apply();
+                        }
+                    }
+                }
+                if (resolved && onResolved != null) {
+                    sMainHandler.post(onResolved);
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads the persisted titles and starts watching for ringtone changes, the first time it is
+     * called. Called on the AsyncHandler thread.
+     *
+     * @return whether any persisted title was loaded
+     */
+    private static synchronized boolean ensureInitialized(Context appContext) {
+        if (sAppContext != null) {
+            return false;
+        }
+        sAppContext = appContext;
+        sPrefs = sAppContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+
+        boolean loaded = false;
+        final String stamp = getStamp(sAppContext);
+        if (stamp.equals(sPrefs.getString(KEY_STAMP, null))) {
+            for (Map.Entry<String, ?> entry : sPrefs.getAll().entrySet()) {
+                if (!KEY_STAMP.equals(entry.getKey()) && entry.getValue() instanceof String) {
+                    sTitles.put(entry.getKey(), (String) entry.getValue());
+                    loaded = true;
+                }
+            }
+        } else {
+            sPrefs.edit().clear().putString(KEY_STAMP, stamp).apply();
+        }
+
+        sAppContext.getContentResolver().registerContentObserver(
+                MediaStore.Audio.Media.INTERNAL_CONTENT_URI, true, sMediaObserver);
+        sAppContext.getContentResolver().registerContentObserver(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, sMediaObserver);
+        sAppContext.getContentResolver().registerContentObserver(
+                Settings.System.getUriFor(Settings.System.ALARM_ALERT), false, sMediaObserver);
+        return loaded;
+    }
+
+    private static String loadTitle(Uri uri) {
+        // This is slow because a media player is created during Ringtone object creation.
+        final Ringtone ringtone = RingtoneManager.getRingtone(sAppContext, uri);
+        return ringtone != null ? ringtone.getTitle(sAppContext) : null;
+    }
+
+    private static String getStamp(Context context) {
+        return Locale.getDefault() + ":" + MediaStore.getVersion(context);
+    }
+}
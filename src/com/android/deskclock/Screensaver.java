@@ -29,6 +29,9 @@ import android.util.Log;
 import android.view.View;
 import android.widget.TextClock;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 import com.android.deskclock.Utils.ScreensaverMoveSaverRunnable;
 
 public class Screensaver extends DreamService {
@@ -47,12 +50,12 @@ public class Screensaver extends DreamService {
 
     private final ScreensaverMoveSaverRunnable mMoveSaverRunnable;
 
-    // Thread that runs every midnight and refreshes the date.
-    private final Runnable mMidnightUpdater = new Runnable() {
+    // Refreshes the date every midnight.
+    private final TimeBoundaryScheduler.OnBoundaryListener mMidnightUpdater =
+            new TimeBoundaryScheduler.OnBoundaryListener() {
         @Override
-        public void run() {
+        public void onBoundary(int boundaries, long now) {
             Utils.updateDate(mDateFormat, mDateFormatForAccessibility, mContentView);
-            Utils.setMidnightUpdater(mHandler, mMidnightUpdater);
         }
     };
 
@@ -73,7 +76,6 @@ public class Screensaver extends DreamService {
                     || action.equals(Intent.ACTION_TIMEZONE_CHANGED)) {
                 Utils.updateDate(mDateFormat, mDateFormatForAccessibility, mContentView);
                 Utils.refreshAlarm(Screensaver.this, mContentView);
-                Utils.setMidnightUpdater(mHandler, mMidnightUpdater);
             } else if (action.equals(AlarmManager.ACTION_NEXT_ALARM_CLOCK_CHANGED)) {
                 Utils.refreshAlarm(Screensaver.this, mContentView);
             }
@@ -122,9 +124,10 @@ public class Screensaver extends DreamService {
         filter.addAction(Intent.ACTION_TIME_CHANGED);
         filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
         registerReceiver(mIntentReceiver, filter);
-        Utils.setMidnightUpdater(mHandler, mMidnightUpdater);
+        TimeBoundaryScheduler.subscribe(this, mMidnightUpdater,
+                TimeBoundaryScheduler.MIDNIGHT);
 
-        mHandler.post(mMoveSaverRunnable);
+        mMoveSaverRunnable.start(this);
     }
 
     @Override
@@ -132,10 +135,10 @@ public class Screensaver extends DreamService {
         if (DEBUG) Log.d(TAG, "Screensaver detached from window");
         super.onDetachedFromWindow();
 
-        mHandler.removeCallbacks(mMoveSaverRunnable);
+        mMoveSaverRunnable.stop();
 
         // Tear down handlers for time reference changes and date updates.
-        Utils.cancelMidnightUpdater(mHandler, mMidnightUpdater);
+        TimeBoundaryScheduler.unsubscribe(mMidnightUpdater);
         unregisterReceiver(mIntentReceiver);
     }
 
@@ -153,6 +156,8 @@ public class Screensaver extends DreamService {
         setContentView(R.layout.desk_clock_saver);
         mDigitalClock = findViewById(R.id.digital_clock);
         mAnalogClock = findViewById(R.id.analog_clock);
+        // Only redraw when the minute changes.
+        ((AnalogClock) mAnalogClock).enableSeconds(false);
         setClockStyle();
         Utils.setTimeFormat((TextClock)mDigitalClock,
             (int)getResources().getDimension(R.dimen.main_ampm_font_size));
@@ -165,4 +170,10 @@ public class Screensaver extends DreamService {
         Utils.updateDate(mDateFormat, mDateFormatForAccessibility, mContentView);
         Utils.refreshAlarm(Screensaver.this, mContentView);
     }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        super.dump(fd, pw, args);
+        mMoveSaverRunnable.dump(pw);
+    }
 }
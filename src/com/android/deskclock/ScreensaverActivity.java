@@ -31,6 +31,9 @@ import android.view.Window;
 import android.view.WindowManager;
 import android.widget.TextClock;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 import com.android.deskclock.Utils.ScreensaverMoveSaverRunnable;
 
 public class ScreensaverActivity extends Activity {
@@ -77,7 +80,6 @@ public class ScreensaverActivity extends Activity {
             if (changed) {
                 Utils.updateDate(mDateFormat, mDateFormatForAccessibility, mContentView);
                 Utils.refreshAlarm(ScreensaverActivity.this, mContentView);
-                Utils.setMidnightUpdater(mHandler, mMidnightUpdater);
             }
 
             if (intent.getAction().equals(AlarmManager.ACTION_NEXT_ALARM_CLOCK_CHANGED)) {
@@ -86,12 +88,12 @@ public class ScreensaverActivity extends Activity {
         }
     };
 
-    // Thread that runs every midnight and refreshes the date.
-    private final Runnable mMidnightUpdater = new Runnable() {
+    // Refreshes the date every midnight.
+    private final TimeBoundaryScheduler.OnBoundaryListener mMidnightUpdater =
+            new TimeBoundaryScheduler.OnBoundaryListener() {
         @Override
-        public void run() {
+        public void onBoundary(int boundaries, long now) {
             Utils.updateDate(mDateFormat, mDateFormatForAccessibility, mContentView);
-            Utils.setMidnightUpdater(mHandler, mMidnightUpdater);
         }
     };
 
@@ -127,15 +129,16 @@ public class ScreensaverActivity extends Activity {
 
         setWakeLock();
         layoutClockSaver();
-        mHandler.post(mMoveSaverRunnable);
+        mMoveSaverRunnable.start(this);
 
-        Utils.setMidnightUpdater(mHandler, mMidnightUpdater);
+        TimeBoundaryScheduler.subscribe(this, mMidnightUpdater,
+                TimeBoundaryScheduler.MIDNIGHT);
     }
 
     @Override
     public void onPause() {
-        mHandler.removeCallbacks(mMoveSaverRunnable);
-        Utils.cancelMidnightUpdater(mHandler, mMidnightUpdater);
+        mMoveSaverRunnable.stop();
+        TimeBoundaryScheduler.unsubscribe(mMidnightUpdater);
         finish();
         super.onPause();
     }
@@ -185,6 +188,8 @@ public class ScreensaverActivity extends Activity {
         setContentView(R.layout.desk_clock_saver);
         mDigitalClock = findViewById(R.id.digital_clock);
         mAnalogClock = findViewById(R.id.analog_clock);
+        // Only redraw when the minute changes.
+        ((AnalogClock) mAnalogClock).enableSeconds(false);
         setClockStyle();
         Utils.setTimeFormat((TextClock)mDigitalClock,
             (int)getResources().getDimension(R.dimen.main_ampm_font_size));
@@ -204,4 +209,9 @@ public class ScreensaverActivity extends Activity {
         Utils.refreshAlarm(ScreensaverActivity.this, mContentView);
     }
 
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        mMoveSaverRunnable.dump(writer);
+    }
 }
@@ -56,6 +56,12 @@ public class SettingsActivity extends PreferenceActivity
             "automatic_home_clock";
     public static final String KEY_VOLUME_BUTTONS =
             "volume_button_setting";
+    public static final String KEY_ALARM_CRESCENDO =
+            "alarm_crescendo_duration";
+    public static final String KEY_TIMER_CRESCENDO =
+            "timer_crescendo_duration";
+
+    public static final String DEFAULT_CRESCENDO_SECONDS = "0";
 
     public static final String DEFAULT_VOLUME_BEHAVIOR = "0";
     public static final String VOLUME_BEHAVIOR_SNOOZE = "1";
@@ -142,7 +148,9 @@ public class SettingsActivity extends PreferenceActivity
             Preference homeTimeZone = findPreference(KEY_HOME_TZ);
             homeTimeZone.setEnabled(!state);
             notifyHomeTimeZoneChanged();
-        } else if (KEY_VOLUME_BUTTONS.equals(pref.getKey())) {
+        } else if (KEY_VOLUME_BUTTONS.equals(pref.getKey())
+                || KEY_ALARM_CRESCENDO.equals(pref.getKey())
+                || KEY_TIMER_CRESCENDO.equals(pref.getKey())) {
             final ListPreference listPref = (ListPreference) pref;
             final int idx = listPref.findIndexOfValue((String) newValue);
             listPref.setSummary(listPref.getEntries()[idx]);
@@ -194,6 +202,14 @@ public class SettingsActivity extends PreferenceActivity
         listPref.setSummary(listPref.getEntry());
         listPref.setOnPreferenceChangeListener(this);
 
+        listPref = (ListPreference) findPreference(KEY_ALARM_CRESCENDO);
+        listPref.setSummary(listPref.getEntry());
+        listPref.setOnPreferenceChangeListener(this);
+
+        listPref = (ListPreference) findPreference(KEY_TIMER_CRESCENDO);
+        listPref.setSummary(listPref.getEntry());
+        listPref.setOnPreferenceChangeListener(this);
+
         SnoozeLengthDialog snoozePref = (SnoozeLengthDialog) findPreference(KEY_ALARM_SNOOZE);
         snoozePref.setSummary();
     }
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Queue-time and run-time histograms of background tasks, by task type. Buckets are powers of
+ * two in milliseconds: bucket 0 counts tasks under 1ms, bucket i those in [2^(i-1), 2^i) ms, and
+ * the last bucket everything longer. Thread safe.
+ */
+public final class TaskStats {
+
+    private static final int BUCKETS = 14;
+
+    private static final class Histograms {
+        final int[] queue = new int[BUCKETS];
+        final int[] run = new int[BUCKETS];
+        long count;
+        long maxQueueMillis;
+        long maxRunMillis;
+    }
+
+    private final String mName;
+    private final TreeMap<String, Histograms> mByType = new TreeMap<String, Histograms>();
+
+    public TaskStats(String name) {
+        mName = name;
+    }
+
+    public synchronized void record(String type, long queueMillis, long runMillis) {
+        Histograms histograms = mByType.get(type);
+        if (histograms == null) {
+            histograms = new Histograms();
+            mByType.put(type, histograms);
+        }
+        histograms.queue[bucket(queueMillis)]++;
+        histograms.run[bucket(runMillis)]++;
+        histograms.count++;
+        histograms.maxQueueMillis = Math.max(histograms.maxQueueMillis, queueMillis);
+        histograms.maxRunMillis = Math.max(histograms.maxRunMillis, runMillis);
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println(mName + " task histograms (bucket upper bounds in ms: 1 2 4 ... 4096 +):");
+        for (Map.Entry<String, Histograms> entry : mByType.entrySet()) {
+            final Histograms histograms = entry.getValue();
+            pw.println("  " + entry.getKey() + " count=" + histograms.count
+                    + " maxQueueMs=" + histograms.maxQueueMillis
+                    + " maxRunMs=" + histograms.maxRunMillis);
+            pw.println("    queue " + format(histograms.queue));
+            pw.println("    run   " + format(histograms.run));
+        }
+    }
+
+    private static int bucket(long millis) {
+        int bucket = 0;
+        while (bucket < BUCKETS - 1 && millis >= (1L << bucket)) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    private static String format(int[] histogram) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < histogram.length; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(histogram[i]);
+        }
+        return sb.toString();
+    }
+}
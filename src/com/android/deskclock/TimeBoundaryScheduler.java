@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.format.DateUtils;
+
+import com.android.deskclock.worldclock.ZoneOffsetCache;
+
+import java.util.ArrayList;
+import java.util.TimeZone;
+
+/**
+ * Process-wide scheduler for wall clock boundaries: the start of a minute, of a quarter-hour,
+ * of a day, and time zone offset transitions (usually DST changes). Boundaries are computed in
+ * each subscriber's time zones, and all subscribers share a single pending callback on the main
+ * thread, so there is one wake-up per boundary however many screens are interested in it.
+ *
+ * When the time or time zone is set the pending boundaries are recomputed, but subscribers are
+ * not called; those that must react to the clock being set listen for the broadcasts
+ * themselves.
+ *
+ * All methods except {@link #getNextBoundary} must be called on the main thread.
+ */
+public final class TimeBoundaryScheduler {
+
+    public static final int MINUTE = 1;
+    public static final int QUARTER_HOUR = 1 << 1;
+    public static final int MIDNIGHT = 1 << 2;
+    public static final int ZONE_TRANSITION = 1 << 3;
+
+    private static final int[] BOUNDARIES = { MINUTE, QUARTER_HOUR, MIDNIGHT, ZONE_TRANSITION };
+
+    public interface OnBoundaryListener {
+        /**
+         * Called on the main thread when one or more subscribed boundaries are reached.
+         *
+         * @param boundaries the boundaries reached, a combination of {@link #MINUTE},
+         *         {@link #QUARTER_HOUR}, {@link #MIDNIGHT} and {@link #ZONE_TRANSITION}
+         * @param now the current wall time
+         */
+        void onBoundary(int boundaries, long now);
+    }
+
+    private static final class Subscription {
+        final OnBoundaryListener listener;
+        final int boundaries;
+        /** Zones in which to compute the boundaries; a null entry is the device's zone. */
+        final String[] zoneIds;
+
+        long next;
+        int nextBoundaries;
+
+        Subscription(OnBoundaryListener listener, int boundaries, String[] zoneIds) {
+            this.listener = listener;
+            this.boundaries = boundaries;
+            this.zoneIds = zoneIds;
+        }
+
+        void computeNext(long now) {
+            next = Long.MAX_VALUE;
+            nextBoundaries = 0;
+            for (int boundary : BOUNDARIES) {
+                if ((boundaries & boundary) == 0) {
+                    continue;
+                }
+                for (String zoneId : zoneIds) {
+                    final long t = getNextBoundary(boundary, zoneId, now);
+                    if (t < next) {
+                        next = t;
+                        nextBoundaries = boundary;
+                    } else if (t == next) {
+                        nextBoundaries |= boundary;
+                    }
+                }
+            }
+        }
+    }
+
+    private static final ArrayList<Subscription> sSubscriptions = new ArrayList<Subscription>();
+
+    private static Handler sHandler;
+    private static Context sAppContext;
+
+    private static final Runnable sDispatch = new Runnable() {
+        @Override
+        public void run() {
+            final long now = System.currentTimeMillis();
+            final Subscription[] subscriptions =
+                    sSubscriptions.toArray(new Subscription[sSubscriptions.size()]);
+            for (Subscription subscription : subscriptions) {
+                if (subscription.next <= now && sSubscriptions.contains(subscription)) {
+                    final int boundaries = subscription.nextBoundaries;
+                    subscription.computeNext(now);
+                    subscription.listener.onBoundary(boundaries, now);
+                }
+            }
+            schedule(System.currentTimeMillis());
+        }
+    };
+
+    private static final BroadcastReceiver sTimeChangedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_TIMEZONE_CHANGED.equals(intent.getAction())) {
+                ZoneOffsetCache.invalidate();
+            }
+            final long now = System.currentTimeMillis();
+            for (Subscription subscription : sSubscriptions) {
+                subscription.computeNext(now);
+            }
+            schedule(now);
+        }
+    };
+
+    private TimeBoundaryScheduler() {
+    }
+
+    /**
+     * Subscribes to boundaries in the device's time zone. Replaces any previous subscription of
+     * the same listener.
+     */
+    public static void subscribe(Context context, OnBoundaryListener listener, int boundaries) {
+        subscribe(context, listener, boundaries, (String) null);
+    }
+
+    /**
+     * Subscribes to boundaries in each of the given time zones; a null id stands for the
+     * device's time zone. Replaces any previous subscription of the same listener.
+     */
+    public static void subscribe(Context context, OnBoundaryListener listener, int boundaries,
+            String... zoneIds) {
+        removeSubscription(listener);
+        final Subscription subscription = new Subscription(listener, boundaries, zoneIds);
+        final long now = System.currentTimeMillis();
+        subscription.computeNext(now);
+        sSubscriptions.add(subscription);
+
+        if (sAppContext == null) {
+            sAppContext = context.getApplicationContext();
+            sHandler = new Handler(Looper.getMainLooper());
+            final IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_TIME_CHANGED);
+            filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+            sAppContext.registerReceiver(sTimeChangedReceiver, filter);
+        }
+        schedule(now);
+    }
+
+    public static void unsubscribe(OnBoundaryListener listener) {
+        if (!removeSubscription(listener)) {
+            return;
+        }
+        if (sSubscriptions.isEmpty()) {
+            sHandler.removeCallbacks(sDispatch);
+            sAppContext.unregisterReceiver(sTimeChangedReceiver);
+            sAppContext = null;
+        } else {
+            schedule(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Returns the first instant after {@code now} at which the given boundary is reached in the
+     * given time zone, or {@link Long#MAX_VALUE} if there is none. May be called on any thread.
+     *
+     * @param boundary one of {@link #MINUTE}, {@link #QUARTER_HOUR}, {@link #MIDNIGHT} and
+     *         {@link #ZONE_TRANSITION}
+     * @param zoneId a time zone id, or null for the device's time zone
+     */
+    public static long getNextBoundary(int boundary, String zoneId, long now) {
+        if (zoneId == null) {
+            zoneId = TimeZone.getDefault().getID();
+        }
+        final long period;
+        switch (boundary) {
+            case MINUTE:
+                period = DateUtils.MINUTE_IN_MILLIS;
+                break;
+            case QUARTER_HOUR:
+                period = 15 * DateUtils.MINUTE_IN_MILLIS;
+                break;
+            case MIDNIGHT:
+                period = DateUtils.DAY_IN_MILLIS;
+                break;
+            case ZONE_TRANSITION:
+                return ZoneOffsetCache.getTimeZone(zoneId).useDaylightTime()
+                        ? ZoneOffsetCache.getNextTransition(zoneId, now) : Long.MAX_VALUE;
+            default:
+                throw new IllegalArgumentException("Unknown boundary " + boundary);
+        }
+
+        final int offset = ZoneOffsetCache.getOffset(zoneId, now);
+        final long local = now + offset;
+        final long nextLocal = (Utils.floorDiv(local, period) + 1) * period;
+        final long next = nextLocal - offset;
+        final long transition = ZoneOffsetCache.getNextTransition(zoneId, now);
+        if (next < transition) {
+            return next;
+        }
+        // The offset changes first; the boundary is at the same local time in the new offset,
+        // unless the transition skipped over it. The offset after the transition is read from the
+        // zone directly so the cached entry for the current offset isn't replaced.
+        final long shifted =
+                nextLocal - ZoneOffsetCache.getTimeZone(zoneId).getOffset(transition);
+        return shifted > transition ? shifted : transition;
+    }
+
+    private static boolean removeSubscription(OnBoundaryListener listener) {
+        for (int i = 0; i < sSubscriptions.size(); i++) {
+            if (sSubscriptions.get(i).listener == listener) {
+                sSubscriptions.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void schedule(long now) {
+        if (sHandler == null) {
+            return;
+        }
+        sHandler.removeCallbacks(sDispatch);
+        long next = Long.MAX_VALUE;
+        for (Subscription subscription : sSubscriptions) {
+            next = Math.min(next, subscription.next);
+        }
+        if (next != Long.MAX_VALUE) {
+            sHandler.postDelayed(sDispatch, Math.max(0, next - now));
+        }
+    }
+}
@@ -19,11 +19,6 @@ package com.android.deskclock;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.content.res.AssetFileDescriptor;
-import android.content.res.Resources;
-import android.media.AudioManager;
-import android.media.MediaPlayer;
-import android.media.MediaPlayer.OnErrorListener;
 import android.os.IBinder;
 import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
@@ -31,10 +26,11 @@ import android.telephony.TelephonyManager;
 /**
  * Play the timer's ringtone. Will continue playing the same alarm until service is stopped.
  */
-public class TimerRingService extends Service implements AudioManager.OnAudioFocusChangeListener {
+public class TimerRingService extends Service {
+
+    private static final String TIMER_RINGTONE_ASSET = "sounds/Timer_Expire.ogg";
 
     private boolean mPlaying = false;
-    private MediaPlayer mMediaPlayer;
     private TelephonyManager mTelephonyManager;
     private int mInitialCallState;
 
@@ -92,9 +88,6 @@ public class TimerRingService extends Service implements AudioManager.OnAudioFoc
         return START_STICKY;
     }
 
-    // Volume suggested by media team for in-call alarms.
-    private static final float IN_CALL_VOLUME = 0.125f;
-
     private void play() {
 
         if (mPlaying) {
@@ -103,81 +96,17 @@ public class TimerRingService extends Service implements AudioManager.OnAudioFoc
 
         LogUtils.v("TimerRingService.play()");
 
-        // TODO: Reuse mMediaPlayer instead of creating a new one and/or use
-        // RingtoneManager.
-        mMediaPlayer = new MediaPlayer();
-        mMediaPlayer.setOnErrorListener(new OnErrorListener() {
-            @Override
-            public boolean onError(MediaPlayer mp, int what, int extra) {
-                LogUtils.e("Error occurred while playing audio.");
-                mp.stop();
-                mp.release();
-                mMediaPlayer = null;
-                return true;
-            }
-        });
-
-        try {
-            // Check if we are in a call. If we are, use the in-call alarm
-            // resource at a low volume to not disrupt the call.
-            if (mTelephonyManager.getCallState()
-                    != TelephonyManager.CALL_STATE_IDLE) {
-                LogUtils.v("Using the in-call alarm");
-                mMediaPlayer.setVolume(IN_CALL_VOLUME, IN_CALL_VOLUME);
-                setDataSourceFromResource(getResources(), mMediaPlayer,
-                        R.raw.in_call_alarm);
-            } else {
-                AssetFileDescriptor afd = getAssets().openFd("sounds/Timer_Expire.ogg");
-                mMediaPlayer.setDataSource(
-                        afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
-            }
-            startAlarm(mMediaPlayer);
-        } catch (Exception ex) {
-            LogUtils.v("Using the fallback ringtone");
-            // The alert may be on the sd card which could be busy right
-            // now. Use the fallback ringtone.
-            try {
-                // Must reset the media player to clear the error state.
-                mMediaPlayer.reset();
-                setDataSourceFromResource(getResources(), mMediaPlayer,
-                        R.raw.fallbackring);
-                startAlarm(mMediaPlayer);
-            } catch (Exception ex2) {
-                // At this point we just don't play anything.
-                LogUtils.e("Failed to play fallback ringtone", ex2);
-            }
-        }
+        // Check if we are in a call. If we are, the in-call alarm is played at a low volume to not
+        // disrupt the call.
+        final boolean inCall =
+                mTelephonyManager.getCallState() != TelephonyManager.CALL_STATE_IDLE;
+        AudioEngine.getInstance(this).play(AudioEngine.CLIENT_TIMER,
+                AudioEngine.Source.forAsset(TIMER_RINGTONE_ASSET), inCall,
+                Utils.getCrescendoMillis(this, SettingsActivity.KEY_TIMER_CRESCENDO));
 
         mPlaying = true;
     }
 
-    // Do the common stuff when starting the alarm.
-    private void startAlarm(MediaPlayer player)
-            throws java.io.IOException, IllegalArgumentException,
-                   IllegalStateException {
-        final AudioManager audioManager = (AudioManager)getSystemService(Context.AUDIO_SERVICE);
-        // do not play alarms if stream volume is 0
-        // (typically because ringer mode is silent).
-        if (audioManager.getStreamVolume(AudioManager.STREAM_ALARM) != 0) {
-            player.setAudioStreamType(AudioManager.STREAM_ALARM);
-            player.setLooping(true);
-            player.prepare();
-            audioManager.requestAudioFocus(
-                    this, AudioManager.STREAM_ALARM, AudioManager.AUDIOFOCUS_GAIN_TRANSIENT);
-            player.start();
-        }
-    }
-
-    private void setDataSourceFromResource(Resources resources,
-            MediaPlayer player, int res) throws java.io.IOException {
-        AssetFileDescriptor afd = resources.openRawResourceFd(res);
-        if (afd != null) {
-            player.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(),
-                    afd.getLength());
-            afd.close();
-        }
-    }
-
     /**
      * Stops timer audio
      */
@@ -187,20 +116,7 @@ public class TimerRingService extends Service implements AudioManager.OnAudioFoc
             mPlaying = false;
 
             // Stop audio playing
-            if (mMediaPlayer != null) {
-                mMediaPlayer.stop();
-                final AudioManager audioManager =
-                        (AudioManager)getSystemService(Context.AUDIO_SERVICE);
-                audioManager.abandonAudioFocus(this);
-                mMediaPlayer.release();
-                mMediaPlayer = null;
-            }
+            AudioEngine.getInstance(this).stop(AudioEngine.CLIENT_TIMER);
         }
     }
-
-
-    @Override
-    public void onAudioFocusChange(int focusChange) {
-        // Do nothing
-    }
 }
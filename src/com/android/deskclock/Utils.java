@@ -16,10 +16,6 @@
 
 package com.android.deskclock;
 
-import android.animation.Animator;
-import android.animation.AnimatorSet;
-import android.animation.ObjectAnimator;
-import android.animation.TimeInterpolator;
 import android.app.AlarmManager;
 import android.content.Context;
 import android.content.Intent;
@@ -28,9 +24,9 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Resources;
 import android.graphics.Color;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
 import android.graphics.Paint;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffColorFilter;
 import android.graphics.Typeface;
 import android.net.Uri;
 import android.os.Build;
@@ -42,21 +38,21 @@ import android.text.SpannableString;
 import android.text.TextUtils;
 import android.text.format.DateFormat;
 import android.text.format.DateUtils;
-import android.text.format.Time;
 import android.text.style.AbsoluteSizeSpan;
 import android.text.style.StyleSpan;
 import android.text.style.TypefaceSpan;
 import android.view.MenuItem;
 import android.view.View;
-import android.view.animation.AccelerateInterpolator;
-import android.view.animation.DecelerateInterpolator;
+import android.view.ViewTreeObserver;
 import android.widget.TextClock;
 import android.widget.TextView;
 
 import com.android.deskclock.stopwatch.Stopwatches;
 import com.android.deskclock.timer.Timers;
+import com.android.deskclock.worldclock.CityDatabase;
 import com.android.deskclock.worldclock.CityObj;
 
+import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
@@ -163,6 +159,15 @@ public class Utils {
         return SystemClock.elapsedRealtime();
     }
 
+    /**
+     * Returns the largest value that is less than or equal to {@code x / y}, i.e. the division
+     * rounded towards negative infinity rather than towards zero.
+     */
+    public static long floorDiv(long x, long y) {
+        final long q = x / y;
+        return (x % y < 0) ? q - 1 : q;
+    }
+
     /**
      * Calculate the amount by which the radius of a CircleTimerView should be offset by the any
      * of the extra painted objects.
@@ -245,43 +250,78 @@ public class Utils {
         context.sendBroadcast(timerIntent);
     }
 
-    /** Runnable for use with screensaver and dream, to move the clock every minute.
-     *  registerViews() must be called prior to posting.
+    /**
+     * Moves the screen saver clock to a random position once a minute to avoid burn-in. The move
+     * is a single translation applied on the minute, in the same frame in which the clock itself
+     * changes, so the saver draws about once a minute and never relayouts or animates.
+     * {@link #registerViews} must be called before {@link #start}.
+     *
+     * Keeps wake-up and frame counters, see {@link #dump(PrintWriter)}.
      */
-    public static class ScreensaverMoveSaverRunnable implements Runnable {
-        static final long MOVE_DELAY = 60000; // DeskClock.SCREEN_SAVER_MOVE_DELAY;
-        static final long SLIDE_TIME = 10000;
-        static final long FADE_TIME = 3000;
-
-        static final boolean SLIDE = false;
+    public static class ScreensaverMoveSaverRunnable
+            implements Runnable, ClockTicker.OnTickListener, ViewTreeObserver.OnDrawListener {
+        /** Retry delay while the views have not been laid out yet. */
+        static final long LAYOUT_RETRY_DELAY = 500;
 
         private View mContentView, mSaverView;
         private final Handler mHandler;
 
-        private static TimeInterpolator mSlowStartWithBrakes;
-
+        private long mStartTime;
+        private int mWakeCount;
+        private int mMoveCount;
+        private int mFrameCount;
 
         public ScreensaverMoveSaverRunnable(Handler handler) {
             mHandler = handler;
-            mSlowStartWithBrakes = new TimeInterpolator() {
-                @Override
-                public float getInterpolation(float x) {
-                    return (float)(Math.cos((Math.pow(x,3) + 1) * Math.PI) / 2.0f) + 0.5f;
-                }
-            };
         }
 
         public void registerViews(View contentView, View saverView) {
+            if (mContentView != null) {
+                final ViewTreeObserver observer = mContentView.getViewTreeObserver();
+                if (observer.isAlive()) {
+                    observer.removeOnDrawListener(this);
+                }
+            }
             mContentView = contentView;
             mSaverView = saverView;
+            if (mContentView != null) {
+                mContentView.getViewTreeObserver().addOnDrawListener(this);
+            }
+        }
+
+        /**
+         * Shows the clock as soon as it is laid out, then moves it on every minute.
+         */
+        public void start(Context context) {
+            mStartTime = SystemClock.elapsedRealtime();
+            mWakeCount = 0;
+            mMoveCount = 0;
+            mFrameCount = 0;
+            ClockTicker.register(context, this, false);
+            mHandler.removeCallbacks(this);
+            mHandler.post(this);
+        }
+
+        public void stop() {
+            ClockTicker.unregister(this);
+            mHandler.removeCallbacks(this);
+        }
+
+        @Override
+        public void onTick(long now) {
+            mHandler.removeCallbacks(this);
+            run();
+        }
+
+        @Override
+        public void onDraw() {
+            mFrameCount++;
         }
 
         @Override
         public void run() {
-            long delay = MOVE_DELAY;
+            mWakeCount++;
             if (mContentView == null || mSaverView == null) {
-                mHandler.removeCallbacks(this);
-                mHandler.postDelayed(this, delay);
                 return;
             }
 
@@ -289,139 +329,25 @@ public class Utils {
             final float yrange = mContentView.getHeight() - mSaverView.getHeight();
 
             if (xrange == 0 && yrange == 0) {
-                delay = 500; // back in a split second
-            } else {
-                final int nextx = (int) (Math.random() * xrange);
-                final int nexty = (int) (Math.random() * yrange);
-
-                if (mSaverView.getAlpha() == 0f) {
-                    // jump right there
-                    mSaverView.setX(nextx);
-                    mSaverView.setY(nexty);
-                    ObjectAnimator.ofFloat(mSaverView, "alpha", 0f, 1f)
-                        .setDuration(FADE_TIME)
-                        .start();
-                } else {
-                    AnimatorSet s = new AnimatorSet();
-                    Animator xMove   = ObjectAnimator.ofFloat(mSaverView,
-                                         "x", mSaverView.getX(), nextx);
-                    Animator yMove   = ObjectAnimator.ofFloat(mSaverView,
-                                         "y", mSaverView.getY(), nexty);
-
-                    Animator xShrink = ObjectAnimator.ofFloat(mSaverView, "scaleX", 1f, 0.85f);
-                    Animator xGrow   = ObjectAnimator.ofFloat(mSaverView, "scaleX", 0.85f, 1f);
-
-                    Animator yShrink = ObjectAnimator.ofFloat(mSaverView, "scaleY", 1f, 0.85f);
-                    Animator yGrow   = ObjectAnimator.ofFloat(mSaverView, "scaleY", 0.85f, 1f);
-                    AnimatorSet shrink = new AnimatorSet(); shrink.play(xShrink).with(yShrink);
-                    AnimatorSet grow = new AnimatorSet(); grow.play(xGrow).with(yGrow);
-
-                    Animator fadeout = ObjectAnimator.ofFloat(mSaverView, "alpha", 1f, 0f);
-                    Animator fadein = ObjectAnimator.ofFloat(mSaverView, "alpha", 0f, 1f);
-
-
-                    if (SLIDE) {
-                        s.play(xMove).with(yMove);
-                        s.setDuration(SLIDE_TIME);
-
-                        s.play(shrink.setDuration(SLIDE_TIME/2));
-                        s.play(grow.setDuration(SLIDE_TIME/2)).after(shrink);
-                        s.setInterpolator(mSlowStartWithBrakes);
-                    } else {
-                        AccelerateInterpolator accel = new AccelerateInterpolator();
-                        DecelerateInterpolator decel = new DecelerateInterpolator();
-
-                        shrink.setDuration(FADE_TIME).setInterpolator(accel);
-                        fadeout.setDuration(FADE_TIME).setInterpolator(accel);
-                        grow.setDuration(FADE_TIME).setInterpolator(decel);
-                        fadein.setDuration(FADE_TIME).setInterpolator(decel);
-                        s.play(shrink);
-                        s.play(fadeout);
-                        s.play(xMove.setDuration(0)).after(FADE_TIME);
-                        s.play(yMove.setDuration(0)).after(FADE_TIME);
-                        s.play(fadein).after(FADE_TIME);
-                        s.play(grow).after(FADE_TIME);
-                    }
-                    s.start();
-                }
-
-                long now = System.currentTimeMillis();
-                long adjust = (now % 60000);
-                delay = delay
-                        + (MOVE_DELAY - adjust) // minute aligned
-                        - (SLIDE ? 0 : FADE_TIME) // start moving before the fade
-                        ;
+                // Not laid out yet; back in a split second.
+                mHandler.postDelayed(this, LAYOUT_RETRY_DELAY);
+                return;
             }
 
-            mHandler.removeCallbacks(this);
-            mHandler.postDelayed(this, delay);
-        }
-    }
-
-    /** Setup to find out when the quarter-hour changes (e.g. Kathmandu is GMT+5:45) **/
-    public static long getAlarmOnQuarterHour() {
-        Calendar nextQuarter = Calendar.getInstance();
-        //  Set 1 second to ensure quarter-hour threshold passed.
-        nextQuarter.set(Calendar.SECOND, 1);
-        nextQuarter.set(Calendar.MILLISECOND, 0);
-        int minute = nextQuarter.get(Calendar.MINUTE);
-        nextQuarter.add(Calendar.MINUTE, 15 - (minute % 15));
-        long alarmOnQuarterHour = nextQuarter.getTimeInMillis();
-        long now = System.currentTimeMillis();
-        long delta = alarmOnQuarterHour - now;
-        if (0 >= delta || delta > 901000) {
-            // Something went wrong in the calculation, schedule something that is
-            // about 15 minutes. Next time , it will align with the 15 minutes border.
-            alarmOnQuarterHour = now + 901000;
-        }
-        return alarmOnQuarterHour;
-    }
-
-    // Setup a thread that starts at midnight plus one second. The extra second is added to ensure
-    // the date has changed.
-    public static void setMidnightUpdater(Handler handler, Runnable runnable) {
-        String timezone = TimeZone.getDefault().getID();
-        if (handler == null || runnable == null || timezone == null) {
-            return;
+            final int nextx = (int) (Math.random() * xrange);
+            final int nexty = (int) (Math.random() * yrange);
+            mSaverView.setTranslationX(nextx - mSaverView.getLeft());
+            mSaverView.setTranslationY(nexty - mSaverView.getTop());
+            mSaverView.setAlpha(1f);
+            mMoveCount++;
         }
-        long now = System.currentTimeMillis();
-        Time time = new Time(timezone);
-        time.set(now);
-        long runInMillis = ((24 - time.hour) * 3600 - time.minute * 60 - time.second + 1) * 1000;
-        handler.removeCallbacks(runnable);
-        handler.postDelayed(runnable, runInMillis);
-    }
 
-    // Stop the midnight update thread
-    public static void cancelMidnightUpdater(Handler handler, Runnable runnable) {
-        if (handler == null || runnable == null) {
-            return;
+        public void dump(PrintWriter pw) {
+            final long elapsed = SystemClock.elapsedRealtime() - mStartTime;
+            pw.println("Screen saver: running " + DateUtils.formatElapsedTime(elapsed / 1000));
+            pw.println("  wakes=" + mWakeCount + " moves=" + mMoveCount
+                    + " frames=" + mFrameCount);
         }
-        handler.removeCallbacks(runnable);
-    }
-
-    // Setup a thread that starts at the quarter-hour plus one second. The extra second is added to
-    // ensure dates have changed.
-    public static void setQuarterHourUpdater(Handler handler, Runnable runnable) {
-        String timezone = TimeZone.getDefault().getID();
-        if (handler == null || runnable == null || timezone == null) {
-            return;
-        }
-        long runInMillis = getAlarmOnQuarterHour() - System.currentTimeMillis();
-        // Ensure the delay is at least one second.
-        if (runInMillis < 1000) {
-            runInMillis = 1000;
-        }
-        handler.removeCallbacks(runnable);
-        handler.postDelayed(runnable, runInMillis);
-    }
-
-    // Stop the quarter-hour update thread
-    public static void cancelQuarterHourUpdater(Handler handler, Runnable runnable) {
-        if (handler == null || runnable == null) {
-            return;
-        }
-        handler.removeCallbacks(runnable);
     }
 
     /**
@@ -447,15 +373,31 @@ public class Utils {
         return returnView;
     }
 
+    /**
+     * Returns how long a ringtone should take to fade in, as set by the given crescendo
+     * preference; 0 if it should sound at full volume right away.
+     */
+    public static long getCrescendoMillis(Context context, String crescendoKey) {
+        final String seconds = PreferenceManager.getDefaultSharedPreferences(context)
+                .getString(crescendoKey, SettingsActivity.DEFAULT_CRESCENDO_SECONDS);
+        return Integer.parseInt(seconds) * DateUtils.SECOND_IN_MILLIS;
+    }
+
     /**
      * For screensavers to dim the lights if necessary.
      */
     public static void dimClockView(boolean dim, View clockView) {
+        // Draw the clock in gray levels only and scale everything down, so the saver lights as
+        // few sub-pixels as possible.
+        final float level = dim ? 0x40 / 255f : 0xC0 / 255f;
+        final ColorMatrix matrix = new ColorMatrix();
+        matrix.setSaturation(0f);
+        final ColorMatrix scale = new ColorMatrix();
+        scale.setScale(level, level, level, level);
+        matrix.postConcat(scale);
         Paint paint = new Paint();
         paint.setColor(Color.WHITE);
-        paint.setColorFilter(new PorterDuffColorFilter(
-                        (dim ? 0x40FFFFFF : 0xC0FFFFFF),
-                PorterDuff.Mode.MULTIPLY));
+        paint.setColorFilter(new ColorMatrixColorFilter(matrix));
         clockView.setLayerType(View.LAYER_TYPE_HARDWARE, paint);
     }
 
@@ -558,23 +500,12 @@ public class Utils {
         return DateFormat.getBestDateTimePattern(Locale.getDefault(), skeleton);
     }
 
+    /**
+     * Returns a new array of the cities for the current locale. The city resources are parsed
+     * once per process and locale, see {@link CityDatabase}.
+     */
     public static CityObj[] loadCitiesFromXml(Context c) {
-        Resources r = c.getResources();
-        // Read strings array of name,timezone, id
-        // make sure the list are the same length
-        String[] cities = r.getStringArray(R.array.cities_names);
-        String[] timezones = r.getStringArray(R.array.cities_tz);
-        String[] ids = r.getStringArray(R.array.cities_id);
-        int minLength = cities.length;
-        if (cities.length != timezones.length || ids.length != cities.length) {
-            minLength = Math.min(cities.length, Math.min(timezones.length, ids.length));
-            LogUtils.e("City lists sizes are not the same, truncating");
-        }
-        CityObj[] tempList = new CityObj[minLength];
-        for (int i = 0; i < cities.length; i++) {
-            tempList[i] = new CityObj(cities[i], timezones[i], ids[i]);
-        }
-        return tempList;
+        return CityDatabase.getCities(c);
     }
 
     /**
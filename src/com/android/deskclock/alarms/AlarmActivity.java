@@ -30,6 +30,7 @@ import android.content.pm.ActivityInfo;
 import android.graphics.Color;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Trace;
 import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.view.KeyEvent;
@@ -38,6 +39,7 @@ import android.view.View;
 import android.view.ViewAnimationUtils;
 import android.view.ViewGroup;
 import android.view.ViewGroupOverlay;
+import android.view.ViewTreeObserver;
 import android.view.WindowManager;
 import android.view.animation.Interpolator;
 import android.view.animation.PathInterpolator;
@@ -136,7 +138,15 @@ public class AlarmActivity extends Activity implements View.OnClickListener, Vie
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        Trace.beginSection(AlarmFireTrace.TRACE_TAG + ":activityCreate");
+        try {
+            createAlarmView();
+        } finally {
+            Trace.endSection();
+        }
+    }
 
+    private void createAlarmView() {
         final long instanceId = AlarmInstance.getId(getIntent().getData());
         mAlarmInstance = AlarmInstance.getInstance(getContentResolver(), instanceId);
         if (mAlarmInstance == null) {
@@ -176,6 +186,15 @@ public class AlarmActivity extends Activity implements View.OnClickListener, Vie
         setContentView(R.layout.alarm_activity);
 
         mContainerView = (ViewGroup) findViewById(android.R.id.content);
+        mContainerView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                mContainerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                AlarmFireTrace.mark(instanceId, AlarmFireTrace.STAGE_FIRST_FRAME);
+                return true;
+            }
+        });
 
         mAlertView = (ViewGroup) mContainerView.findViewById(R.id.alert);
         mAlertTitleView = (TextView) mAlertView.findViewById(R.id.alert_title);
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.alarms;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Records how long each step of firing an alarm takes, from the alarm manager broadcast until the
+ * alarm activity draws its first frame. The records of the last {@link #CAPACITY} firings are kept
+ * in a ring buffer and written out by {@link #dump}, which the alarm service and the main
+ * activity call from their dumpsys output:
+ *
+ * <pre>
+ * adb shell dumpsys activity service com.android.deskclock/.alarms.AlarmService
+ * </pre>
+ *
+ * The same steps are also marked as trace sections, tagged "AlarmFire", for systrace. Thread safe.
+ */
+public final class AlarmFireTrace {
+
+    /** The state change broadcast to fire the instance was received. */
+    public static final int STAGE_BROADCAST = 0;
+    /** The alarm mutation executor started handling the broadcast. */
+    public static final int STAGE_MUTATION = 1;
+    /** The instance was set to the fired state. */
+    public static final int STAGE_FIRED_STATE = 2;
+    /** The alarm service started the alarm. */
+    public static final int STAGE_SERVICE = 3;
+    /** The ringtone became audible. */
+    public static final int STAGE_AUDIBLE = 4;
+    /** The alarm activity drew its first frame. */
+    public static final int STAGE_FIRST_FRAME = 5;
+    private static final int STAGE_COUNT = 6;
+
+    private static final String[] STAGE_NAMES =
+            { "broadcast", "mutation", "fired", "service", "audible", "firstFrame" };
+
+    /** Name prefix of the trace sections. */
+    public static final String TRACE_TAG = "AlarmFire";
+
+    private static final int CAPACITY = 16;
+
+    private static final class Record {
+        long instanceId;
+        /** Wall clock time the instance was scheduled to fire at, or 0 if unknown. */
+        long scheduledAt;
+        /** Wall clock time of the first recorded stage. */
+        long startedAt;
+        /** Elapsed realtime of each stage, or 0 if it hasn't been reached. */
+        final long[] stages = new long[STAGE_COUNT];
+    }
+
+    private static final Record[] sRecords = new Record[CAPACITY];
+    /** Index of the newest record. */
+    private static int sNewest = -1;
+
+    private AlarmFireTrace() {
+    }
+
+    /**
+     * Starts a new record for the given instance.
+     *
+     * @param scheduledAt wall clock time the instance was scheduled to fire at, or 0
+     */
+    public static synchronized void begin(long instanceId, long scheduledAt) {
+        sNewest = (sNewest + 1) % CAPACITY;
+        Record record = sRecords[sNewest];
+        if (record == null) {
+            record = new Record();
+            sRecords[sNewest] = record;
+        }
+        record.instanceId = instanceId;
+        record.scheduledAt = scheduledAt;
+        record.startedAt = System.currentTimeMillis();
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            record.stages[i] = 0;
+        }
+        record.stages[STAGE_BROADCAST] = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Marks the given stage of the newest firing of the instance as reached now, unless it was
+     * already, e.g. by an alarm activity recreated on rotation. Starts a new record if the
+     * instance has none, e.g. because it wasn't fired by the alarm manager broadcast.
+     */
+    public static synchronized void mark(long instanceId, int stage) {
+        final long now = SystemClock.elapsedRealtime();
+        Record record = find(instanceId);
+        if (record == null) {
+            begin(instanceId, 0);
+            record = sRecords[sNewest];
+            record.stages[STAGE_BROADCAST] = 0;
+        } else if (record.stages[stage] != 0) {
+            return;
+        }
+        record.stages[stage] = now;
+    }
+
+    /**
+     * Records the wall clock time the instance was scheduled to fire at, to report how late it
+     * fired.
+     */
+    public static synchronized void setScheduledTime(long instanceId, long scheduledAt) {
+        final Record record = find(instanceId);
+        if (record != null) {
+            record.scheduledAt = scheduledAt;
+        }
+    }
+
+    public static synchronized void dump(PrintWriter pw) {
+        pw.println("Alarm fire latency, ms after the first recorded stage, newest first:");
+        if (sNewest < 0) {
+            return;
+        }
+        final SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        for (int i = 0; i < CAPACITY; i++) {
+            final Record record = sRecords[(sNewest - i + CAPACITY) % CAPACITY];
+            if (record == null) {
+                break;
+            }
+            long first = 0;
+            for (long stage : record.stages) {
+                if (stage != 0 && (first == 0 || stage < first)) {
+                    first = stage;
+                }
+            }
+            final StringBuilder sb = new StringBuilder("  instance=").append(record.instanceId)
+                    .append(" at ").append(format.format(new Date(record.startedAt)));
+            if (record.scheduledAt != 0) {
+                sb.append(" late=").append(record.startedAt - record.scheduledAt);
+            }
+            for (int stage = 0; stage < STAGE_COUNT; stage++) {
+                sb.append(' ').append(STAGE_NAMES[stage]).append('=');
+                if (record.stages[stage] == 0) {
+                    sb.append('-');
+                } else {
+                    sb.append(record.stages[stage] - first);
+                }
+            }
+            pw.println(sb);
+        }
+    }
+
+    private static Record find(long instanceId) {
+        if (sNewest < 0) {
+            return null;
+        }
+        for (int i = 0; i < CAPACITY; i++) {
+            final Record record = sRecords[(sNewest - i + CAPACITY) % CAPACITY];
+            if (record == null) {
+                return null;
+            }
+            if (record.instanceId == instanceId) {
+                return record;
+            }
+        }
+        return null;
+    }
+}
@@ -17,37 +17,96 @@
 package com.android.deskclock.alarms;
 
 import android.content.Context;
-import android.content.res.AssetFileDescriptor;
 import android.media.AudioAttributes;
-import android.media.AudioManager;
-import android.media.MediaPlayer;
-import android.media.MediaPlayer.OnErrorListener;
 import android.media.RingtoneManager;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.os.Vibrator;
 
+import com.android.deskclock.AudioEngine;
 import com.android.deskclock.LogUtils;
-import com.android.deskclock.R;
+import com.android.deskclock.SettingsActivity;
+import com.android.deskclock.Utils;
 import com.android.deskclock.provider.AlarmInstance;
 
-import java.io.IOException;
-
 /**
  * Manages playing ringtone and vibrating the device.
+ *
+ * Resolving the ringtone and preparing a media player for it can take a noticeable time, more so
+ * if the ringtone can't be played and the fallback has to be prepared as well. So when an
+ * instance enters the high notification state, {@link #prewarm} has the {@link AudioEngine}
+ * prepare its ringtone, and {@link #start} only has to start it when the instance fires. The
+ * ringtone of the next instance is then prepared by
+ * {@link AlarmStateManager#schedulePrewarmNextInstance}.
  */
 public class AlarmKlaxon {
     private static final long[] sVibratePattern = new long[] { 500, 500 };
 
-    // Volume suggested by media team for in-call alarms.
-    private static final float IN_CALL_VOLUME = 0.125f;
-
     private static final AudioAttributes VIBRATION_ATTRIBUTES = new AudioAttributes.Builder()
             .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
             .setUsage(AudioAttributes.USAGE_ALARM)
             .build();
 
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
     private static boolean sStarted = false;
-    private static MediaPlayer sMediaPlayer = null;
+
+    // Instance whose ringtone is kept prepared, main thread only.
+    private static long sPrewarmedInstanceId = AlarmInstance.INVALID_ID;
+    private static long sPrewarmedAlarmTime;
+    private static AudioEngine.Source sPrewarmedSource = null;
+
+    /**
+     * Has the ringtone of the given instance prepared, so that it sounds as soon as the instance
+     * fires. Only one ringtone is kept prepared, for the instance that fires first. May be called
+     * from any thread.
+     */
+    public static void prewarm(final Context context, AlarmInstance instance) {
+        final long instanceId = instance.mId;
+        final long alarmTime = instance.getAlarmTime().getTimeInMillis();
+        if (AlarmInstance.NO_RINGTONE_URI.equals(instance.mRingtone)) {
+            discardPrewarmed(context, instanceId);
+            return;
+        }
+        final AudioEngine.Source source = AudioEngine.Source.forUri(getAlarmNoise(instance));
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (sPrewarmedSource != null && sPrewarmedInstanceId != instanceId
+                        && sPrewarmedAlarmTime <= alarmTime) {
+                    // Keep the ringtone of the instance that fires first
+                    return;
+                }
+                sPrewarmedInstanceId = instanceId;
+                sPrewarmedAlarmTime = alarmTime;
+                sPrewarmedSource = source;
+                if (!sStarted) {
+                    AudioEngine.getInstance(context).prepare(AudioEngine.CLIENT_ALARM, source);
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops the ringtone prepared for the given instance, if any. May be called from any thread.
+     */
+    public static void discardPrewarmed(final Context context, final long instanceId) {
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (sPrewarmedSource == null || sPrewarmedInstanceId != instanceId) {
+                    return;
+                }
+                clearPrewarmed();
+                if (!sStarted) {
+                    AudioEngine.getInstance(context).stop(AudioEngine.CLIENT_ALARM);
+                }
+            }
+        });
+    }
 
     public static void stop(Context context) {
         LogUtils.v("AlarmKlaxon.stop()");
@@ -55,13 +114,11 @@ public class AlarmKlaxon {
         if (sStarted) {
             sStarted = false;
             // Stop audio playing
-            if (sMediaPlayer != null) {
-                sMediaPlayer.stop();
-                AudioManager audioManager = (AudioManager)
-                        context.getSystemService(Context.AUDIO_SERVICE);
-                audioManager.abandonAudioFocus(null);
-                sMediaPlayer.release();
-                sMediaPlayer = null;
+            final AudioEngine engine = AudioEngine.getInstance(context);
+            engine.stop(AudioEngine.CLIENT_ALARM);
+            if (sPrewarmedSource != null) {
+                // Get the next alarm ready again
+                engine.prepare(AudioEngine.CLIENT_ALARM, sPrewarmedSource);
             }
 
             ((Vibrator)context.getSystemService(Context.VIBRATOR_SERVICE)).cancel();
@@ -71,54 +128,28 @@ public class AlarmKlaxon {
     public static void start(final Context context, AlarmInstance instance,
             boolean inTelephoneCall) {
         LogUtils.v("AlarmKlaxon.start()");
+        Trace.beginSection(AlarmFireTrace.TRACE_TAG + ":klaxon");
+        final long startTime = SystemClock.elapsedRealtime();
         // Make sure we are stop before starting
         stop(context);
 
-        if (!AlarmInstance.NO_RINGTONE_URI.equals(instance.mRingtone)) {
-            Uri alarmNoise = instance.mRingtone;
-            // Fall back on the default alarm if the database does not have an
-            // alarm stored.
-            if (alarmNoise == null) {
-                alarmNoise = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_ALARM);
-                LogUtils.v("Using default alarm: " + alarmNoise.toString());
-            }
+        final boolean prewarmed = sPrewarmedSource != null && sPrewarmedInstanceId == instance.mId;
+        if (prewarmed) {
+            clearPrewarmed();
+        }
 
-            // TODO: Reuse mMediaPlayer instead of creating a new one and/or use RingtoneManager.
-            sMediaPlayer = new MediaPlayer();
-            sMediaPlayer.setOnErrorListener(new OnErrorListener() {
+        if (!AlarmInstance.NO_RINGTONE_URI.equals(instance.mRingtone)) {
+            final long instanceId = instance.mId;
+            final AudioEngine engine = AudioEngine.getInstance(context);
+            engine.setOnAudibleListener(AudioEngine.CLIENT_ALARM, new Runnable() {
                 @Override
-                public boolean onError(MediaPlayer mp, int what, int extra) {
-                    LogUtils.e("Error occurred while playing audio. Stopping AlarmKlaxon.");
-                    AlarmKlaxon.stop(context);
-                    return true;
+                public void run() {
+                    AlarmFireTrace.mark(instanceId, AlarmFireTrace.STAGE_AUDIBLE);
                 }
             });
-
-            try {
-                // Check if we are in a call. If we are, use the in-call alarm
-                // resource at a low volume to not disrupt the call.
-                if (inTelephoneCall) {
-                    LogUtils.v("Using the in-call alarm");
-                    sMediaPlayer.setVolume(IN_CALL_VOLUME, IN_CALL_VOLUME);
-                    setDataSourceFromResource(context, sMediaPlayer, R.raw.in_call_alarm);
-                } else {
-                    sMediaPlayer.setDataSource(context, alarmNoise);
-                }
-                startAlarm(context, sMediaPlayer);
-            } catch (Exception ex) {
-                LogUtils.v("Using the fallback ringtone");
-                // The alarmNoise may be on the sd card which could be busy right
-                // now. Use the fallback ringtone.
-                try {
-                    // Must reset the media player to clear the error state.
-                    sMediaPlayer.reset();
-                    setDataSourceFromResource(context, sMediaPlayer, R.raw.fallbackring);
-                    startAlarm(context, sMediaPlayer);
-                } catch (Exception ex2) {
-                    // At this point we just don't play anything.
-                    LogUtils.e("Failed to play fallback ringtone", ex2);
-                }
-            }
+            engine.play(AudioEngine.CLIENT_ALARM,
+                    AudioEngine.Source.forUri(getAlarmNoise(instance)), inTelephoneCall,
+                    Utils.getCrescendoMillis(context, SettingsActivity.KEY_ALARM_CRESCENDO));
         }
 
         if (instance.mVibrate) {
@@ -127,28 +158,24 @@ public class AlarmKlaxon {
         }
 
         sStarted = true;
+        LogUtils.i("AlarmKlaxon started in " + (SystemClock.elapsedRealtime() - startTime)
+                + " ms" + (prewarmed ? " (pre-warmed)" : ""));
+        Trace.endSection();
     }
 
-    // Do the common stuff when starting the alarm.
-    private static void startAlarm(Context context, MediaPlayer player) throws IOException {
-        AudioManager audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
-        // do not play alarms if stream volume is 0 (typically because ringer mode is silent).
-        if (audioManager.getStreamVolume(AudioManager.STREAM_ALARM) != 0) {
-            player.setAudioStreamType(AudioManager.STREAM_ALARM);
-            player.setLooping(true);
-            player.prepare();
-            audioManager.requestAudioFocus(null,
-                    AudioManager.STREAM_ALARM, AudioManager.AUDIOFOCUS_GAIN_TRANSIENT);
-            player.start();
+    private static Uri getAlarmNoise(AlarmInstance instance) {
+        Uri alarmNoise = instance.mRingtone;
+        // Fall back on the default alarm if the database does not have an
+        // alarm stored.
+        if (alarmNoise == null) {
+            alarmNoise = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_ALARM);
+            LogUtils.v("Using default alarm: " + alarmNoise.toString());
         }
+        return alarmNoise;
     }
 
-    private static void setDataSourceFromResource(Context context, MediaPlayer player, int res)
-            throws IOException {
-        AssetFileDescriptor afd = context.getResources().openRawResourceFd(res);
-        if (afd != null) {
-            player.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
-            afd.close();
-        }
+    private static void clearPrewarmed() {
+        sPrewarmedInstanceId = AlarmInstance.INVALID_ID;
+        sPrewarmedSource = null;
     }
 }
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.alarms;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.android.deskclock.AsyncHandler;
+import com.android.deskclock.TaskStats;
+import com.android.deskclock.provider.Alarm;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Serial executor through which all writes to alarms and alarm instances are made, so that edits
+ * from the UI, the api handler and the broadcast receivers are applied one at a time and in the
+ * order they were submitted. Mutations run on the {@link AsyncHandler#LANE_CRITICAL} lane.
+ *
+ * Urgent mutations, i.e. alarm state changes such as firing, snooze and dismiss, run before any
+ * queued non-urgent ones, in the order they were submitted among themselves. Long maintenance
+ * jobs should be submitted as a series of small mutations so that urgent ones can run between
+ * them; see {@link AlarmStateManager#scheduleFixAlarmInstances}.
+ *
+ * Edits that fully replace the state of one alarm, e.g. saving it after a toggle, may be
+ * submitted with {@link #executeCoalescing}: if an earlier such edit of the same alarm has not
+ * started yet, it is replaced by the new one rather than queued behind it. This bounds the queue
+ * to one pending edit per alarm however fast the user taps. A coalesced edit never moves ahead of
+ * a non-coalescing mutation of the same alarm submitted after the edit it replaces.
+ */
+public final class AlarmMutationExecutor {
+
+    /** Alarm id for mutations that are not about a single alarm. */
+    public static final long NO_ALARM = Alarm.INVALID_ID;
+
+    /**
+     * A unit of work run on the mutation thread, with an optional callback on the main thread.
+     */
+    public abstract static class Mutation<Result> {
+        /** Called on the mutation thread. */
+        protected abstract Result doInBackground();
+
+        /** Called on the main thread once {@link #doInBackground} has returned. */
+        protected void onPostExecute(Result result) {
+        }
+    }
+
+    private static final class Entry {
+        final long alarmId;
+        final String type;
+        final boolean coalescing;
+        final long enqueuedAt;
+        Mutation<?> mutation;
+
+        Entry(long alarmId, String type, boolean coalescing, Mutation<?> mutation) {
+            this.alarmId = alarmId;
+            this.type = type;
+            this.coalescing = coalescing;
+            this.mutation = mutation;
+            enqueuedAt = SystemClock.elapsedRealtime();
+        }
+    }
+
+    private static final Object sLock = new Object();
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static final TaskStats sStats = new TaskStats("AlarmMutationExecutor");
+
+    private static final ArrayDeque<Entry> sUrgent = new ArrayDeque<Entry>();
+    private static final ArrayDeque<Entry> sNormal = new ArrayDeque<Entry>();
+
+    /** Coalescing edits that have not started yet, by alarm id. */
+    private static final HashMap<Long, Entry> sPendingEdits = new HashMap<Long, Entry>();
+
+    // Metrics, guarded by sLock.
+    private static int sMaxQueueDepth;
+    private static long sSubmitted;
+    private static long sCoalesced;
+
+    /**
+     * Posted once per queued entry; each run takes the next entry, urgent ones first.
+     */
+    private static final Runnable sRunNext = new Runnable() {
+        @Override
+        public void run() {
+            final Entry entry;
+            final Mutation<?> mutation;
+            synchronized (sLock) {
+                entry = sUrgent.isEmpty() ? sNormal.poll() : sUrgent.poll();
+                if (entry == null) {
+                    return;
+                }
+                if (entry.coalescing && sPendingEdits.get(entry.alarmId) == entry) {
+                    sPendingEdits.remove(entry.alarmId);
+                }
+                mutation = entry.mutation;
+            }
+
+            final long start = SystemClock.elapsedRealtime();
+            runMutation(mutation);
+            sStats.record(entry.type, start - entry.enqueuedAt,
+                    SystemClock.elapsedRealtime() - start);
+        }
+    };
+
+    private AlarmMutationExecutor() {
+    }
+
+    /**
+     * Queues a mutation to run after all previously submitted ones.
+     *
+     * @param alarmId the alarm the mutation is about, or {@link #NO_ALARM}
+     * @param type name under which the mutation's timings are recorded
+     */
+    public static void execute(long alarmId, String type, Mutation<?> mutation) {
+        synchronized (sLock) {
+            // Later edits of this alarm must not be merged into one queued before this mutation.
+            sPendingEdits.remove(alarmId);
+            enqueue(sNormal, new Entry(alarmId, type, false, mutation));
+        }
+    }
+
+    /**
+     * Queues a latency-critical mutation to run before all queued non-urgent ones.
+     */
+    public static void executeUrgent(long alarmId, String type, Mutation<?> mutation) {
+        synchronized (sLock) {
+            sPendingEdits.remove(alarmId);
+            enqueue(sUrgent, new Entry(alarmId, type, false, mutation));
+        }
+    }
+
+    /**
+     * Queues an edit of the given alarm, replacing a previous edit of the same alarm that has not
+     * started yet. The replaced edit's {@link Mutation#onPostExecute} is not called.
+     */
+    public static void executeCoalescing(long alarmId, String type, Mutation<?> mutation) {
+        synchronized (sLock) {
+            final Entry pending = sPendingEdits.get(alarmId);
+            if (pending != null) {
+                pending.mutation = mutation;
+                sSubmitted++;
+                sCoalesced++;
+                return;
+            }
+            final Entry entry = new Entry(alarmId, type, true, mutation);
+            sPendingEdits.put(alarmId, entry);
+            enqueue(sNormal, entry);
+        }
+    }
+
+    public static void dump(PrintWriter pw) {
+        synchronized (sLock) {
+            pw.println("AlarmMutationExecutor: submitted=" + sSubmitted + " coalesced="
+                    + sCoalesced + " queued=" + (sUrgent.size() + sNormal.size())
+                    + " maxQueued=" + sMaxQueueDepth);
+        }
+        sStats.dump(pw);
+    }
+
+    private static void enqueue(ArrayDeque<Entry> queue, Entry entry) {
+        queue.add(entry);
+        sSubmitted++;
+        sMaxQueueDepth = Math.max(sMaxQueueDepth, sUrgent.size() + sNormal.size());
+        AsyncHandler.post(AsyncHandler.LANE_CRITICAL, "AlarmMutationExecutor", sRunNext);
+    }
+
+    private static <Result> void runMutation(final Mutation<Result> mutation) {
+        final Result result = mutation.doInBackground();
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mutation.onPostExecute(result);
+            }
+        });
+    }
+}
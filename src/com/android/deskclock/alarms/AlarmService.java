@@ -20,6 +20,7 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.os.IBinder;
+import android.os.Trace;
 import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
 
@@ -27,6 +28,9 @@ import com.android.deskclock.AlarmAlertWakeLock;
 import com.android.deskclock.LogUtils;
 import com.android.deskclock.provider.AlarmInstance;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 /**
  * This service is in charge of starting/stoping the alarm. It will bring up and manage the
  * {@link AlarmActivity} as well as {@link AlarmKlaxon}.
@@ -95,6 +99,8 @@ public class AlarmService extends Service {
 
     private void startAlarm(AlarmInstance instance) {
         LogUtils.v("AlarmService.start with instance: " + instance.mId);
+        AlarmFireTrace.mark(instance.mId, AlarmFireTrace.STAGE_SERVICE);
+        Trace.beginSection(AlarmFireTrace.TRACE_TAG + ":startAlarm");
         if (mCurrentAlarm != null) {
             AlarmStateManager.setMissedState(this, mCurrentAlarm);
             stopCurrentAlarm();
@@ -104,10 +110,14 @@ public class AlarmService extends Service {
         mCurrentAlarm = instance;
         AlarmNotifications.showAlarmNotification(this, mCurrentAlarm);
         mInitialCallState = mTelephonyManager.getCallState();
-        mTelephonyManager.listen(mPhoneStateListener, PhoneStateListener.LISTEN_CALL_STATE);
         boolean inCall = mInitialCallState != TelephonyManager.CALL_STATE_IDLE;
         AlarmKlaxon.start(this, mCurrentAlarm, inCall);
+        // The prepared ringtone has been taken, get the one of the next alarm ready
+        AlarmStateManager.schedulePrewarmNextInstance(this);
+        // Listening only once the alarm sounds keeps the binder call off the firing path
+        mTelephonyManager.listen(mPhoneStateListener, PhoneStateListener.LISTEN_CALL_STATE);
         sendBroadcast(new Intent(ALARM_ALERT_ACTION));
+        Trace.endSection();
     }
 
     private void stopCurrentAlarm() {
@@ -173,4 +183,9 @@ public class AlarmService extends Service {
     public IBinder onBind(Intent intent) {
         return null;
     }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        AlarmFireTrace.dump(writer);
+    }
 }
@@ -24,13 +24,14 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.PowerManager;
+import android.os.Trace;
 import android.preference.PreferenceManager;
+import android.text.TextUtils;
 import android.widget.Toast;
 
 import com.android.deskclock.AlarmAlertWakeLock;
 import com.android.deskclock.AlarmClockFragment;
 import com.android.deskclock.AlarmUtils;
-import com.android.deskclock.AsyncHandler;
 import com.android.deskclock.DeskClock;
 import com.android.deskclock.LogUtils;
 import com.android.deskclock.R;
@@ -151,6 +152,36 @@ public final class AlarmStateManager extends BroadcastReceiver {
         AlarmNotifications.registerNextAlarmWithAlarmManager(context, nextAlarm);
     }
 
+    /**
+     * Has the ringtone of the next instance to fire prepared, once the one prepared before has
+     * been taken by a firing alarm. Only instances in the high notification or snooze state are
+     * pre-warmed. Called on the main thread.
+     *
+     * @param context application context
+     */
+    public static void schedulePrewarmNextInstance(final Context context) {
+        AlarmMutationExecutor.execute(AlarmMutationExecutor.NO_ALARM, "prewarmNextInstance",
+                new AlarmMutationExecutor.Mutation<Void>() {
+            @Override
+            protected Void doInBackground() {
+                AlarmInstance next = null;
+                final String query = AlarmInstance.ALARM_STATE + " IN ("
+                        + AlarmInstance.HIGH_NOTIFICATION_STATE + ","
+                        + AlarmInstance.SNOOZE_STATE + ")";
+                for (AlarmInstance instance :
+                        AlarmInstance.getInstances(context.getContentResolver(), query)) {
+                    if (next == null || instance.getAlarmTime().before(next.getAlarmTime())) {
+                        next = instance;
+                    }
+                }
+                if (next != null) {
+                    AlarmKlaxon.prewarm(context, next);
+                }
+                return null;
+            }
+        });
+    }
+
     /**
      * Used by dismissed and missed states, to update parent alarm. This will either
      * disable, delete or reschedule parent alarm.
@@ -360,6 +391,9 @@ public final class AlarmStateManager extends BroadcastReceiver {
         AlarmNotifications.showHighPriorityNotification(context, instance);
         scheduleInstanceStateChange(context, instance.getAlarmTime(),
                 instance, AlarmInstance.FIRED_STATE);
+
+        // Get the ringtone ready, so that the alarm sounds as soon as it fires
+        AlarmKlaxon.prewarm(context, instance);
     }
 
     /**
@@ -372,6 +406,8 @@ public final class AlarmStateManager extends BroadcastReceiver {
      */
     public static void setFiredState(Context context, AlarmInstance instance) {
         LogUtils.v("Setting fire state to instance " + instance.mId);
+        AlarmFireTrace.mark(instance.mId, AlarmFireTrace.STAGE_FIRED_STATE);
+        AlarmFireTrace.setScheduledTime(instance.mId, instance.getAlarmTime().getTimeInMillis());
 
         // Update alarm state in db
         ContentResolver contentResolver = context.getContentResolver();
@@ -420,6 +456,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
         AlarmNotifications.showSnoozeNotification(context, instance);
         scheduleInstanceStateChange(context, instance.getAlarmTime(),
                 instance, AlarmInstance.FIRED_STATE);
+        AlarmKlaxon.prewarm(context, instance);
 
         // Display the snooze minutes in a toast.
         if (showToast) {
@@ -508,6 +545,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
     public static void unregisterInstance(Context context, AlarmInstance instance) {
         // Stop alarm if this instance is firing it
         AlarmService.stopAlarm(context, instance);
+        AlarmKlaxon.discardPrewarmed(context, instance.mId);
         AlarmNotifications.clearNotification(context, instance);
         cancelScheduledInstance(context, instance);
     }
@@ -639,18 +677,148 @@ public final class AlarmStateManager extends BroadcastReceiver {
     }
 
     /**
-     * Fix and update all alarm instance when a time change event occurs.
+     * Saves an edited alarm, changing its instances only as much as the edit requires. The alarm
+     * is compared with the stored one: if it is enabled or disabled, or its hour, minutes or days
+     * of week change, or it is enabled but has no instance, its instances are deleted and a new
+     * one scheduled. Otherwise the existing instances are updated in place, their notifications
+     * refreshed if the label changed and their ringtone prepared again if it changed, and nothing
+     * is rescheduled. An alarm identical to the stored one is not written at all.
+     *
+     * Must not be called on the main thread.
      *
      * @param context application context
+     * @param alarm the edited alarm
+     * @return the earliest instance of the alarm that is still to come, or null if there is none
      */
-    public static void fixAlarmInstances(Context context) {
-        // Register all instances after major time changes or when phone restarts
-        // TODO: Refactor this code to not use the overloaded registerInstance method.
-        ContentResolver contentResolver = context.getContentResolver();
-        for (AlarmInstance instance : AlarmInstance.getInstances(contentResolver, null)) {
-            AlarmStateManager.registerInstance(context, instance, false);
+    public static AlarmInstance applyAlarmEdit(Context context, Alarm alarm) {
+        final ContentResolver cr = context.getContentResolver();
+        final Alarm stored = Alarm.getAlarm(cr, alarm.id);
+        final List<AlarmInstance> instances = AlarmInstance.getInstancesByAlarmId(cr, alarm.id);
+        final boolean scheduleChanged = stored == null
+                || stored.enabled != alarm.enabled
+                || stored.hour != alarm.hour
+                || stored.minutes != alarm.minutes
+                || stored.daysOfWeek.getBitSet() != alarm.daysOfWeek.getBitSet()
+                // Heals an enabled alarm whose instance was lost, as saving it used to.
+                || (alarm.enabled && instances.isEmpty());
+
+        if (scheduleChanged) {
+            LogUtils.v("Rescheduling edited alarm " + alarm.id);
+            deleteAllInstances(context, alarm.id);
+            Alarm.updateAlarm(cr, alarm);
+            if (!alarm.enabled) {
+                return null;
+            }
+            final AlarmInstance instance = AlarmInstance.addInstance(cr,
+                    alarm.createInstanceAfter(Calendar.getInstance()));
+            registerInstance(context, instance, true);
+            return instance;
+        }
+
+        final boolean labelChanged = !TextUtils.equals(stored.label, alarm.label);
+        if (labelChanged || stored.vibrate != alarm.vibrate || !stored.alert.equals(alarm.alert)
+                || stored.deleteAfterUse != alarm.deleteAfterUse) {
+            Alarm.updateAlarm(cr, alarm);
+        }
+
+        final Calendar now = Calendar.getInstance();
+        AlarmInstance upcoming = null;
+        for (AlarmInstance instance : instances) {
+            if (!TextUtils.equals(instance.mLabel, alarm.label)
+                    || instance.mVibrate != alarm.vibrate
+                    || !alarm.alert.equals(instance.mRingtone)) {
+                final boolean ringtoneChanged = !alarm.alert.equals(instance.mRingtone);
+                instance.mLabel = alarm.label;
+                instance.mVibrate = alarm.vibrate;
+                instance.mRingtone = alarm.alert;
+                AlarmInstance.updateInstance(cr, instance);
+                if (labelChanged) {
+                    refreshNotification(context, instance);
+                }
+                if (ringtoneChanged
+                        && (instance.mAlarmState == AlarmInstance.HIGH_NOTIFICATION_STATE
+                        || instance.mAlarmState == AlarmInstance.SNOOZE_STATE)) {
+                    // Replace the ringtone prepared for the old one
+                    AlarmKlaxon.prewarm(context, instance);
+                }
+            }
+            final Calendar alarmTime = instance.getAlarmTime();
+            if (alarmTime.after(now)
+                    && (upcoming == null || alarmTime.before(upcoming.getAlarmTime()))) {
+                upcoming = instance;
+            }
+        }
+        return upcoming;
+    }
+
+    /**
+     * Re-posts the notification of an instance in its current state, e.g. after its label
+     * changed. Firing alarms keep their notification.
+     */
+    private static void refreshNotification(Context context, AlarmInstance instance) {
+        switch (instance.mAlarmState) {
+            case AlarmInstance.LOW_NOTIFICATION_STATE:
+                AlarmNotifications.showLowPriorityNotification(context, instance);
+                break;
+            case AlarmInstance.HIGH_NOTIFICATION_STATE:
+                AlarmNotifications.showHighPriorityNotification(context, instance);
+                break;
+            case AlarmInstance.SNOOZE_STATE:
+                AlarmNotifications.showSnoozeNotification(context, instance);
+                break;
+            case AlarmInstance.MISSED_STATE:
+                AlarmNotifications.showMissedNotification(context, instance);
+                break;
         }
-        AlarmStateManager.updateNextAlarm(context);
+    }
+
+    /**
+     * Fix and update all alarm instance when a time change event occurs. Each instance is
+     * registered by its own mutation, so that an alarm firing meanwhile isn't held up until all
+     * of them are done.
+     *
+     * @param context application context
+     * @param onDone run on the mutation thread once all instances have been fixed
+     */
+    public static void scheduleFixAlarmInstances(final Context context, final Runnable onDone) {
+        AlarmMutationExecutor.execute(AlarmMutationExecutor.NO_ALARM, "listAlarmInstances",
+                new AlarmMutationExecutor.Mutation<Void>() {
+            @Override
+            protected Void doInBackground() {
+                final ContentResolver cr = context.getContentResolver();
+                for (AlarmInstance instance : AlarmInstance.getInstances(cr, null)) {
+                    scheduleFixAlarmInstance(context, instance.mId);
+                }
+                AlarmMutationExecutor.execute(AlarmMutationExecutor.NO_ALARM, "updateNextAlarm",
+                        new AlarmMutationExecutor.Mutation<Void>() {
+                    @Override
+                    protected Void doInBackground() {
+                        updateNextAlarm(context);
+                        onDone.run();
+                        return null;
+                    }
+                });
+                return null;
+            }
+        });
+    }
+
+    private static void scheduleFixAlarmInstance(final Context context, final long instanceId) {
+        AlarmMutationExecutor.execute(AlarmMutationExecutor.NO_ALARM, "fixAlarmInstance",
+                new AlarmMutationExecutor.Mutation<Void>() {
+            @Override
+            protected Void doInBackground() {
+                // Re-read the instance, an urgent state change may have run since it was listed
+                final AlarmInstance instance =
+                        AlarmInstance.getInstance(context.getContentResolver(), instanceId);
+                if (instance != null) {
+                    // Register all instances after major time changes or when phone restarts
+                    // TODO: Refactor this code to not use the overloaded registerInstance method.
+                    registerInstance(context, instance, false);
+                }
+                return null;
+            }
+        });
     }
 
     /**
@@ -700,12 +868,32 @@ public final class AlarmStateManager extends BroadcastReceiver {
         final PendingResult result = goAsync();
         final PowerManager.WakeLock wl = AlarmAlertWakeLock.createPartialWakeLock(context);
         wl.acquire();
-        AsyncHandler.post(new Runnable() {
+        final boolean firing = CHANGE_STATE_ACTION.equals(intent.getAction())
+                && intent.getIntExtra(ALARM_STATE_EXTRA, -1) == AlarmInstance.FIRED_STATE;
+        final long instanceId = AlarmInstance.getId(intent.getData());
+        if (firing) {
+            AlarmFireTrace.begin(instanceId, 0);
+        }
+        // State changes are what the user is waiting on when an alarm fires or is snoozed or
+        // dismissed, so they go ahead of queued edits and maintenance.
+        AlarmMutationExecutor.executeUrgent(AlarmMutationExecutor.NO_ALARM, "changeAlarmState",
+                new AlarmMutationExecutor.Mutation<Void>() {
             @Override
-            public void run() {
-                handleIntent(context, intent);
+            protected Void doInBackground() {
+                if (firing) {
+                    AlarmFireTrace.mark(instanceId, AlarmFireTrace.STAGE_MUTATION);
+                    Trace.beginSection(AlarmFireTrace.TRACE_TAG + ":changeState");
+                }
+                try {
+                    handleIntent(context, intent);
+                } finally {
+                    if (firing) {
+                        Trace.endSection();
+                    }
+                }
                 result.finish();
                 wl.release();
+                return null;
             }
         });
     }
@@ -17,10 +17,15 @@
 package com.android.deskclock.provider;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
@@ -28,9 +33,17 @@ import android.text.TextUtils;
 
 import com.android.deskclock.LogUtils;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
 public class ClockProvider extends ContentProvider {
     private ClockDatabaseHelper mOpenHelper;
 
+    // Non-null while applyBatch() runs on this thread; collects the uris to notify once the
+    // batch has been committed instead of notifying after every operation.
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<Set<Uri>>();
+
     private static final int ALARMS = 1;
     private static final int ALARMS_ID = 2;
     private static final int INSTANCES = 3;
@@ -87,7 +100,7 @@ public class ClockProvider extends ContentProvider {
             case CITIES_ID:
                 qb.setTables(ClockDatabaseHelper.CITIES_TABLE_NAME);
                 qb.appendWhere(ClockContract.CitiesColumns.CITY_ID + "=");
-                qb.appendWhere(uri.getLastPathSegment());
+                qb.appendWhereEscapeString(uri.getLastPathSegment());
                 break;
             default:
                 throw new IllegalArgumentException("Unknown URL " + uri);
@@ -148,7 +161,8 @@ public class ClockProvider extends ContentProvider {
             case CITIES_ID:
                 alarmId = uri.getLastPathSegment();
                 count = db.update(ClockDatabaseHelper.CITIES_TABLE_NAME, values,
-                        ClockContract.CitiesColumns.CITY_ID + "=" + alarmId,
+                        ClockContract.CitiesColumns.CITY_ID + "="
+                                + DatabaseUtils.sqlEscapeString(alarmId),
                         null);
                 break;
             default: {
@@ -157,7 +171,7 @@ public class ClockProvider extends ContentProvider {
             }
         }
         LogUtils.v("*** notifyChange() id: " + alarmId + " url " + uri);
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return count;
     }
 
@@ -173,14 +187,22 @@ public class ClockProvider extends ContentProvider {
                 rowId = db.insert(ClockDatabaseHelper.INSTANCES_TABLE_NAME, null, initialValues);
                 break;
             case CITIES:
-                rowId = db.insert(ClockDatabaseHelper.CITIES_TABLE_NAME, null, initialValues);
-                break;
+                // Cities are keyed by their city id; re-selecting a city replaces its row.
+                rowId = db.insertWithOnConflict(ClockDatabaseHelper.CITIES_TABLE_NAME, null,
+                        initialValues, SQLiteDatabase.CONFLICT_REPLACE);
+                if (rowId < 0) {
+                    throw new SQLException("Failed to insert row into " + uri);
+                }
+                Uri cityUri = City.getContentUriForId(
+                        initialValues.getAsString(ClockContract.CitiesColumns.CITY_ID));
+                notifyChange(cityUri);
+                return cityUri;
             default:
                 throw new IllegalArgumentException("Cannot insert from URL: " + uri);
         }
 
         Uri uriResult = ContentUris.withAppendedId(ClockContract.AlarmsColumns.CONTENT_URI, rowId);
-        getContext().getContentResolver().notifyChange(uriResult, null);
+        notifyChange(uriResult);
         return uriResult;
     }
 
@@ -221,6 +243,7 @@ public class ClockProvider extends ContentProvider {
                 break;
             case CITIES_ID:
                 primaryKey = uri.getLastPathSegment();
+                primaryKey = DatabaseUtils.sqlEscapeString(primaryKey);
                 if (TextUtils.isEmpty(where)) {
                     where = ClockContract.CitiesColumns.CITY_ID + "=" + primaryKey;
                 } else {
@@ -233,7 +256,54 @@ public class ClockProvider extends ContentProvider {
                 throw new IllegalArgumentException("Cannot delete from URL: " + uri);
         }
 
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return count;
     }
+
+    /**
+     * Applies all operations in a single transaction. Change notifications are deferred until
+     * the batch completes and collapsed to one per table.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final Set<Uri> pending = new HashSet<Uri>();
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        mPendingNotifications.set(pending);
+        db.beginTransaction();
+        try {
+            final ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            return results;
+        } finally {
+            db.endTransaction();
+            mPendingNotifications.remove();
+            for (Uri uri : pending) {
+                getContext().getContentResolver().notifyChange(uri, null);
+            }
+        }
+    }
+
+    private void notifyChange(Uri uri) {
+        final Set<Uri> pending = mPendingNotifications.get();
+        if (pending == null) {
+            getContext().getContentResolver().notifyChange(uri, null);
+            return;
+        }
+        // Notifying the table uri also reaches observers of its rows.
+        switch (sURLMatcher.match(uri)) {
+            case ALARMS_ID:
+                pending.add(ClockContract.AlarmsColumns.CONTENT_URI);
+                break;
+            case INSTANCES_ID:
+                pending.add(ClockContract.InstancesColumns.CONTENT_URI);
+                break;
+            case CITIES_ID:
+                pending.add(ClockContract.CitiesColumns.CONTENT_URI);
+                break;
+            default:
+                pending.add(uri);
+                break;
+        }
+    }
 }
@@ -718,18 +718,14 @@ public class StopwatchFragment extends DeskClockFragment
                 }
             }
         }
+        final int numLaps = mLapsAdapter != null ? mLapsAdapter.getCount() : 0;
         if (mState == Stopwatches.STOPWATCH_RUNNING) {
-            editor.putLong(Stopwatches.NOTIF_CLOCK_BASE, mStartTime-mAccumulatedTime);
-            editor.putLong(Stopwatches.NOTIF_CLOCK_ELAPSED, -1);
-            editor.putBoolean(Stopwatches.NOTIF_CLOCK_RUNNING, true);
+            StopwatchNotificationState.running(mStartTime - mAccumulatedTime, numLaps)
+                    .writeToPrefs(editor);
         } else if (mState == Stopwatches.STOPWATCH_STOPPED) {
-            editor.putLong(Stopwatches.NOTIF_CLOCK_ELAPSED, mAccumulatedTime);
-            editor.putLong(Stopwatches.NOTIF_CLOCK_BASE, -1);
-            editor.putBoolean(Stopwatches.NOTIF_CLOCK_RUNNING, false);
+            StopwatchNotificationState.stopped(mAccumulatedTime, numLaps).writeToPrefs(editor);
         } else if (mState == Stopwatches.STOPWATCH_RESET) {
-            editor.remove(Stopwatches.NOTIF_CLOCK_BASE);
-            editor.remove(Stopwatches.NOTIF_CLOCK_RUNNING);
-            editor.remove(Stopwatches.NOTIF_CLOCK_ELAPSED);
+            StopwatchNotificationState.clearFromPrefs(editor);
         }
         editor.putBoolean(Stopwatches.PREF_UPDATE_CIRCLE, false);
         editor.apply();
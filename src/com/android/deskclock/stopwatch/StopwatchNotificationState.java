@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.stopwatch;
+
+import android.content.SharedPreferences;
+
+import com.android.deskclock.Utils;
+
+/**
+ * Immutable snapshot of what the stopwatch notification should display. The notification itself
+ * is driven by a platform chronometer, so this only changes on state edges (start, stop, lap),
+ * never while the clock is ticking.
+ *
+ * The state is persisted as a single compact preference value of the form "R:base:laps" while
+ * running and "S:elapsed:laps" while stopped. Older versions used three separate keys, which are
+ * converted once when the state is first read.
+ */
+final class StopwatchNotificationState {
+    private static final char RUNNING = 'R';
+    private static final char STOPPED = 'S';
+    private static final char SEPARATOR = ':';
+
+    // Legacy keys: the state used to be stored as three separate preferences.
+    private static final String LEGACY_CLOCK_BASE = "notif_clock_base";
+    private static final String LEGACY_CLOCK_ELAPSED = "notif_clock_elapsed";
+    private static final String LEGACY_CLOCK_RUNNING = "notif_clock_running";
+
+    /** Chronometer base (in {@link com.android.deskclock.Utils#getTimeNow()} time) if running. */
+    public final long clockBase;
+    /** Accumulated time if stopped. */
+    public final long elapsed;
+    public final boolean running;
+    public final int numLaps;
+
+    private StopwatchNotificationState(long clockBase, long elapsed, boolean running,
+            int numLaps) {
+        this.clockBase = clockBase;
+        this.elapsed = elapsed;
+        this.running = running;
+        this.numLaps = numLaps;
+    }
+
+    public static StopwatchNotificationState running(long clockBase, int numLaps) {
+        return new StopwatchNotificationState(clockBase, -1, true, numLaps);
+    }
+
+    public static StopwatchNotificationState stopped(long elapsed, int numLaps) {
+        return new StopwatchNotificationState(-1, elapsed, false, numLaps);
+    }
+
+    /**
+     * Returns the chronometer base to display, given the current time.
+     */
+    public long getClockBase(long now) {
+        return running ? clockBase : now - elapsed;
+    }
+
+    public void writeToPrefs(SharedPreferences.Editor editor) {
+        final StringBuilder sb = new StringBuilder(24);
+        sb.append(running ? RUNNING : STOPPED).append(SEPARATOR)
+                .append(running ? clockBase : elapsed).append(SEPARATOR)
+                .append(numLaps);
+        editor.putString(Stopwatches.NOTIF_CLOCK_STATE, sb.toString());
+    }
+
+    public static void clearFromPrefs(SharedPreferences.Editor editor) {
+        editor.remove(Stopwatches.NOTIF_CLOCK_STATE);
+        removeLegacyKeys(editor);
+    }
+
+    /**
+     * Reads the persisted notification state.
+     *
+     * @return the saved state, or null if no notification should be shown
+     */
+    public static StopwatchNotificationState readFromPrefs(SharedPreferences prefs) {
+        if (!prefs.contains(Stopwatches.NOTIF_CLOCK_STATE)
+                && (prefs.contains(LEGACY_CLOCK_BASE) || prefs.contains(LEGACY_CLOCK_ELAPSED))) {
+            return migrateLegacyKeys(prefs);
+        }
+        final String value = prefs.getString(Stopwatches.NOTIF_CLOCK_STATE, null);
+        if (value == null || value.length() < 5) {
+            return null;
+        }
+        final int second = value.indexOf(SEPARATOR, 2);
+        if (value.charAt(1) != SEPARATOR || second < 0) {
+            return null;
+        }
+        try {
+            final long time = Long.parseLong(value.substring(2, second));
+            final int numLaps = Integer.parseInt(value.substring(second + 1));
+            switch (value.charAt(0)) {
+                case RUNNING:
+                    return running(time, numLaps);
+                case STOPPED:
+                    return stopped(time, numLaps);
+                default:
+                    return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Converts the state saved by older versions into the single record and removes the old
+     * keys.
+     */
+    private static StopwatchNotificationState migrateLegacyKeys(SharedPreferences prefs) {
+        final long clockBase = prefs.getLong(LEGACY_CLOCK_BASE, -1);
+        final long elapsed = prefs.getLong(LEGACY_CLOCK_ELAPSED, -1);
+        final boolean running = prefs.getBoolean(LEGACY_CLOCK_RUNNING, false);
+        final int numLaps = prefs.getInt(Stopwatches.PREF_LAP_NUM, 0);
+
+        // As before, a missing clock base means the clock is stopped.
+        final StopwatchNotificationState state;
+        if (clockBase != -1) {
+            state = running ? running(clockBase, numLaps)
+                    : stopped(Utils.getTimeNow() - clockBase, numLaps);
+        } else if (elapsed != -1) {
+            state = stopped(elapsed, numLaps);
+        } else {
+            state = null;
+        }
+
+        final SharedPreferences.Editor editor = prefs.edit();
+        removeLegacyKeys(editor);
+        if (state != null) {
+            state.writeToPrefs(editor);
+        }
+        editor.apply();
+        return state;
+    }
+
+    private static void removeLegacyKeys(SharedPreferences.Editor editor) {
+        editor.remove(LEGACY_CLOCK_BASE);
+        editor.remove(LEGACY_CLOCK_ELAPSED);
+        editor.remove(LEGACY_CLOCK_RUNNING);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof StopwatchNotificationState)) {
+            return false;
+        }
+        final StopwatchNotificationState other = (StopwatchNotificationState) o;
+        return running == other.running && clockBase == other.clockBase
+                && elapsed == other.elapsed && numLaps == other.numLaps;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (clockBase ^ (clockBase >>> 32));
+        result = 31 * result + (int) (elapsed ^ (elapsed >>> 32));
+        result = 31 * result + (running ? 1 : 0);
+        result = 31 * result + numLaps;
+        return result;
+    }
+}
@@ -29,6 +29,18 @@ public class StopwatchService extends Service {
     private boolean mLoadApp;
     private NotificationManager mNotificationManager;
 
+    // Pending intents are created once per service lifetime and reused for every notification.
+    private PendingIntent mContentIntent;
+    private PendingIntent mLapIntent;
+    private PendingIntent mStopIntent;
+    private PendingIntent mStartIntent;
+    private PendingIntent mResetAndLaunchIntent;
+    private PendingIntent mDismissIntent;
+
+    // The state currently displayed by the notification, or null if none is displayed.
+    // Used to skip redundant notify() calls; the chronometer updates the display on its own.
+    private StopwatchNotificationState mPostedState;
+
     // Constants for intent information
     // Make this a large number to avoid the alarm ID's which seem to be 1, 2, ...
     // Must also be different than TimerReceiver.IN_USE_NOTIFICATION_ID
@@ -46,6 +58,8 @@ public class StopwatchService extends Service {
         mStartTime = 0;
         mLoadApp = false;
         mNotificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        mPostedState = null;
+        createPendingIntents();
     }
 
     @Override
@@ -66,28 +80,19 @@ public class StopwatchService extends Service {
         if (actionType.equals(Stopwatches.START_STOPWATCH)) {
             mStartTime = actionTime;
             writeSharedPrefsStarted(mStartTime, updateCircle);
-            if (showNotif) {
-                setNotification(mStartTime - mElapsedTime, true, mNumLaps);
-            } else {
-                saveNotification(mStartTime - mElapsedTime, true, mNumLaps);
-            }
+            updateNotification(StopwatchNotificationState.running(
+                    mStartTime - mElapsedTime, mNumLaps), showNotif);
         } else if (actionType.equals(Stopwatches.LAP_STOPWATCH)) {
             mNumLaps++;
             long lapTimeElapsed = actionTime - mStartTime + mElapsedTime;
             writeSharedPrefsLap(lapTimeElapsed, updateCircle);
-            if (showNotif) {
-                setNotification(mStartTime - mElapsedTime, true, mNumLaps);
-            } else {
-                saveNotification(mStartTime - mElapsedTime, true, mNumLaps);
-            }
+            updateNotification(StopwatchNotificationState.running(
+                    mStartTime - mElapsedTime, mNumLaps), showNotif);
         } else if (actionType.equals(Stopwatches.STOP_STOPWATCH)) {
             mElapsedTime = mElapsedTime + (actionTime - mStartTime);
             writeSharedPrefsStopped(mElapsedTime, updateCircle);
-            if (showNotif) {
-                setNotification(actionTime - mElapsedTime, false, mNumLaps);
-            } else {
-                saveNotification(mElapsedTime, false, mNumLaps);
-            }
+            updateNotification(StopwatchNotificationState.stopped(mElapsedTime, mNumLaps),
+                    showNotif);
         } else if (actionType.equals(Stopwatches.RESET_STOPWATCH)) {
             mLoadApp = false;
             writeSharedPrefsReset(updateCircle);
@@ -117,7 +122,7 @@ public class StopwatchService extends Service {
                 stopSelf();
             }
         } else if (actionType.equals(Stopwatches.KILL_NOTIF)) {
-            mNotificationManager.cancel(NOTIFICATION_ID);
+            cancelNotification();
         }
 
         // We want this service to continue running until it is explicitly
@@ -127,7 +132,7 @@ public class StopwatchService extends Service {
 
     @Override
     public void onDestroy() {
-        mNotificationManager.cancel(NOTIFICATION_ID);
+        cancelNotification();
         clearSavedNotification();
         mNumLaps = 0;
         mElapsedTime = 0;
@@ -142,28 +147,64 @@ public class StopwatchService extends Service {
         }
     }
 
-    private void setNotification(long clockBaseTime, boolean clockRunning, int numLaps) {
-        Context context = getApplicationContext();
+    private void createPendingIntents() {
+        final Context context = getApplicationContext();
         // Intent to load the app for a non-button click.
         Intent intent = new Intent(context, DeskClock.class);
         intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
         intent.putExtra(DeskClock.SELECT_TAB_INTENT_EXTRA, DeskClock.STOPWATCH_TAB_INDEX);
         // add category to distinguish between stopwatch intents and timer intents
         intent.addCategory("stopwatch");
-        PendingIntent pendingIntent = PendingIntent.getActivity(context, 0, intent,
-                PendingIntent.FLAG_ONE_SHOT | PendingIntent.FLAG_UPDATE_CURRENT);
+        mContentIntent = PendingIntent.getActivity(context, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+
+        mLapIntent = createServiceIntent(context, Stopwatches.LAP_STOPWATCH);
+        mStopIntent = createServiceIntent(context, Stopwatches.STOP_STOPWATCH);
+        mStartIntent = createServiceIntent(context, Stopwatches.START_STOPWATCH);
+        mResetAndLaunchIntent = createServiceIntent(context,
+                Stopwatches.RESET_AND_LAUNCH_STOPWATCH);
+        mDismissIntent = createServiceIntent(context, Stopwatches.RESET_STOPWATCH);
+    }
+
+    private static PendingIntent createServiceIntent(Context context, String action) {
+        Intent intent = new Intent(context, StopwatchService.class);
+        intent.setAction(action);
+        return PendingIntent.getService(context, 0, intent, 0);
+    }
+
+    /**
+     * Show or save the notification for a state edge. Called only when the stopwatch is started,
+     * stopped or lapped; the running display is driven by the chronometer in the RemoteViews.
+     */
+    private void updateNotification(StopwatchNotificationState state, boolean show) {
+        if (show) {
+            setNotification(state);
+        } else {
+            saveNotification(state);
+        }
+    }
+
+    private void setNotification(StopwatchNotificationState state) {
+        if (state.equals(mPostedState)) {
+            // The chronometer is already showing this state, nothing to update.
+            return;
+        }
+        final Context context = getApplicationContext();
+        final long clockBaseTime = state.getClockBase(Utils.getTimeNow());
+        final boolean clockRunning = state.running;
+        final int numLaps = state.numLaps;
 
         // Set up remoteviews for the notification.
         RemoteViews remoteViewsCollapsed = new RemoteViews(getPackageName(),
                 R.layout.stopwatch_notif_collapsed);
-        remoteViewsCollapsed.setOnClickPendingIntent(R.id.swn_collapsed_hitspace, pendingIntent);
+        remoteViewsCollapsed.setOnClickPendingIntent(R.id.swn_collapsed_hitspace, mContentIntent);
         remoteViewsCollapsed.setChronometer(
                 R.id.swn_collapsed_chronometer, clockBaseTime, null, clockRunning);
         remoteViewsCollapsed.
                 setImageViewResource(R.id.notification_icon, R.drawable.stat_notify_stopwatch);
         RemoteViews remoteViewsExpanded = new RemoteViews(getPackageName(),
                 R.layout.stopwatch_notif_expanded);
-        remoteViewsExpanded.setOnClickPendingIntent(R.id.swn_expanded_hitspace, pendingIntent);
+        remoteViewsExpanded.setOnClickPendingIntent(R.id.swn_expanded_hitspace, mContentIntent);
         remoteViewsExpanded.setChronometer(
                 R.id.swn_expanded_chronometer, clockBaseTime, null, clockRunning);
         remoteViewsExpanded.
@@ -173,10 +214,7 @@ public class StopwatchService extends Service {
             // Left button: lap
             remoteViewsExpanded.setTextViewText(
                     R.id.swn_left_button, getResources().getText(R.string.sw_lap_button));
-            Intent leftButtonIntent = new Intent(context, StopwatchService.class);
-            leftButtonIntent.setAction(Stopwatches.LAP_STOPWATCH);
-            remoteViewsExpanded.setOnClickPendingIntent(R.id.swn_left_button,
-                    PendingIntent.getService(context, 0, leftButtonIntent, 0));
+            remoteViewsExpanded.setOnClickPendingIntent(R.id.swn_left_button, mLapIntent);
             remoteViewsExpanded.
                     setTextViewCompoundDrawablesRelative(R.id.swn_left_button,
                             R.drawable.ic_notify_lap, 0, 0, 0);
@@ -184,10 +222,7 @@ public class StopwatchService extends Service {
             // Right button: stop clock
             remoteViewsExpanded.setTextViewText(
                     R.id.swn_right_button, getResources().getText(R.string.sw_stop_button));
-            Intent rightButtonIntent = new Intent(context, StopwatchService.class);
-            rightButtonIntent.setAction(Stopwatches.STOP_STOPWATCH);
-            remoteViewsExpanded.setOnClickPendingIntent(R.id.swn_right_button,
-                    PendingIntent.getService(context, 0, rightButtonIntent, 0));
+            remoteViewsExpanded.setOnClickPendingIntent(R.id.swn_right_button, mStopIntent);
             remoteViewsExpanded.
                     setTextViewCompoundDrawablesRelative(R.id.swn_right_button,
                             R.drawable.ic_notify_stop, 0, 0, 0);
@@ -208,10 +243,8 @@ public class StopwatchService extends Service {
             // Left button: reset clock
             remoteViewsExpanded.setTextViewText(
                     R.id.swn_left_button, getResources().getText(R.string.sw_reset_button));
-            Intent leftButtonIntent = new Intent(context, StopwatchService.class);
-            leftButtonIntent.setAction(Stopwatches.RESET_AND_LAUNCH_STOPWATCH);
             remoteViewsExpanded.setOnClickPendingIntent(R.id.swn_left_button,
-                    PendingIntent.getService(context, 0, leftButtonIntent, 0));
+                    mResetAndLaunchIntent);
             remoteViewsExpanded.
                     setTextViewCompoundDrawablesRelative(R.id.swn_left_button,
                             R.drawable.ic_notify_reset, 0, 0, 0);
@@ -219,10 +252,7 @@ public class StopwatchService extends Service {
             // Right button: start clock
             remoteViewsExpanded.setTextViewText(
                     R.id.swn_right_button, getResources().getText(R.string.sw_start_button));
-            Intent rightButtonIntent = new Intent(context, StopwatchService.class);
-            rightButtonIntent.setAction(Stopwatches.START_STOPWATCH);
-            remoteViewsExpanded.setOnClickPendingIntent(R.id.swn_right_button,
-                    PendingIntent.getService(context, 0, rightButtonIntent, 0));
+            remoteViewsExpanded.setOnClickPendingIntent(R.id.swn_right_button, mStartIntent);
             remoteViewsExpanded.
                     setTextViewCompoundDrawablesRelative(R.id.swn_right_button,
                             R.drawable.ic_notify_start, 0, 0, 0);
@@ -236,36 +266,31 @@ public class StopwatchService extends Service {
             remoteViewsExpanded.setViewVisibility(R.id.swn_expanded_laps, View.VISIBLE);
         }
 
-        Intent dismissIntent = new Intent(context, StopwatchService.class);
-        dismissIntent.setAction(Stopwatches.RESET_STOPWATCH);
-
         Notification notification = new Notification.Builder(context)
                 .setAutoCancel(!clockRunning)
                 .setContent(remoteViewsCollapsed)
                 .setOngoing(clockRunning)
-                .setDeleteIntent(PendingIntent.getService(context, 0, dismissIntent, 0))
+                .setDeleteIntent(mDismissIntent)
                 .setSmallIcon(R.drawable.ic_tab_stopwatch_activated)
                 .setPriority(Notification.PRIORITY_MAX)
                 .setLocalOnly(true)
                 .build();
         notification.bigContentView = remoteViewsExpanded;
         mNotificationManager.notify(NOTIFICATION_ID, notification);
+        mPostedState = state;
+    }
+
+    private void cancelNotification() {
+        mNotificationManager.cancel(NOTIFICATION_ID);
+        mPostedState = null;
     }
 
     /** Save the notification to be shown when the app is closed. **/
-    private void saveNotification(long clockTime, boolean clockRunning, int numLaps) {
+    private void saveNotification(StopwatchNotificationState state) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
                 getApplicationContext());
         SharedPreferences.Editor editor = prefs.edit();
-        if (clockRunning) {
-            editor.putLong(Stopwatches.NOTIF_CLOCK_BASE, clockTime);
-            editor.putLong(Stopwatches.NOTIF_CLOCK_ELAPSED, -1);
-            editor.putBoolean(Stopwatches.NOTIF_CLOCK_RUNNING, true);
-        } else {
-            editor.putLong(Stopwatches.NOTIF_CLOCK_ELAPSED, clockTime);
-            editor.putLong(Stopwatches.NOTIF_CLOCK_BASE, -1);
-            editor.putBoolean(Stopwatches.NOTIF_CLOCK_RUNNING, false);
-        }
+        state.writeToPrefs(editor);
         editor.putBoolean(Stopwatches.PREF_UPDATE_CIRCLE, false);
         editor.apply();
     }
@@ -274,21 +299,14 @@ public class StopwatchService extends Service {
     private boolean showSavedNotification() {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
                 getApplicationContext());
-        long clockBaseTime = prefs.getLong(Stopwatches.NOTIF_CLOCK_BASE, -1);
-        long clockElapsedTime = prefs.getLong(Stopwatches.NOTIF_CLOCK_ELAPSED, -1);
-        boolean clockRunning = prefs.getBoolean(Stopwatches.NOTIF_CLOCK_RUNNING, false);
-        int numLaps = prefs.getInt(Stopwatches.PREF_LAP_NUM, -1);
-        if (clockBaseTime == -1) {
-            if (clockElapsedTime == -1) {
-                return false;
-            } else {
-                // We don't have a clock base time, so the clock is stopped.
-                // Use the elapsed time to figure out what time to show.
-                mElapsedTime = clockElapsedTime;
-                clockBaseTime = Utils.getTimeNow() - clockElapsedTime;
-            }
+        StopwatchNotificationState state = StopwatchNotificationState.readFromPrefs(prefs);
+        if (state == null) {
+            return false;
+        }
+        if (!state.running) {
+            mElapsedTime = state.elapsed;
         }
-        setNotification(clockBaseTime, clockRunning, numLaps);
+        setNotification(state);
         return true;
     }
 
@@ -296,9 +314,7 @@ public class StopwatchService extends Service {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
                 getApplicationContext());
         SharedPreferences.Editor editor = prefs.edit();
-        editor.remove(Stopwatches.NOTIF_CLOCK_BASE);
-        editor.remove(Stopwatches.NOTIF_CLOCK_RUNNING);
-        editor.remove(Stopwatches.NOTIF_CLOCK_ELAPSED);
+        StopwatchNotificationState.clearFromPrefs(editor);
         editor.apply();
     }
 
@@ -43,9 +43,7 @@ public class Stopwatches {
     public static final String PREF_LAP_NUM = "sw_lap_num";
     public static final String PREF_LAP_TIME = "sw_lap_time_";
     public static final String PREF_UPDATE_CIRCLE = "sw_update_circle";
-    public static final String NOTIF_CLOCK_BASE = "notif_clock_base";
-    public static final String NOTIF_CLOCK_ELAPSED = "notif_clock_elapsed";
-    public static final String NOTIF_CLOCK_RUNNING = "notif_clock_running";
+    public static final String NOTIF_CLOCK_STATE = "notif_clock_state";
     public static final String KEY = "sw";
 
     public static final int STOPWATCH_RESET = 0;
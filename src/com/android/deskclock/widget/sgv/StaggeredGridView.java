@@ -32,7 +32,6 @@ import android.graphics.Rect;
 import android.os.Handler;
 import android.os.Parcel;
 import android.os.Parcelable;
-import android.support.v4.util.SparseArrayCompat;
 import android.support.v4.view.MotionEventCompat;
 import android.support.v4.view.VelocityTrackerCompat;
 import android.support.v4.view.ViewCompat;
@@ -277,71 +276,213 @@ public class StaggeredGridView extends ViewGroup {
      */
     private boolean mSmoothScrollbarEnabled = false;
 
-    private static final class LayoutRecord {
-        public int column;
-        public long id = -1;
-        public int height;
-        public int span;
-        private int[] mMargins;
+    /**
+     * Layout records for all adapter positions, held as parallel primitive arrays indexed by
+     * position rather than as one object per position. Margins are kept per column of an item's
+     * span, above then below, in a block of {@code 2 * mMaxSpan} ints per position.
+     *
+     * A position holds a record if its generation matches the current one, so clearing all
+     * records is O(1), and creating or updating a record doesn't allocate once the arrays have
+     * grown to the adapter's size.
+     */
+    private static final class LayoutRecords {
+        private static final int INITIAL_CAPACITY = 64;
 
-        private final void ensureMargins() {
-            if (mMargins == null) {
-                // Don't need to confirm length;
-                // all layoutrecords are purged when column count changes.
-                mMargins = new int[span * 2];
-            }
+        private final LayoutStats mStats;
+
+        private int[] mGeneration = new int[0];
+        private int[] mColumn = new int[0];
+        private int[] mHeight = new int[0];
+        private int[] mSpan = new int[0];
+        private long[] mId = new long[0];
+        private int[] mMargins = new int[0];
+        private int mMaxSpan = 1;
+
+        private int mCurrentGeneration = 1;
+        // Bounds of the positions that may hold a record, to keep range removals short.
+        private int mLowest = Integer.MAX_VALUE;
+        private int mHighest = -1;
+
+        LayoutRecords(LayoutStats stats) {
+            mStats = stats;
+        }
+
+        boolean has(int position) {
+            return position >= 0 && position < mGeneration.length
+                    && mGeneration[position] == mCurrentGeneration;
+        }
+
+        /**
+         * Creates a record for the given position with no column, height or margins, replacing
+         * any existing one.
+         */
+        void create(int position, int span) {
+            ensureCapacity(position + 1);
+            ensureMaxSpan(span);
+            mGeneration[position] = mCurrentGeneration;
+            mColumn[position] = 0;
+            mHeight[position] = 0;
+            mSpan[position] = span;
+            mId[position] = -1;
+            final int margins = position * mMaxSpan * 2;
+            Arrays.fill(mMargins, margins, margins + mMaxSpan * 2, 0);
+            mLowest = Math.min(mLowest, position);
+            mHighest = Math.max(mHighest, position);
+            mStats.recordsCreated++;
+        }
+
+        int getColumn(int position) {
+            return mColumn[position];
         }
 
-        public final int getMarginAbove(int col) {
-            if (mMargins == null) {
-                return 0;
+        void setColumn(int position, int column) {
+            mColumn[position] = column;
+        }
+
+        int getHeight(int position) {
+            return mHeight[position];
+        }
+
+        void setHeight(int position, int height) {
+            mHeight[position] = height;
+        }
+
+        int getSpan(int position) {
+            return mSpan[position];
+        }
+
+        void setSpan(int position, int span) {
+            ensureMaxSpan(span);
+            mSpan[position] = span;
+        }
+
+        long getId(int position) {
+            return mId[position];
+        }
+
+        void setId(int position, long id) {
+            mId[position] = id;
+        }
+
+        int getMarginAbove(int position, int col) {
+            return mMargins[(position * mMaxSpan + col) * 2];
+        }
+
+        int getMarginBelow(int position, int col) {
+            return mMargins[(position * mMaxSpan + col) * 2 + 1];
+        }
+
+        void setMarginAbove(int position, int col, int margin) {
+            mMargins[(position * mMaxSpan + col) * 2] = margin;
+        }
+
+        void setMarginBelow(int position, int col, int margin) {
+            mMargins[(position * mMaxSpan + col) * 2 + 1] = margin;
+        }
+
+        void clear() {
+            if (++mCurrentGeneration == Integer.MAX_VALUE) {
+                Arrays.fill(mGeneration, 0);
+                mCurrentGeneration = 1;
             }
-            return mMargins[col * 2];
+            mLowest = Integer.MAX_VALUE;
+            mHighest = -1;
         }
 
-        public final int getMarginBelow(int col) {
-            if (mMargins == null) {
-                return 0;
+        /**
+         * Removes the records of all positions before the given one.
+         */
+        void removeBefore(int position) {
+            final int end = Math.min(position, mHighest + 1);
+            if (mLowest < end) {
+                Arrays.fill(mGeneration, mLowest, end, 0);
             }
-            return mMargins[col * 2 + 1];
+            mLowest = Math.max(mLowest, position);
         }
 
-        public final void setMarginAbove(int col, int margin) {
-            if (mMargins == null && margin == 0) {
-                return;
+        /**
+         * Removes the records of all positions after the given one.
+         */
+        void removeAfter(int position) {
+            final int start = Math.max(position + 1, mLowest);
+            if (start <= mHighest) {
+                Arrays.fill(mGeneration, start, mHighest + 1, 0);
             }
-            ensureMargins();
-            mMargins[col * 2] = margin;
+            mHighest = Math.min(mHighest, position);
         }
 
-        public final void setMarginBelow(int col, int margin) {
-            if (mMargins == null && margin == 0) {
+        private void ensureCapacity(int capacity) {
+            final int current = mGeneration.length;
+            if (capacity <= current) {
                 return;
             }
-            ensureMargins();
-            mMargins[col * 2 + 1] = margin;
+            final int newCapacity = Math.max(capacity, Math.max(INITIAL_CAPACITY, current * 2));
+            mGeneration = Arrays.copyOf(mGeneration, newCapacity);
+            mColumn = Arrays.copyOf(mColumn, newCapacity);
+            mHeight = Arrays.copyOf(mHeight, newCapacity);
+            mSpan = Arrays.copyOf(mSpan, newCapacity);
+            mId = Arrays.copyOf(mId, newCapacity);
+            mMargins = Arrays.copyOf(mMargins, newCapacity * mMaxSpan * 2);
+            mStats.recordStoreResizes++;
         }
 
-        @Override
-        public String toString() {
-            String result = "LayoutRecord{c=" + column + ", id=" + id + " h=" + height +
-                    " s=" + span;
-            if (mMargins != null) {
-                result += " margins[above, below](";
-                for (int i = 0; i < mMargins.length; i += 2) {
-                    result += "[" + mMargins[i] + ", " + mMargins[i+1] + "]";
-                }
-                result += ")";
+        /**
+         * Widens the per-position margin blocks to hold at least {@code span} columns.
+         */
+        private void ensureMaxSpan(int span) {
+            if (span <= mMaxSpan) {
+                return;
+            }
+            final int capacity = mGeneration.length;
+            final int[] margins = new int[capacity * span * 2];
+            for (int position = 0; position < capacity; position++) {
+                System.arraycopy(mMargins, position * mMaxSpan * 2, margins, position * span * 2,
+                        mMaxSpan * 2);
             }
-            return result + "}";
+            mMargins = margins;
+            mMaxSpan = span;
+            mStats.recordStoreResizes++;
         }
     }
 
     private final Map<Long, ViewRectPair> mChildRectsForAnimation =
             new HashMap<Long, ViewRectPair>();
 
-    private final SparseArrayCompat<LayoutRecord> mLayoutRecords =
-            new SparseArrayCompat<LayoutRecord>();
+    private final LayoutStats mLayoutStats = new LayoutStats();
+
+    private final LayoutRecords mLayoutRecords = new LayoutRecords(mLayoutStats);
+
+    /**
+     * Counters describing the work done by this view, for benchmarks and debugging.
+     * See {@link #getLayoutStats()}.
+     */
+    public static final class LayoutStats {
+        /** Number of layout passes that populated the grid. */
+        public int layoutPasses;
+        /** Number of views obtained from the scrap heap. */
+        public int scrapHits;
+        /** Number of times the scrap heap had no view of the requested type. */
+        public int scrapMisses;
+        /** Number of layout records created or replaced. */
+        public int recordsCreated;
+        /** Number of times the layout record arrays had to grow. */
+        public int recordStoreResizes;
+
+        public void reset() {
+            layoutPasses = 0;
+            scrapHits = 0;
+            scrapMisses = 0;
+            recordsCreated = 0;
+            recordStoreResizes = 0;
+        }
+
+        @Override
+        public String toString() {
+            return "LayoutStats{layoutPasses=" + layoutPasses + " scrapHits=" + scrapHits
+                    + " scrapMisses=" + scrapMisses + " recordsCreated=" + recordsCreated
+                    + " recordStoreResizes=" + recordStoreResizes + "}";
+        }
+    }
 
     // Handler for executing the scroll runnable
     private Handler mScrollHandler;
@@ -1296,13 +1437,13 @@ public class StaggeredGridView extends ViewGroup {
                 final LayoutParams lp = (LayoutParams) child.getLayoutParams();
                 final int top = child.getTop() - mItemMargin;
                 final int bottom = child.getBottom();
-                LayoutRecord rec = mLayoutRecords.get(mFirstPosition + i);
+                final int position = mFirstPosition + i;
 
-                // It's possible the layout record could be null for visible views because
+                // It's possible the layout record could be missing for visible views because
                 // they are cleared between adapter data set changes, but the views are left
                 // attached for the purpose of animations. Hence, populate the layout record again.
-                if (rec == null) {
-                    rec = recreateLayoutRecord(mFirstPosition + i, child, lp);
+                if (!mLayoutRecords.has(position)) {
+                    recreateLayoutRecord(position, child, lp);
                 }
 
                 // In LTR layout, iterate across each column that this child is laid out in,
@@ -1314,8 +1455,9 @@ public class StaggeredGridView extends ViewGroup {
                 for (int spanIndex = 0; spanIndex < span; spanIndex++) {
                     final int col = mIsRtlLayout ? lp.column - spanIndex :
                             lp.column + spanIndex;
-                    final int colTop = top - rec.getMarginAbove(spanIndex);
-                    final int colBottom = bottom + rec.getMarginBelow(spanIndex);
+                    final int colTop = top - mLayoutRecords.getMarginAbove(position, spanIndex);
+                    final int colBottom =
+                            bottom + mLayoutRecords.getMarginBelow(position, spanIndex);
                     if (colTop < mItemTops[col]) {
                         mItemTops[col] = colTop;
                     }
@@ -1338,14 +1480,11 @@ public class StaggeredGridView extends ViewGroup {
         mCurrentScrollState = getScrollState();
     }
 
-    private LayoutRecord recreateLayoutRecord(int position, View child, LayoutParams lp) {
-        final LayoutRecord rec = new LayoutRecord();
-        mLayoutRecords.put(position, rec);
-        rec.column = lp.column;
-        rec.height = child.getHeight();
-        rec.id = lp.id;
-        rec.span = Math.min(mColCount, lp.span);
-        return rec;
+    private void recreateLayoutRecord(int position, View child, LayoutParams lp) {
+        mLayoutRecords.create(position, Math.min(mColCount, lp.span));
+        mLayoutRecords.setColumn(position, lp.column);
+        mLayoutRecords.setHeight(position, child.getHeight());
+        mLayoutRecords.setId(position, lp.id);
     }
 
     @Override
@@ -1568,6 +1707,7 @@ public class StaggeredGridView extends ViewGroup {
         mIsRtlLayout = isLayoutRtl();
 
         mInLayout = true;
+        mLayoutStats.layoutPasses++;
         populate();
         mInLayout = false;
         final int width = r - l;
@@ -2064,7 +2204,7 @@ public class StaggeredGridView extends ViewGroup {
     }
 
     /**
-     * Calculate and cache the {@link LayoutRecord}s for all positions up to mFirstPosition.
+     * Calculate and cache the layout records for all positions up to mFirstPosition.
      * mFirstPosition is the position that layout will start from, but we need to know where all
      * views preceding it will be laid out so that mFirstPosition will be laid out at the correct
      * position.  If this is not done, mFirstPosition will be laid out at the first empty space
@@ -2098,7 +2238,7 @@ public class StaggeredGridView extends ViewGroup {
         Arrays.fill(mItemBottoms, getPaddingTop());
 
         // Since we will be doing a pass to calculate all views up to mFirstPosition, it is likely
-        // that all existing {@link LayoutRecord}s will be stale, so clear it out to avoid
+        // that all existing layout records will be stale, so clear it out to avoid
         // accidentally the re-use of stale values.
         //
         // Note: We cannot just invalidate all layout records after mFirstPosition because it is
@@ -2109,9 +2249,7 @@ public class StaggeredGridView extends ViewGroup {
         }
 
         for (int i = 0; i < mFirstPosition; i++) {
-            LayoutRecord rec = mLayoutRecords.get(i);
-
-            if (mDataChanged || rec == null) {
+            if (mDataChanged || !mLayoutRecords.has(i)) {
                 final View view = obtainView(i, null);
                 final LayoutParams lp = (LayoutParams) view.getLayoutParams();
 
@@ -2129,35 +2267,35 @@ public class StaggeredGridView extends ViewGroup {
                 view.measure(widthSpec, heightSpec);
                 final int height = view.getMeasuredHeight();
 
-                if (rec == null) {
-                    rec = new LayoutRecord();
-                    mLayoutRecords.put(i, rec);
+                if (!mLayoutRecords.has(i)) {
+                    mLayoutRecords.create(i, span);
+                } else {
+                    mLayoutRecords.setSpan(i, span);
                 }
-
-                rec.height = height;
-                rec.id = lp.id;
-                rec.span = span;
+                mLayoutRecords.setHeight(i, height);
+                mLayoutRecords.setId(i, lp.id);
 
                 // We're not actually using this view, so add this back to the recycler.
                 mRecycler.addScrap(view);
             }
 
             int nextColumn = getNextColumnDown();
+            final int span = mLayoutRecords.getSpan(i);
 
             // Given the span, check if there's enough space to put this view at this column.
             // IMPORTANT Use the same logic in {@link #layoutChildren}.
-            if (rec.span > 1) {
+            if (span > 1) {
                 if (mIsRtlLayout) {
-                    if (nextColumn + 1 < rec.span) {
+                    if (nextColumn + 1 < span) {
                         nextColumn = mColCount - 1;
                     }
                 } else {
-                    if (mColCount - nextColumn < rec.span) {
+                    if (mColCount - nextColumn < span) {
                         nextColumn = 0;
                     }
                 }
             }
-            rec.column = nextColumn;
+            mLayoutRecords.setColumn(i, nextColumn);
 
             // Place the top of this child beneath the last by finding the lowest coordinate across
             // the columns that this child will span.  For LTR layout, we scan across from left to
@@ -2166,8 +2304,8 @@ public class StaggeredGridView extends ViewGroup {
             // already calculates the margins for us.  This will keep the implementation consistent
             // with layoutChildren(), fillUp() and fillDown().
             int lowest = mItemBottoms[nextColumn] + mItemMargin;
-            if (rec.span > 1) {
-                for (int spanIndex = 0; spanIndex < rec.span; spanIndex++) {
+            if (span > 1) {
+                for (int spanIndex = 0; spanIndex < span; spanIndex++) {
                     final int index = mIsRtlLayout ? nextColumn - spanIndex :
                             nextColumn + spanIndex;
                     final int bottom = mItemBottoms[index] + mItemMargin;
@@ -2177,9 +2315,10 @@ public class StaggeredGridView extends ViewGroup {
                 }
             }
 
-            for (int spanIndex = 0; spanIndex < rec.span; spanIndex++) {
+            final int height = mLayoutRecords.getHeight(i);
+            for (int spanIndex = 0; spanIndex < span; spanIndex++) {
                 final int col = mIsRtlLayout ? nextColumn - spanIndex : nextColumn + spanIndex;
-                mItemBottoms[col] = lowest + rec.height;
+                mItemBottoms[col] = lowest + height;
 
                 if (Log.isLoggable(TAG, Log.VERBOSE)) {
                     Log.v(TAG, " position: " + i + " bottoms: ");
@@ -2424,16 +2563,14 @@ public class StaggeredGridView extends ViewGroup {
             // that all views before those on screen (views with adapter position < mFirstPosition)
             // have the correct LayoutRecords because calculateLayoutStartOffsets() would have
             // set them appropriately.
-            LayoutRecord rec = mLayoutRecords.get(position);
-            if (rec == null) {
-                rec = new LayoutRecord();
-                mLayoutRecords.put(position, rec);
+            if (!mLayoutRecords.has(position)) {
+                mLayoutRecords.create(position, span);
+            } else {
+                mLayoutRecords.setSpan(position, span);
             }
-
-            rec.column = lp.column;
-            rec.height = childHeight;
-            rec.id = lp.id;
-            rec.span = span;
+            mLayoutRecords.setColumn(position, lp.column);
+            mLayoutRecords.setHeight(position, childHeight);
+            mLayoutRecords.setId(position, lp.id);
         }
 
         // It appears that removeViewInLayout() does not invalidate.  So if we make use of this
@@ -2453,20 +2590,19 @@ public class StaggeredGridView extends ViewGroup {
     }
 
     final void invalidateLayoutRecordsBeforePosition(int position) {
-        int endAt = 0;
-        while (endAt < mLayoutRecords.size() && mLayoutRecords.keyAt(endAt) < position) {
-            endAt++;
-        }
-        mLayoutRecords.removeAtRange(0, endAt);
+        mLayoutRecords.removeBefore(position);
     }
 
     final void invalidateLayoutRecordsAfterPosition(int position) {
-        int beginAt = mLayoutRecords.size() - 1;
-        while (beginAt >= 0 && mLayoutRecords.keyAt(beginAt) > position) {
-            beginAt--;
-        }
-        beginAt++;
-        mLayoutRecords.removeAtRange(beginAt + 1, mLayoutRecords.size() - beginAt);
+        mLayoutRecords.removeAfter(position);
+    }
+
+    /**
+     * Returns the live counters of work done by this view. Used by benchmarks; the returned
+     * object is updated in place and may be cleared with {@link LayoutStats#reset()}.
+     */
+    public LayoutStats getLayoutStats() {
+        return mLayoutStats;
     }
 
     /**
@@ -2542,30 +2678,24 @@ public class StaggeredGridView extends ViewGroup {
 
             final int span = Math.min(mColCount, lp.span);
 
-            LayoutRecord rec;
             if (span > 1) {
-                rec = getNextRecordUp(position, span);
-                nextCol = rec.column;
-            } else {
-                rec = mLayoutRecords.get(position);
+                nextCol = getNextRecordUp(position, span);
             }
 
             boolean invalidateBefore = false;
-            if (rec == null) {
-                rec = new LayoutRecord();
-                mLayoutRecords.put(position, rec);
-                rec.column = nextCol;
-                rec.span = span;
-            } else if (span != rec.span) {
-                rec.span = span;
-                rec.column = nextCol;
+            if (!mLayoutRecords.has(position)) {
+                mLayoutRecords.create(position, span);
+                mLayoutRecords.setColumn(position, nextCol);
+            } else if (span != mLayoutRecords.getSpan(position)) {
+                mLayoutRecords.setSpan(position, span);
+                mLayoutRecords.setColumn(position, nextCol);
                 invalidateBefore = true;
             } else {
-                nextCol = rec.column;
+                nextCol = mLayoutRecords.getColumn(position);
             }
 
             if (mHasStableIds) {
-                rec.id = lp.id;
+                mLayoutRecords.setId(position, lp.id);
             }
 
             lp.column = nextCol;
@@ -2589,10 +2719,11 @@ public class StaggeredGridView extends ViewGroup {
             child.measure(widthSpec, heightSpec);
 
             final int childHeight = child.getMeasuredHeight();
-            if (invalidateBefore || (childHeight != rec.height && rec.height > 0)) {
+            final int recordHeight = mLayoutRecords.getHeight(position);
+            if (invalidateBefore || (childHeight != recordHeight && recordHeight > 0)) {
                 invalidateLayoutRecordsBeforePosition(position);
             }
-            rec.height = childHeight;
+            mLayoutRecords.setHeight(position, childHeight);
 
             // Iterate across each column that this child spans and add the margin calculated
             // for that column to mItemTops.  getMarginBelow() is expected to give us the correct
@@ -2603,7 +2734,7 @@ public class StaggeredGridView extends ViewGroup {
             // in reverse order.
             for (int i = 0; i < span; i++) {
                 final int index = mIsRtlLayout ? nextCol - i : nextCol + i;
-                mItemTops[index] += rec.getMarginBelow(i);
+                mItemTops[index] += mLayoutRecords.getMarginBelow(position, i);
             }
 
             final int startFrom = mItemTops[nextCol];
@@ -2629,7 +2760,7 @@ public class StaggeredGridView extends ViewGroup {
 
             Log.v(TAG, "[fillUp] position: " + position + " id: " + lp.id
                     + " childLeft: " + childLeft + " childTop: " + childTop
-                    + " column: " + rec.column + " childHeight:" + childHeight);
+                    + " column: " + nextCol + " childHeight:" + childHeight);
 
             // Since we're filling up, once the child is laid out, update mItemTops again
             // to reflect the next available top value at this column.  This is simply the child's
@@ -2638,7 +2769,8 @@ public class StaggeredGridView extends ViewGroup {
             // layout, we start at the column that this child is laid out from and move left.
             for (int i = 0; i < span; i++) {
                 final int index = mIsRtlLayout ? nextCol - i : nextCol + i;
-                mItemTops[index] = childTop - rec.getMarginAbove(i) - itemMargin;
+                mItemTops[index] =
+                        childTop - mLayoutRecords.getMarginAbove(position, i) - itemMargin;
             }
 
             if (lp.id == mFocusedChildIdToScrollIntoView) {
@@ -2693,30 +2825,24 @@ public class StaggeredGridView extends ViewGroup {
 
             final int span = Math.min(mColCount, lp.span);
 
-            LayoutRecord rec;
             if (span > 1) {
-                rec = getNextRecordDown(position, span);
-                nextCol = rec.column;
-            } else {
-                rec = mLayoutRecords.get(position);
+                nextCol = getNextRecordDown(position, span);
             }
 
             boolean invalidateAfter = false;
-            if (rec == null) {
-                rec = new LayoutRecord();
-                mLayoutRecords.put(position, rec);
-                rec.column = nextCol;
-                rec.span = span;
-            } else if (span != rec.span) {
-                rec.span = span;
-                rec.column = nextCol;
+            if (!mLayoutRecords.has(position)) {
+                mLayoutRecords.create(position, span);
+                mLayoutRecords.setColumn(position, nextCol);
+            } else if (span != mLayoutRecords.getSpan(position)) {
+                mLayoutRecords.setSpan(position, span);
+                mLayoutRecords.setColumn(position, nextCol);
                 invalidateAfter = true;
             } else {
-                nextCol = rec.column;
+                nextCol = mLayoutRecords.getColumn(position);
             }
 
             if (mHasStableIds) {
-                rec.id = lp.id;
+                mLayoutRecords.setId(position, lp.id);
             }
 
             lp.column = nextCol;
@@ -2741,11 +2867,12 @@ public class StaggeredGridView extends ViewGroup {
             child.measure(widthSpec, heightSpec);
 
             final int childHeight = child.getMeasuredHeight();
-            if (invalidateAfter || (childHeight != rec.height && rec.height > 0)) {
+            final int recordHeight = mLayoutRecords.getHeight(position);
+            if (invalidateAfter || (childHeight != recordHeight && recordHeight > 0)) {
                 invalidateLayoutRecordsAfterPosition(position);
             }
 
-            rec.height = childHeight;
+            mLayoutRecords.setHeight(position, childHeight);
 
             // Before laying out the child, we need to make sure mItemBottoms is updated with the
             // correct values such that there is a smooth edge across the child's span.
@@ -2754,7 +2881,7 @@ public class StaggeredGridView extends ViewGroup {
             // layout, we start at nextCol and update backwards for the same number of columns.
             for (int i = 0; i < span; i++) {
                 final int index = mIsRtlLayout ? nextCol - i : nextCol + i;
-                mItemBottoms[index] += rec.getMarginAbove(i);
+                mItemBottoms[index] += mLayoutRecords.getMarginAbove(position, i);
             }
 
             final int startFrom = mItemBottoms[nextCol];
@@ -2773,7 +2900,7 @@ public class StaggeredGridView extends ViewGroup {
 
             Log.v(TAG, "[fillDown] position: " + position + " id: " + lp.id
                     + " childLeft: " + childLeft + " childTop: " + childTop
-                    + " column: " + rec.column + " childHeight:" + childHeight);
+                    + " column: " + nextCol + " childHeight:" + childHeight);
 
             child.layout(childLeft, childTop, childRight, childBottom);
 
@@ -2781,7 +2908,7 @@ public class StaggeredGridView extends ViewGroup {
             // available set of bottom values for the next child.
             for (int i = 0; i < span; i++) {
                 final int index = mIsRtlLayout ? nextCol - i : nextCol + i;
-                mItemBottoms[index] = childBottom + rec.getMarginBelow(i);
+                mItemBottoms[index] = childBottom + mLayoutRecords.getMarginBelow(position, i);
             }
 
             if (lp.id == mFocusedChildIdToScrollIntoView) {
@@ -2825,21 +2952,18 @@ public class StaggeredGridView extends ViewGroup {
     }
 
     /**
-     * Return a LayoutRecord for the given position
+     * Update the layout record for the given position, filling up
      * @param position
      * @param span
-     * @return
+     * @return the column of the record
      */
-    final LayoutRecord getNextRecordUp(int position, int span) {
-        LayoutRecord rec = mLayoutRecords.get(position);
-        if (rec == null || rec.span != span) {
+    final int getNextRecordUp(int position, int span) {
+        if (!mLayoutRecords.has(position) || mLayoutRecords.getSpan(position) != span) {
             if (span > mColCount) {
                 throw new IllegalStateException("Span larger than column count! Span:" + span
                         + " ColumnCount:" + mColCount);
             }
-            rec = new LayoutRecord();
-            rec.span = span;
-            mLayoutRecords.put(position, rec);
+            mLayoutRecords.create(position, span);
         }
         int targetCol = -1;
         int bottomMost = Integer.MIN_VALUE;
@@ -2877,7 +3001,7 @@ public class StaggeredGridView extends ViewGroup {
             }
         }
 
-        rec.column = targetCol;
+        mLayoutRecords.setColumn(position, targetCol);
 
         // Once we've found the target column for the view at this position, we update mItemTops
         // for all columns that this view will occupy.  We set the margin such that mItemTops is
@@ -2885,10 +3009,10 @@ public class StaggeredGridView extends ViewGroup {
         // move right, and for RTL, we start at targetCol and move left.
         for (int i = 0; i < span; i++) {
             final int nextCol = mIsRtlLayout ? targetCol - i : targetCol + i;
-            rec.setMarginBelow(i, mItemTops[nextCol] - bottomMost);
+            mLayoutRecords.setMarginBelow(position, i, mItemTops[nextCol] - bottomMost);
         }
 
-        return rec;
+        return targetCol;
     }
 
     /**
@@ -2912,17 +3036,13 @@ public class StaggeredGridView extends ViewGroup {
         return result;
     }
 
-    final LayoutRecord getNextRecordDown(int position, int span) {
-        LayoutRecord rec = mLayoutRecords.get(position);
-        if (rec == null || rec.span != span) {
+    final int getNextRecordDown(int position, int span) {
+        if (!mLayoutRecords.has(position) || mLayoutRecords.getSpan(position) != span) {
             if (span > mColCount) {
                 throw new IllegalStateException("Span larger than column count! Span:" + span
                         + " ColumnCount:" + mColCount);
             }
-
-            rec = new LayoutRecord();
-            rec.span = span;
-            mLayoutRecords.put(position, rec);
+            mLayoutRecords.create(position, span);
         }
 
         int targetCol = -1;
@@ -2963,7 +3083,7 @@ public class StaggeredGridView extends ViewGroup {
             }
         }
 
-        rec.column = targetCol;
+        mLayoutRecords.setColumn(position, targetCol);
 
         // Once we've found the target column for the view at this position, we update mItemBottoms
         // for all columns that this view will occupy.  We set the margins such that mItemBottoms
@@ -2971,10 +3091,10 @@ public class StaggeredGridView extends ViewGroup {
         // move right, and for RTL, we start at targetCol and move left.
         for (int i = 0; i < span; i++) {
             final int nextCol = mIsRtlLayout ? targetCol - i : targetCol + i;
-            rec.setMarginAbove(i, topMost - mItemBottoms[nextCol]);
+            mLayoutRecords.setMarginAbove(position, i, topMost - mItemBottoms[nextCol]);
         }
 
-        return rec;
+        return targetCol;
     }
 
     private int getItemWidth(int itemColumnSpan) {
@@ -3844,12 +3964,14 @@ public class StaggeredGridView extends ViewGroup {
         public View getScrapView(int type) {
             final ArrayList<View> scrap = mScrapViews[type];
             if (scrap.isEmpty()) {
+                mLayoutStats.scrapMisses++;
                 return null;
             }
 
             final int index = scrap.size() - 1;
             final View result = scrap.remove(index);
 
+            mLayoutStats.scrapHits++;
             return result;
         }
 
@@ -16,59 +16,315 @@
 
 package com.android.deskclock.worldclock;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
+import android.database.ContentObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
 import android.util.Log;
 
-import java.util.Collection;
+import com.android.deskclock.AsyncHandler;
+import com.android.deskclock.LogUtils;
+import com.android.deskclock.provider.City;
+import com.android.deskclock.provider.ClockContract;
+
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Access to the user's selected cities, which are stored in the selected_cities table of
+ * {@link com.android.deskclock.provider.ClockProvider}. Reads are served from an immutable
+ * in-memory {@link Snapshot} shared by all callers. Saving publishes a new snapshot; the current
+ * one is dropped whenever the provider reports a change to the cities uri that wasn't made by
+ * {@link #saveCities}.
+ */
 public class Cities {
 
     public static final String WORLDCLOCK_UPDATE_INTENT = "com.android.deskclock.worldclock.update";
+
+    // Legacy key: selected cities used to be stored as count-indexed shared preferences.
     private static final String NUMBER_OF_CITIES = "number_of_cities";
 
-    public static void saveCitiesToSharedPrefs(
-            SharedPreferences prefs, HashMap<String, CityObj> cities) {
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putInt(NUMBER_OF_CITIES, cities.size());
-        Collection<CityObj> col = cities.values();
-        Iterator<CityObj> i = col.iterator();
-        int count = 0;
-        while (i.hasNext()) {
-            CityObj c = i.next();
-            c.saveCityToSharedPrefs(editor, count);
-            count++;
-        }
-        editor.apply();
+    private static final Object sLock = new Object();
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    // The selected cities, or null if they need to be (re)loaded from the provider.
+    private static Snapshot sSnapshot;
+    // Number of batches posted by saveCities() that have not been applied yet. While writes are
+    // pending the cached cities are newer than the database and must not be dropped.
+    private static int sPendingWrites;
+    // Number of change notifications caused by our own batches that have not arrived yet. The
+    // provider sends one per batch, on a binder thread and in no fixed order with the batch
+    // returning, so they are counted rather than matched against sPendingWrites.
+    private static int sOwnNotifications;
+    // Set when another writer changed the cities while our writes were pending; the snapshot is
+    // dropped once they have been applied.
+    private static boolean sStaleAfterWrites;
+    // Incremented whenever the selected cities may have changed.
+    private static int sVersion;
+    private static ContentObserver sObserver;
+
+    /**
+     * An immutable view of the selected cities. A new snapshot with a higher version is published
+     * whenever the selection may have changed, so consumers can keep the version of the snapshot
+     * they last used and skip work while it is unchanged.
+     */
+    public static final class Snapshot {
+        public final int version;
+        /** Read-only map of the selected cities by id. The cities must not be modified. */
+        public final Map<String, CityObj> cities;
+
+        private Snapshot(int version, HashMap<String, CityObj> cities) {
+            this.version = version;
+            this.cities = Collections.unmodifiableMap(cities);
+        }
+    }
+
+    /**
+     * Returns the current snapshot of the selected cities, loading it from the provider if
+     * needed. May be called on any thread.
+     */
+    public static Snapshot getSnapshot(Context context) {
+        synchronized (sLock) {
+            return getSelectedCities(context);
+        }
+    }
+
+    /**
+     * Returns a new map of the selected cities keyed by city id. The map and its cities belong to
+     * the caller, which may modify them and pass them to {@link #saveCities}.
+     */
+    public static HashMap<String, CityObj> readCities(Context context) {
+        return copyOf(getSnapshot(context).cities);
+    }
+
+    /** Receives the selected cities read by {@link #readCitiesAsync}. */
+    public interface OnCitiesReadListener {
+        /** Called on the main thread with a map the listener may modify, as by readCities. */
+        void onCitiesRead(HashMap<String, CityObj> cities);
     }
 
-    public static  HashMap<String, CityObj> readCitiesFromSharedPrefs(SharedPreferences prefs) {
-        int size = prefs.getInt(NUMBER_OF_CITIES, -1);
-        HashMap<String, CityObj> c = new HashMap<String, CityObj>();
-        if (size > 0) {
-            for (int i = 0; i < size; i++) {
-                CityObj o = new CityObj(prefs, i);
-                if (o.mCityName != null && o.mTimeZone != null) {
-                    c.put(o.mCityId, o);
+    /**
+     * Like {@link #readCities}, but never loads the cities on the calling thread. If they are
+     * loaded already the listener is called right away; otherwise they are loaded on
+     * {@link AsyncHandler} and the listener is called on the main thread afterwards. Must be
+     * called on the main thread.
+     */
+    public static void readCitiesAsync(Context context, final OnCitiesReadListener listener) {
+        synchronized (sLock) {
+            if (sSnapshot != null) {
+                listener.onCitiesRead(copyOf(sSnapshot.cities));
+                return;
+            }
+        }
+        final Context appContext = context.getApplicationContext();
+        AsyncHandler.post(AsyncHandler.LANE_DEFAULT, "readCities", new Runnable() {
+            @Override
+            public void run() {
+                final HashMap<String, CityObj> cities = readCities(appContext);
+                sMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onCitiesRead(cities);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Saves the selected cities. A new snapshot is published immediately; the provider is
+     * updated in the background with a single batch that only inserts and deletes the cities
+     * that changed.
+     *
+     * @return true if the selection changed
+     */
+    public static boolean saveCities(Context context, HashMap<String, CityObj> cities) {
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        synchronized (sLock) {
+            final Map<String, CityObj> current = getSelectedCities(context).cities;
+            for (String cityId : current.keySet()) {
+                if (!cities.containsKey(cityId)) {
+                    operations.add(ContentProviderOperation
+                            .newDelete(City.getContentUriForId(cityId)).build());
                 }
             }
+            for (CityObj city : cities.values()) {
+                if (city.mCityId == null) {
+                    continue;
+                }
+                final CityObj old = current.get(city.mCityId);
+                if (old == null || !TextUtils.equals(old.mCityName, city.mCityName)
+                        || !TextUtils.equals(old.mTimeZone, city.mTimeZone)) {
+                    operations.add(newInsert(city));
+                }
+            }
+            if (operations.isEmpty()) {
+                return false;
+            }
+            sVersion++;
+            sSnapshot = new Snapshot(sVersion, copyOf(cities));
+            sPendingWrites++;
+            sOwnNotifications++;
         }
-        return c;
+
+        final ContentResolver cr = context.getApplicationContext().getContentResolver();
+        AsyncHandler.post(AsyncHandler.LANE_DEFAULT, "saveCities", new Runnable() {
+            @Override
+            public void run() {
+                final boolean applied = applyBatch(cr, operations);
+                synchronized (sLock) {
+                    sPendingWrites--;
+                    if (!applied) {
+                        // The database doesn't hold what the snapshot shows.
+                        sOwnNotifications = Math.max(0, sOwnNotifications - 1);
+                        sStaleAfterWrites = true;
+                    }
+                    if (sStaleAfterWrites && sPendingWrites == 0) {
+                        sStaleAfterWrites = false;
+                        sSnapshot = null;
+                        sVersion++;
+                    }
+                }
+            }
+        });
+        return true;
     }
 
-    private static void dumpCities(SharedPreferences prefs, String title) {
-        int size = prefs.getInt(NUMBER_OF_CITIES, -1);
-        Log.d("Cities", "Selected Cities List " + title);
-        Log.d("Cities", "Number of cities " + size);
-        HashMap<String, CityObj> c = new HashMap<String, CityObj>();
-        if (size > 0) {
-            for (int i = 0; i < size; i++) {
-                CityObj o = new CityObj(prefs, i);
-                if (o.mCityName != null && o.mTimeZone != null) {
-                    Log.d("Cities", "Name " + o.mCityName + " tz " + o.mTimeZone);
+    /**
+     * Returns a number that changes whenever the selected cities may have changed. Callers can
+     * compare it with the value seen at their last read to skip reloading unchanged cities.
+     */
+    public static int getVersion() {
+        synchronized (sLock) {
+            return sVersion;
+        }
+    }
+
+    private static Snapshot getSelectedCities(Context context) {
+        if (sObserver == null) {
+            sObserver = new ContentObserver(null) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    synchronized (sLock) {
+                        if (sOwnNotifications > 0) {
+                            // Our own write; the snapshot already reflects it.
+                            sOwnNotifications--;
+                        } else if (sPendingWrites > 0) {
+                            sStaleAfterWrites = true;
+                        } else {
+                            sSnapshot = null;
+                            sVersion++;
+                        }
+                    }
                 }
+            };
+            context.getApplicationContext().getContentResolver().registerContentObserver(
+                    City.CONTENT_URI, true, sObserver);
+        }
+        if (sSnapshot == null) {
+            sSnapshot = new Snapshot(sVersion, loadCities(context));
+        }
+        return sSnapshot;
+    }
+
+    private static HashMap<String, CityObj> loadCities(Context context) {
+        final ContentResolver cr = context.getApplicationContext().getContentResolver();
+        final HashMap<String, CityObj> cities = migrateCitiesFromSharedPrefs(context, cr);
+        if (cities != null) {
+            return cities;
+        }
+        final List<City> rows = City.getCities(cr, null);
+        final HashMap<String, CityObj> result = new HashMap<String, CityObj>(rows.size());
+        for (City row : rows) {
+            result.put(row.mCityId, new CityObj(row.mCityName, row.mTimezoneName, row.mCityId));
+        }
+        return result;
+    }
+
+    /**
+     * Moves cities stored by older versions in shared preferences into the provider.
+     *
+     * @return the migrated cities, or null if there was nothing to migrate
+     */
+    private static HashMap<String, CityObj> migrateCitiesFromSharedPrefs(Context context,
+            ContentResolver cr) {
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        final int size = prefs.getInt(NUMBER_OF_CITIES, -1);
+        if (size < 0) {
+            return null;
+        }
+        final HashMap<String, CityObj> cities = new HashMap<String, CityObj>();
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(size);
+        final SharedPreferences.Editor editor = prefs.edit();
+        editor.remove(NUMBER_OF_CITIES);
+        for (int i = 0; i < size; i++) {
+            CityObj o = new CityObj(prefs, i);
+            if (o.mCityId != null && o.mCityName != null && o.mTimeZone != null) {
+                cities.put(o.mCityId, o);
+                operations.add(newInsert(o));
             }
+            CityObj.removeCityFromSharedPrefs(editor, i);
+        }
+        // Called with sLock held, so the notification can't be seen before it is counted.
+        if (!operations.isEmpty()) {
+            sOwnNotifications++;
+        }
+        if (applyBatch(cr, operations)) {
+            editor.apply();
+            LogUtils.i("Migrated " + cities.size() + " selected cities to the provider");
+        } else if (!operations.isEmpty()) {
+            sOwnNotifications--;
+        }
+        return cities;
+    }
+
+    private static ContentProviderOperation newInsert(CityObj city) {
+        final int rawOffset = ZoneOffsetCache.getTimeZone(city.mTimeZone).getRawOffset();
+        return ContentProviderOperation.newInsert(City.CONTENT_URI)
+                .withValues(City.createContentValues(
+                        new City(city.mCityId, city.mCityName, city.mTimeZone, rawOffset)))
+                .build();
+    }
+
+    private static boolean applyBatch(ContentResolver cr,
+            ArrayList<ContentProviderOperation> operations) {
+        try {
+            cr.applyBatch(ClockContract.AUTHORITY, operations);
+            return true;
+        } catch (RemoteException e) {
+            LogUtils.e("Unable to save selected cities", e);
+        } catch (OperationApplicationException e) {
+            LogUtils.e("Unable to save selected cities", e);
+        }
+        return false;
+    }
+
+    private static HashMap<String, CityObj> copyOf(Map<String, CityObj> cities) {
+        final HashMap<String, CityObj> copy = new HashMap<String, CityObj>(cities.size());
+        for (CityObj city : cities.values()) {
+            copy.put(city.mCityId, new CityObj(city.mCityName, city.mTimeZone, city.mCityId));
+        }
+        return copy;
+    }
+
+    private static void dumpCities(Context context, String title) {
+        final HashMap<String, CityObj> cities = readCities(context);
+        Log.d("Cities", "Selected Cities List " + title);
+        Log.d("Cities", "Number of cities " + cities.size());
+        for (CityObj o : cities.values()) {
+            Log.d("Cities", "Name " + o.mCityName + " tz " + o.mTimeZone);
         }
     }
 }
@@ -55,11 +55,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.TimeZone;
 
 /**
  * Cities chooser for the world clock
@@ -114,6 +114,9 @@ public class CitiesActivity extends Activity implements OnCheckedChangeListener,
         private CityObj[] mCities;
         private CityObj[] mSelectedCities;
 
+        // Built lazily on the filter thread the first time the list is filtered.
+        private CitySearchIndex mSearchIndex;
+
         private final int mLayoutDirection;
 
         // A map that caches names of cities in local memory.  The names in this map are
@@ -141,7 +144,7 @@ public class CitiesActivity extends Activity implements OnCheckedChangeListener,
             @Override
             protected synchronized FilterResults performFiltering(CharSequence constraint) {
                 FilterResults results = new FilterResults();
-                String modifiedQuery = constraint.toString().trim().toUpperCase();
+                String modifiedQuery = constraint.toString().trim();
 
                 ArrayList<CityObj> filteredList = new ArrayList<CityObj>();
                 ArrayList<String> sectionHeaders = new ArrayList<String>();
@@ -165,6 +168,28 @@ public class CitiesActivity extends Activity implements OnCheckedChangeListener,
                     }
                 }
 
+                if (mSearchIndex == null) {
+                    mSearchIndex = new CitySearchIndex(mCities, DELETED_ENTRY);
+                }
+
+                if (!TextUtils.isEmpty(modifiedQuery)) {
+                    // Look up the cities whose names contain the query and present them in the
+                    // current sort order.
+                    mSelectedEndPosition = filteredList.size();
+                    mSearchIndex.search(modifiedQuery, filteredList);
+                    Collections.sort(filteredList, mSortType == SORT_BY_NAME
+                            ? mSortByNameComparator : mSortByTimeComparator);
+                    for (CityObj city : filteredList) {
+                        city.isHeader = false;
+                    }
+                    mSectionHeaders = new String[0];
+                    mSectionPositions = new Integer[0];
+
+                    results.values = filteredList;
+                    results.count = filteredList.size();
+                    return results;
+                }
+
                 final HashSet<String> selectedCityIds = new HashSet<>();
                 for (CityObj c : mSelectedCities) {
                     selectedCityIds.add(c.mCityId);
@@ -181,46 +206,37 @@ public class CitiesActivity extends Activity implements OnCheckedChangeListener,
                         continue;
                     }
 
-                    // If the search query is empty, add section headers.
-                    if (TextUtils.isEmpty(modifiedQuery)) {
-                        if (!selectedCityIds.contains(city.mCityId)) {
-                            // If the list is sorted by name, and the city begins with a letter
-                            // different than the previous city's letter, insert a section header.
-                            if (mSortType == SORT_BY_NAME
-                                    && !city.mCityName.substring(0, 1).equals(val)) {
-                                val = city.mCityName.substring(0, 1).toUpperCase();
-                                sectionHeaders.add(val);
+                    // The search query is empty, add section headers.
+                    if (!selectedCityIds.contains(city.mCityId)) {
+                        // If the list is sorted by name, and the city begins with a letter
+                        // different than the previous city's letter, insert a section header.
+                        if (mSortType == SORT_BY_NAME
+                                && !city.mCityName.substring(0, 1).equals(val)) {
+                            val = city.mCityName.substring(0, 1).toUpperCase();
+                            sectionHeaders.add(val);
+                            sectionPositions.add(filteredList.size());
+                            city.isHeader = true;
+                        } else {
+                            city.isHeader = false;
+                        }
+
+                        // If the list is sorted by time, and the gmt offset is different than
+                        // the previous city's gmt offset, insert a section header.
+                        if (mSortType == SORT_BY_GMT_OFFSET) {
+                            int newOffset = ZoneOffsetCache.getOffset(city.mTimeZone, currentTime);
+                            if (offset != newOffset) {
+                                offset = newOffset;
+                                String offsetString = ZoneOffsetCache.getGmtOffsetString(
+                                        city.mTimeZone, currentTime);
+                                sectionHeaders.add(offsetString);
                                 sectionPositions.add(filteredList.size());
                                 city.isHeader = true;
                             } else {
                                 city.isHeader = false;
                             }
-
-                            // If the list is sorted by time, and the gmt offset is different than
-                            // the previous city's gmt offset, insert a section header.
-                            if (mSortType == SORT_BY_GMT_OFFSET) {
-                                TimeZone timezone = TimeZone.getTimeZone(city.mTimeZone);
-                                int newOffset = timezone.getOffset(currentTime);
-                                if (offset != newOffset) {
-                                    offset = newOffset;
-                                    String offsetString = Utils.getGMTHourOffset(timezone, true);
-                                    sectionHeaders.add(offsetString);
-                                    sectionPositions.add(filteredList.size());
-                                    city.isHeader = true;
-                                } else {
-                                    city.isHeader = false;
-                                }
-                            }
-
-                            filteredList.add(city);
-                        }
-                    } else {
-                        // If the city name begins with the non-empty query, add it into the list.
-                        String cityName = city.mCityName.trim().toUpperCase();
-                        if (city.mCityId != null && cityName.startsWith(modifiedQuery)) {
-                            city.isHeader = false;
-                            filteredList.add(city);
                         }
+
+                        filteredList.add(city);
                     }
                 }
 
@@ -251,8 +267,8 @@ public class CitiesActivity extends Activity implements OnCheckedChangeListener,
             mLayoutDirection = TextUtils.getLayoutDirectionFromLocale(Locale.getDefault());
             mInflater = factory;
 
-            // Load the cities from xml.
-            mCities = Utils.loadCitiesFromXml(context);
+            // Load the cities from the shared city database.
+            mCities = CityDatabase.getCities(context);
 
             // Reload the city name map with the recently parsed city names of the currently
             // selected language for use with selected cities.
@@ -371,8 +387,8 @@ public class CitiesActivity extends Activity implements OnCheckedChangeListener,
                         holder.index.setTextSize(TypedValue.COMPLEX_UNIT_SP, 24);
                     } else { // SORT_BY_GMT_OFFSET
                         holder.index.setTextSize(TypedValue.COMPLEX_UNIT_SP, 14);
-                        holder.index.setText(Utils.getGMTHourOffset(
-                                TimeZone.getTimeZone(c.mTimeZone), true));
+                        holder.index.setText(ZoneOffsetCache.getGmtOffsetString(
+                                c.mTimeZone, System.currentTimeMillis()));
                     }
                 } else {
                     // If not a header, use the invisible index for left padding
@@ -385,7 +401,7 @@ public class CitiesActivity extends Activity implements OnCheckedChangeListener,
         }
 
         private CharSequence getTimeCharSequence(String timeZone) {
-            mCalendar.setTimeZone(TimeZone.getTimeZone(timeZone));
+            mCalendar.setTimeZone(ZoneOffsetCache.getTimeZone(timeZone));
             return DateFormat.format(mIs24HoursMode ? mPattern24 : mPattern12, mCalendar);
         }
 
@@ -480,10 +496,19 @@ public class CitiesActivity extends Activity implements OnCheckedChangeListener,
         mCitiesList = (ListView) findViewById(R.id.cities_list);
         setFastScroll(TextUtils.isEmpty(mQueryTextBuffer.toString().trim()));
         mCitiesList.setScrollBarStyle(View.SCROLLBARS_INSIDE_INSET);
-        mUserSelectedCities = Cities.readCitiesFromSharedPrefs(
-                PreferenceManager.getDefaultSharedPreferences(this));
-        mAdapter = new CityAdapter(this, mFactory);
-        mCitiesList.setAdapter(mAdapter);
+        // A private copy: the selected cities are renamed for the locale and edited here. Reading
+        // them may load them from the provider, so the list is shown once they are read.
+        Cities.readCitiesAsync(this, new Cities.OnCitiesReadListener() {
+            @Override
+            public void onCitiesRead(HashMap<String, CityObj> cities) {
+                if (isDestroyed()) {
+                    return;
+                }
+                mUserSelectedCities = cities;
+                mAdapter = new CityAdapter(CitiesActivity.this, mFactory);
+                mCitiesList.setAdapter(mAdapter);
+            }
+        });
         ActionBar actionBar = getActionBar();
         if (actionBar != null) {
             actionBar.setDisplayOptions(ActionBar.DISPLAY_HOME_AS_UP, ActionBar.DISPLAY_HOME_AS_UP);
@@ -510,10 +535,11 @@ public class CitiesActivity extends Activity implements OnCheckedChangeListener,
     @Override
     public void onPause() {
         super.onPause();
-        Cities.saveCitiesToSharedPrefs(PreferenceManager.getDefaultSharedPreferences(this),
-                mUserSelectedCities);
-        Intent i = new Intent(Cities.WORLDCLOCK_UPDATE_INTENT);
-        sendBroadcast(i);
+        // Only wake the widgets if the selection actually changed.
+        if (mUserSelectedCities != null && Cities.saveCities(this, mUserSelectedCities)) {
+            Intent i = new Intent(Cities.WORLDCLOCK_UPDATE_INTENT);
+            sendBroadcast(i);
+        }
     }
 
     @Override
@@ -618,7 +644,9 @@ public class CitiesActivity extends Activity implements OnCheckedChangeListener,
         mQueryTextBuffer.setLength(0);
         mQueryTextBuffer.append(queryText);
         mCitiesList.setFastScrollEnabled(TextUtils.isEmpty(mQueryTextBuffer.toString().trim()));
-        mAdapter.getFilter().filter(queryText);
+        if (mAdapter != null) {
+            mAdapter.getFilter().filter(queryText);
+        }
         return true;
     }
 
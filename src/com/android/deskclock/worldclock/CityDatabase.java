@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.worldclock;
+
+import android.content.Context;
+import android.content.res.Resources;
+
+import com.android.deskclock.LogUtils;
+import com.android.deskclock.R;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Process-wide cache of the city database. The city picker, the world clock list and the world
+ * clock widget all share one parsed copy of the city resources, which is only re-read when the
+ * locale changes (the city names are localized, the ids and time zones are not).
+ */
+public final class CityDatabase {
+
+    private static final Object sLock = new Object();
+
+    private static Locale sLocale;
+    private static CityObj[] sCities;
+    private static Map<String, CityObj> sCitiesById;
+
+    private CityDatabase() {
+    }
+
+    /**
+     * Returns a new array of cities for the current locale, in resource order. The array and the
+     * {@link CityObj}s in it belong to the caller and may be sorted and modified freely.
+     */
+    public static CityObj[] getCities(Context context) {
+        final CityObj[] cities = getCachedCities(context);
+        final CityObj[] copy = new CityObj[cities.length];
+        for (int i = 0; i < cities.length; i++) {
+            final CityObj city = cities[i];
+            copy[i] = new CityObj(city.mCityName, city.mTimeZone, city.mCityId);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns a read-only map from city id to city for the current locale. The returned cities are
+     * shared and must not be modified.
+     */
+    public static Map<String, CityObj> getCitiesById(Context context) {
+        synchronized (sLock) {
+            getCachedCities(context);
+            return sCitiesById;
+        }
+    }
+
+    private static CityObj[] getCachedCities(Context context) {
+        final Resources r = context.getResources();
+        final Locale locale = r.getConfiguration().locale;
+        synchronized (sLock) {
+            if (sCities == null || !locale.equals(sLocale)) {
+                sCities = loadCities(r);
+                final Map<String, CityObj> byId = new HashMap<String, CityObj>(sCities.length);
+                for (CityObj city : sCities) {
+                    byId.put(city.mCityId, city);
+                }
+                sCitiesById = Collections.unmodifiableMap(byId);
+                sLocale = locale;
+            }
+            return sCities;
+        }
+    }
+
+    private static CityObj[] loadCities(Resources r) {
+        // Read strings array of name,timezone, id
+        // make sure the list are the same length
+        final String[] cities = r.getStringArray(R.array.cities_names);
+        final String[] timezones = r.getStringArray(R.array.cities_tz);
+        final String[] ids = r.getStringArray(R.array.cities_id);
+        int length = cities.length;
+        if (cities.length != timezones.length || ids.length != cities.length) {
+            length = Math.min(cities.length, Math.min(timezones.length, ids.length));
+            LogUtils.e("City lists sizes are not the same, truncating");
+        }
+        final CityObj[] result = new CityObj[length];
+        for (int i = 0; i < length; i++) {
+            // Many cities share a time zone; intern the ids so each is held only once.
+            result[i] = new CityObj(cities[i], timezones[i].intern(), ids[i]);
+        }
+        return result;
+    }
+}
@@ -16,7 +16,6 @@
 package com.android.deskclock.worldclock;
 
 import java.util.Comparator;
-import java.util.TimeZone;
 
 public class CityGmtOffsetComparator implements Comparator<CityObj> {
 
@@ -25,8 +24,8 @@ public class CityGmtOffsetComparator implements Comparator<CityObj> {
     @Override
     public int compare(CityObj c1, CityObj c2) {
         long currentTime = System.currentTimeMillis();
-        int offset = TimeZone.getTimeZone(c1.mTimeZone).getOffset(currentTime);
-        int offset2 = TimeZone.getTimeZone(c2.mTimeZone).getOffset(currentTime);
+        int offset = ZoneOffsetCache.getOffset(c1.mTimeZone, currentTime);
+        int offset2 = ZoneOffsetCache.getOffset(c2.mTimeZone, currentTime);
         return (offset < offset2) ? -1 : (offset > offset2) ? 1 :
             getCityNameComparator().compare(c1, c2);
     }
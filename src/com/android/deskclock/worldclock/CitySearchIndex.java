@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.worldclock;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Immutable search index over the city names, used by the city picker to filter as the user
+ * types. Names are normalized once (trimmed, upper-cased and accent-folded) and every suffix of
+ * every name is kept in a sorted suffix array, so a query is answered with a binary search rather
+ * than a scan over all cities. Because all suffixes are indexed, a query matches anywhere in a
+ * name, e.g. "york" finds "New York" and "sao" finds "São Paulo".
+ *
+ * Building the index sorts a few thousand suffixes and should be done off the UI thread.
+ */
+final class CitySearchIndex {
+
+    private final CityObj[] mCities;
+    private final String[] mNormalizedNames;
+
+    // Suffix array: entry i is the suffix of mNormalizedNames[mSuffixCity[i]] starting at
+    // mSuffixStart[i]. Entries are sorted lexicographically.
+    private final int[] mSuffixCity;
+    private final int[] mSuffixStart;
+
+    public CitySearchIndex(CityObj[] cities, String deletedEntryId) {
+        int count = 0;
+        final CityObj[] indexed = new CityObj[cities.length];
+        for (CityObj city : cities) {
+            if (city.mCityId != null && !city.mCityId.equals(deletedEntryId)) {
+                indexed[count++] = city;
+            }
+        }
+        mCities = Arrays.copyOf(indexed, count);
+        mNormalizedNames = new String[count];
+
+        int suffixCount = 0;
+        for (int i = 0; i < count; i++) {
+            final String name = normalize(mCities[i].mCityName);
+            mNormalizedNames[i] = name;
+            suffixCount += name.length();
+        }
+
+        // Sort once using boxed entry ids, then unpack into primitive arrays for searching.
+        final int[] city = new int[suffixCount];
+        final int[] start = new int[suffixCount];
+        final Integer[] order = new Integer[suffixCount];
+        int entry = 0;
+        for (int i = 0; i < count; i++) {
+            final int length = mNormalizedNames[i].length();
+            for (int offset = 0; offset < length; offset++) {
+                city[entry] = i;
+                start[entry] = offset;
+                order[entry] = entry;
+                entry++;
+            }
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return compareSuffixes(mNormalizedNames[city[lhs]], start[lhs],
+                        mNormalizedNames[city[rhs]], start[rhs]);
+            }
+        });
+        mSuffixCity = new int[suffixCount];
+        mSuffixStart = new int[suffixCount];
+        for (int i = 0; i < suffixCount; i++) {
+            mSuffixCity[i] = city[order[i]];
+            mSuffixStart[i] = start[order[i]];
+        }
+    }
+
+    /**
+     * Adds every city whose name contains the query to {@code out}, each city at most once.
+     * Results are in no particular order; callers sort them as needed.
+     *
+     * @return the number of cities added
+     */
+    public int search(CharSequence query, List<CityObj> out) {
+        final String q = normalize(query.toString());
+        if (q.isEmpty()) {
+            return 0;
+        }
+
+        // Binary search for the first suffix that is >= the query.
+        int lo = 0;
+        int hi = mSuffixCity.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (compareSuffixes(mNormalizedNames[mSuffixCity[mid]], mSuffixStart[mid],
+                    q, 0) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        // All suffixes starting with the query are contiguous from there.
+        boolean[] added = null;
+        int found = 0;
+        for (int i = lo; i < mSuffixCity.length; i++) {
+            final String name = mNormalizedNames[mSuffixCity[i]];
+            if (!name.startsWith(q, mSuffixStart[i])) {
+                break;
+            }
+            if (added == null) {
+                added = new boolean[mCities.length];
+            }
+            final int cityIndex = mSuffixCity[i];
+            if (!added[cityIndex]) {
+                added[cityIndex] = true;
+                out.add(mCities[cityIndex]);
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static int compareSuffixes(String a, int aStart, String b, int bStart) {
+        final int aLength = a.length() - aStart;
+        final int bLength = b.length() - bStart;
+        final int length = Math.min(aLength, bLength);
+        for (int i = 0; i < length; i++) {
+            final char ca = a.charAt(aStart + i);
+            final char cb = b.charAt(bStart + i);
+            if (ca != cb) {
+                return ca - cb;
+            }
+        }
+        return aLength - bLength;
+    }
+
+    /**
+     * Trims, upper-cases and strips diacritics so that e.g. "  Zürich" and "zurich" compare equal.
+     */
+    static String normalize(String s) {
+        final String decomposed = Normalizer.normalize(s.trim(), Normalizer.Form.NFD);
+        final StringBuilder sb = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            final char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                sb.append(c);
+            }
+        }
+        return sb.toString().toUpperCase(Locale.getDefault());
+    }
+}
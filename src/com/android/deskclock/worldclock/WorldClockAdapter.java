@@ -18,7 +18,11 @@ package com.android.deskclock.worldclock;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -27,92 +31,230 @@ import android.widget.TextClock;
 import android.widget.TextView;
 
 import com.android.deskclock.AnalogClock;
+import com.android.deskclock.AsyncHandler;
+import com.android.deskclock.LogUtils;
 import com.android.deskclock.R;
 import com.android.deskclock.SettingsActivity;
+import com.android.deskclock.TimeBoundaryScheduler;
 import com.android.deskclock.Utils;
 
 import java.text.Collator;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Comparator;
-import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
 
+/**
+ * Adapter for the list of world clocks. Everything the rows show is prepared up front as an
+ * immutable {@link Model}: the selected cities are read, sorted and resolved against the city
+ * database, and the day-of-week labels computed, so that binding a row only copies strings into
+ * views. {@link #reloadData(Context)} builds the model on the {@link AsyncHandler} thread;
+ * callers that already run off the UI thread use {@link #loadData(Context)}.
+ */
 public class WorldClockAdapter extends BaseAdapter {
-    protected Object [] mCitiesList;
+
+    /**
+     * Ready-to-bind data for one clock.
+     */
+    public static final class CityRow {
+        /** The city id, or null for the home city. */
+        public final String cityId;
+        public final String name;
+        public final String timeZone;
+        /** The day of week to show next to the name, or null if it is the same as here. */
+        public final String dayLabel;
+
+        CityRow(String cityId, String name, String timeZone, String dayLabel) {
+            this.cityId = cityId;
+            this.name = name;
+            this.timeZone = timeZone;
+            this.dayLabel = dayLabel;
+        }
+    }
+
+    /**
+     * Immutable snapshot of the list, and of the inputs it was built from. The day labels are
+     * only correct until {@link #validUntil} and while the device stays in {@link #deviceZoneId}.
+     */
+    protected static final class Model {
+        public final CityRow[] rows;
+        public final String clockStyle;
+        public final CharSequence format12Hour;
+        public final CharSequence format24Hour;
+        final int citiesVersion;
+        final Locale locale;
+        /** The home time zone if the home city is shown, or null. */
+        final String homeZoneId;
+        final String deviceZoneId;
+        final long validUntil;
+
+        Model(CityRow[] rows, String clockStyle, CharSequence format12Hour,
+                CharSequence format24Hour, int citiesVersion, Locale locale, String homeZoneId,
+                String deviceZoneId, long validUntil) {
+            this.rows = rows;
+            this.clockStyle = clockStyle;
+            this.format12Hour = format12Hour;
+            this.format24Hour = format24Hour;
+            this.citiesVersion = citiesVersion;
+            this.locale = locale;
+            this.homeZoneId = homeZoneId;
+            this.deviceZoneId = deviceZoneId;
+            this.validUntil = validUntil;
+        }
+
+        public boolean isValid(long now) {
+            return now < validUntil && deviceZoneId.equals(TimeZone.getDefault().getID());
+        }
+    }
+
+    private static final Model EMPTY_MODEL = new Model(new CityRow[0], Utils.CLOCK_TYPE_DIGITAL,
+            null, null, -1, null, null, "", Long.MAX_VALUE);
+
+    protected Model mModel = EMPTY_MODEL;
     private final LayoutInflater mInflater;
     private final Context mContext;
-    private String mClockStyle;
-    private final Collator mCollator = Collator.getInstance();
-    protected HashMap<String, CityObj> mCitiesDb = new HashMap<String, CityObj>();
     protected int mClocksPerRow;
 
+    private Handler mMainHandler;
+    // Incremented on every reload request, so that a model built for an older request is dropped.
+    private int mGeneration;
+
     public WorldClockAdapter(Context context) {
         super();
         mContext = context;
-        loadData(context);
-        loadCitiesDb(context);
         mInflater = LayoutInflater.from(context);
         mClocksPerRow = context.getResources().getInteger(R.integer.world_clocks_per_row);
     }
 
+    /**
+     * Rebuilds the model in the background and notifies observers once it is ready. Must be
+     * called on the UI thread.
+     */
     public void reloadData(Context context) {
-        loadData(context);
-        notifyDataSetChanged();
+        if (mMainHandler == null) {
+            mMainHandler = new Handler(Looper.getMainLooper());
+        }
+        final int generation = ++mGeneration;
+        AsyncHandler.post(AsyncHandler.LANE_DEFAULT, "buildWorldClockModel", new Runnable() {
+            @Override
+            public void run() {
+                final Model model = buildModel(System.currentTimeMillis());
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration) {
+                            mModel = model;
+                            notifyDataSetChanged();
+                        }
+                    }
+                });
+            }
+        });
     }
 
-    public void loadData(Context context) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
-        mClockStyle = prefs.getString(SettingsActivity.KEY_CLOCK_STYLE,
-                mContext.getResources().getString(R.string.default_clock_style));
-        mCitiesList = Cities.readCitiesFromSharedPrefs(prefs).values().toArray();
-        sortList();
-        mCitiesList = addHomeCity();
+    /**
+     * Reloads the model in the background, unless it is still current.
+     */
+    public void refreshData(Context context) {
+        if (!isModelCurrent(System.currentTimeMillis())) {
+            reloadData(context);
+        }
     }
 
-    public void loadCitiesDb(Context context) {
-        mCitiesDb.clear();
-        // Read the cities DB so that the names and timezones will be taken from the DB
-        // and not from the selected list so that change of locale or changes in the DB will
-        // be reflected.
-        CityObj[] cities = Utils.loadCitiesFromXml(context);
-        if (cities != null) {
-            for (int i = 0; i < cities.length; i ++) {
-                mCitiesDb.put(cities[i].mCityId, cities [i]);
-            }
+    /**
+     * Returns whether the model still matches the selected cities, the locale, the clock style,
+     * the home city setting and the date.
+     */
+    public boolean isModelCurrent(long now) {
+        final Model model = mModel;
+        if (model == EMPTY_MODEL || !model.isValid(now)
+                || model.citiesVersion != Cities.getVersion()
+                || !mContext.getResources().getConfiguration().locale.equals(model.locale)) {
+            return false;
         }
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        final String clockStyle = prefs.getString(SettingsActivity.KEY_CLOCK_STYLE,
+                mContext.getResources().getString(R.string.default_clock_style));
+        final String homeZoneId = needHomeCity()
+                ? prefs.getString(SettingsActivity.KEY_HOME_TZ, "") : null;
+        return clockStyle.equals(model.clockStyle)
+                && TextUtils.equals(homeZoneId, model.homeZoneId);
+    }
+
+    /**
+     * Rebuilds the model synchronously. Must not be called on the UI thread.
+     */
+    public void loadData(Context context) {
+        mModel = buildModel(System.currentTimeMillis());
     }
 
-    /***
-     * Adds the home city as the first item of the adapter if the feature is on and the device time
-     * zone is different from the home time zone that was set by the user.
-     * return the list of cities.
+    /**
+     * Builds a new model. May be called on any thread.
      */
-    private Object[] addHomeCity() {
+    protected Model buildModel(long now) {
+        final long start = SystemClock.uptimeMillis();
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        final String clockStyle = prefs.getString(SettingsActivity.KEY_CLOCK_STYLE,
+                mContext.getResources().getString(R.string.default_clock_style));
+
+        final Locale locale = mContext.getResources().getConfiguration().locale;
+        // The snapshot is shared; its cities are only read.
+        final Cities.Snapshot selected = Cities.getSnapshot(mContext);
+        CityObj[] cities = selected.cities.values().toArray(new CityObj[selected.cities.size()]);
+        sortCities(cities, now);
+        String homeTZ = null;
         if (needHomeCity()) {
-            SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(mContext);
-            String homeTZ = sharedPref.getString(SettingsActivity.KEY_HOME_TZ, "");
-            CityObj c = new CityObj(
+            homeTZ = prefs.getString(SettingsActivity.KEY_HOME_TZ, "");
+            final CityObj[] withHome = new CityObj[cities.length + 1];
+            withHome[0] = new CityObj(
                     mContext.getResources().getString(R.string.home_label), homeTZ, null);
-            Object[] temp = new Object[mCitiesList.length + 1];
-            temp[0] = c;
-            for (int i = 0; i < mCitiesList.length; i++) {
-                temp[i + 1] = mCitiesList[i];
-            }
-            return temp;
-        } else {
-            return mCitiesList;
+            System.arraycopy(cities, 0, withHome, 1, cities.length);
+            cities = withHome;
         }
-    }
 
-    public void updateHomeLabel(Context context) {
-        // Update the "home" label if the home time zone clock is shown
-        if (needHomeCity() && mCitiesList.length > 0) {
-            ((CityObj) mCitiesList[0]).mCityName =
-                    context.getResources().getString(R.string.home_label);
+        // Take the names and time zones from the city database rather than the saved selection,
+        // so that a change of locale or of the database is reflected.
+        final Map<String, CityObj> citiesDb = CityDatabase.getCitiesById(mContext);
+        final String deviceZoneId = TimeZone.getDefault().getID();
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        final int myDayOfWeek = calendar.get(Calendar.DAY_OF_WEEK);
+        long validUntil = TimeBoundaryScheduler.getNextBoundary(
+                TimeBoundaryScheduler.MIDNIGHT, deviceZoneId, now);
+
+        // Many cities share a time zone; compute each zone's day label once.
+        final HashMap<String, String> dayLabels = new HashMap<String, String>();
+        final CityRow[] rows = new CityRow[cities.length];
+        for (int i = 0; i < cities.length; i++) {
+            final CityObj city = cities[i];
+            final CityObj cityInDb = city.mCityId != null ? citiesDb.get(city.mCityId) : null;
+            final String cityTZ = (cityInDb != null) ? cityInDb.mTimeZone : city.mTimeZone;
+            if (!dayLabels.containsKey(cityTZ)) {
+                calendar.setTimeZone(ZoneOffsetCache.getTimeZone(cityTZ));
+                calendar.setTimeInMillis(now);
+                final int cityDayOfWeek = calendar.get(Calendar.DAY_OF_WEEK);
+                dayLabels.put(cityTZ, myDayOfWeek == cityDayOfWeek ? null : mContext.getString(
+                        R.string.world_day_of_week_label, calendar.getDisplayName(
+                                Calendar.DAY_OF_WEEK, Calendar.SHORT, Locale.getDefault())));
+                validUntil = Math.min(validUntil, TimeBoundaryScheduler.getNextBoundary(
+                        TimeBoundaryScheduler.MIDNIGHT, cityTZ, now));
+            }
+            // Home city or city not in DB , use data from the save selected cities list
+            rows[i] = new CityRow(city.mCityId, Utils.getCityName(city, cityInDb), cityTZ,
+                    dayLabels.get(cityTZ));
         }
+
+        LogUtils.v("Built %d world clock rows in %d ms", rows.length,
+                SystemClock.uptimeMillis() - start);
+        final int amPmFontSize =
+                (int) mContext.getResources().getDimension(R.dimen.label_font_size);
+        return new Model(rows, clockStyle, Utils.get12ModeFormat(amPmFontSize),
+                Utils.get24ModeFormat(), selected.version, locale, homeTZ, deviceZoneId,
+                validUntil);
     }
 
     public boolean needHomeCity() {
@@ -120,25 +262,44 @@ public class WorldClockAdapter extends BaseAdapter {
         if (sharedPref.getBoolean(SettingsActivity.KEY_AUTO_HOME_CLOCK, false)) {
             String homeTZ = sharedPref.getString(
                     SettingsActivity.KEY_HOME_TZ, TimeZone.getDefault().getID());
-            final Date now = new Date();
-            return TimeZone.getTimeZone(homeTZ).getOffset(now.getTime())
-                    != TimeZone.getDefault().getOffset(now.getTime());
+            final long now = System.currentTimeMillis();
+            return ZoneOffsetCache.getOffset(homeTZ, now)
+                    != TimeZone.getDefault().getOffset(now);
         } else {
             return false;
         }
     }
 
     public boolean hasHomeCity() {
-        return (mCitiesList != null) && mCitiesList.length > 0
-                && ((CityObj) mCitiesList[0]).mCityId == null;
+        final CityRow[] rows = mModel.rows;
+        return rows.length > 0 && rows[0].cityId == null;
     }
 
-    private void sortList() {
-        final Date now = new Date();
+    /**
+     * Returns the distinct time zone ids of the listed cities, preceded by null for the device's
+     * time zone.
+     */
+    public String[] getTimeZoneIds() {
+        final HashSet<String> zones = new HashSet<String>();
+        for (CityRow row : mModel.rows) {
+            zones.add(row.timeZone);
+        }
+        zones.remove(null);
+        final String[] ids = new String[zones.size() + 1];
+        int i = 1;
+        for (String zone : zones) {
+            ids[i++] = zone;
+        }
+        return ids;
+    }
 
-        // Sort by the Offset from GMT taking DST into account
-        // and if the same sort by City Name
-        Arrays.sort(mCitiesList, new Comparator<Object>() {
+    /**
+     * Sorts by the offset from GMT taking DST into account, and by city name for equal offsets.
+     */
+    private static void sortCities(CityObj[] cities, final long now) {
+        // Collators are not thread safe, so each build uses its own.
+        final Collator collator = Collator.getInstance();
+        Arrays.sort(cities, new Comparator<CityObj>() {
             private int safeCityNameCompare(CityObj city1, CityObj city2) {
                 if (city1.mCityName == null && city2.mCityName == null) {
                     return 0;
@@ -147,14 +308,12 @@ public class WorldClockAdapter extends BaseAdapter {
                 } else if (city2.mCityName == null) {
                     return 1;
                 } else {
-                    return mCollator.compare(city1.mCityName, city2.mCityName);
+                    return collator.compare(city1.mCityName, city2.mCityName);
                 }
             }
 
             @Override
-            public int compare(Object object1, Object object2) {
-                CityObj city1 = (CityObj) object1;
-                CityObj city2 = (CityObj) object2;
+            public int compare(CityObj city1, CityObj city2) {
                 if (city1.mTimeZone == null && city2.mTimeZone == null) {
                     return safeCityNameCompare(city1, city2);
                 } else if (city1.mTimeZone == null) {
@@ -163,8 +322,8 @@ public class WorldClockAdapter extends BaseAdapter {
                     return 1;
                 }
 
-                int gmOffset1 = TimeZone.getTimeZone(city1.mTimeZone).getOffset(now.getTime());
-                int gmOffset2 = TimeZone.getTimeZone(city2.mTimeZone).getOffset(now.getTime());
+                int gmOffset1 = ZoneOffsetCache.getOffset(city1.mTimeZone, now);
+                int gmOffset2 = ZoneOffsetCache.getOffset(city2.mTimeZone, now);
                 if (gmOffset1 == gmOffset2) {
                     return safeCityNameCompare(city1, city2);
                 } else {
@@ -176,13 +335,14 @@ public class WorldClockAdapter extends BaseAdapter {
 
     @Override
     public int getCount() {
+        final int length = mModel.rows.length;
         if (mClocksPerRow == 1) {
             // In the special case where we have only 1 clock per view.
-            return mCitiesList.length;
+            return length;
         }
 
         // Otherwise, each item in the list holds 1 or 2 clocks
-        return (mCitiesList.length  + 1)/2;
+        return (length + 1) / 2;
     }
 
     @Override
@@ -204,50 +364,41 @@ public class WorldClockAdapter extends BaseAdapter {
     public View getView(int position, View view, ViewGroup parent) {
         // Index in cities list
         int index = position * mClocksPerRow;
-        if (index < 0 || index >= mCitiesList.length) {
+        final CityRow[] rows = mModel.rows;
+        if (index < 0 || index >= rows.length) {
             return null;
         }
 
         if (view == null) {
             view = mInflater.inflate(R.layout.world_clock_list_item, parent, false);
         }
-        updateView(view.findViewById(R.id.city_left), (CityObj)mCitiesList[index]);
+        updateView(view.findViewById(R.id.city_left), rows[index]);
         return view;
     }
 
-    private void updateView(View clock, CityObj cityObj) {
+    private void updateView(View clock, CityRow row) {
         View nameLayout= clock.findViewById(R.id.city_name_layout);
         TextView name = (TextView)(nameLayout.findViewById(R.id.city_name));
         TextView dayOfWeek = (TextView)(nameLayout.findViewById(R.id.city_day));
         TextClock dclock = (TextClock)(clock.findViewById(R.id.digital_clock));
         AnalogClock aclock = (AnalogClock)(clock.findViewById(R.id.analog_clock));
 
-        if (mClockStyle.equals("analog")) {
+        if (mModel.clockStyle.equals("analog")) {
             dclock.setVisibility(View.GONE);
             aclock.setVisibility(View.VISIBLE);
-            aclock.setTimeZone(cityObj.mTimeZone);
+            aclock.setTimeZone(row.timeZone);
             aclock.enableSeconds(false);
         } else {
             dclock.setVisibility(View.VISIBLE);
             aclock.setVisibility(View.GONE);
-            dclock.setTimeZone(cityObj.mTimeZone);
-            Utils.setTimeFormat(dclock,
-                    (int)mContext.getResources().getDimension(R.dimen.label_font_size));
+            dclock.setTimeZone(row.timeZone);
+            dclock.setFormat12Hour(mModel.format12Hour);
+            dclock.setFormat24Hour(mModel.format24Hour);
         }
-        CityObj cityInDb = mCitiesDb.get(cityObj.mCityId);
-        // Home city or city not in DB , use data from the save selected cities list
-        name.setText(Utils.getCityName(cityObj, cityInDb));
-
-        final Calendar now = Calendar.getInstance();
-        now.setTimeZone(TimeZone.getDefault());
-        int myDayOfWeek = now.get(Calendar.DAY_OF_WEEK);
-        // Get timezone from cities DB if available
-        String cityTZ = (cityInDb != null) ? cityInDb.mTimeZone : cityObj.mTimeZone;
-        now.setTimeZone(TimeZone.getTimeZone(cityTZ));
-        int cityDayOfWeek = now.get(Calendar.DAY_OF_WEEK);
-        if (myDayOfWeek != cityDayOfWeek) {
-            dayOfWeek.setText(mContext.getString(R.string.world_day_of_week_label,
-                    now.getDisplayName(Calendar.DAY_OF_WEEK, Calendar.SHORT, Locale.getDefault())));
+        name.setText(row.name);
+
+        if (row.dayLabel != null) {
+            dayOfWeek.setText(row.dayLabel);
             dayOfWeek.setVisibility(View.VISIBLE);
         } else {
             dayOfWeek.setVisibility(View.GONE);
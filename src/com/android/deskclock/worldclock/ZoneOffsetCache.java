@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.worldclock;
+
+import android.text.format.DateUtils;
+
+import com.android.deskclock.Utils;
+
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide cache of time zone offsets keyed by zone id. Sorting and binding world clocks
+ * compare offsets many times per zone; with this cache each zone is resolved once and its entry
+ * stays valid from the zone's previous offset transition (usually a DST change) until its next
+ * one, so lookups with a slightly older time, e.g. one captured before a sort, still hit.
+ *
+ * Call {@link #invalidate()} on {@link android.content.Intent#ACTION_TIMEZONE_CHANGED}.
+ */
+public final class ZoneOffsetCache {
+
+    /** How far ahead or back to look for the transitions of a zone that observes DST. */
+    private static final long TRANSITION_SEARCH_HORIZON = DateUtils.YEAR_IN_MILLIS;
+    private static final long TRANSITION_SEARCH_STEP = DateUtils.WEEK_IN_MILLIS;
+
+    private static final ConcurrentHashMap<String, Entry> sEntries =
+            new ConcurrentHashMap<String, Entry>();
+
+    private ZoneOffsetCache() {
+    }
+
+    /**
+     * Immutable offset information for one zone, valid in [validFrom, validUntil).
+     */
+    private static final class Entry {
+        final TimeZone zone;
+        final int offset;
+        final String gmtOffsetString;
+        final long validFrom;
+        final long validUntil;
+
+        Entry(TimeZone zone, long now) {
+            this.zone = zone;
+            offset = zone.getOffset(now);
+            gmtOffsetString = Utils.getGMTHourOffset(zone, true);
+            if (zone.useDaylightTime()) {
+                validFrom = findTransition(zone, now, offset, -TRANSITION_SEARCH_STEP);
+                validUntil = findTransition(zone, now, offset, TRANSITION_SEARCH_STEP);
+            } else {
+                // No DST; re-check once a day in case the zone rules change.
+                validFrom = now - DateUtils.DAY_IN_MILLIS;
+                validUntil = now + DateUtils.DAY_IN_MILLIS;
+            }
+        }
+
+        boolean isValid(long now) {
+            return now >= validFrom && now < validUntil;
+        }
+    }
+
+    /**
+     * Returns the offset from UTC of the given zone at the given time, including DST.
+     */
+    public static int getOffset(String zoneId, long now) {
+        return getEntry(zoneId, now).offset;
+    }
+
+    /**
+     * Returns the raw GMT offset of the given zone formatted as by
+     * {@link Utils#getGMTHourOffset(TimeZone, boolean)} with minutes.
+     */
+    public static String getGmtOffsetString(String zoneId, long now) {
+        return getEntry(zoneId, now).gmtOffsetString;
+    }
+
+    /**
+     * Returns a shared {@link TimeZone} for the given id. Callers must not modify it.
+     */
+    public static TimeZone getTimeZone(String zoneId) {
+        final Entry entry = sEntries.get(zoneId);
+        return entry != null ? entry.zone : getEntry(zoneId, System.currentTimeMillis()).zone;
+    }
+
+    /**
+     * Returns the instant at which the cached offset of the given zone next changes.
+     */
+    public static long getNextTransition(String zoneId, long now) {
+        return getEntry(zoneId, now).validUntil;
+    }
+
+    /**
+     * Drops all cached entries. Called when the system time zone or zone rules change.
+     */
+    public static void invalidate() {
+        sEntries.clear();
+    }
+
+    private static Entry getEntry(String zoneId, long now) {
+        Entry entry = sEntries.get(zoneId);
+        if (entry == null || !entry.isValid(now)) {
+            final TimeZone zone = entry != null ? entry.zone : TimeZone.getTimeZone(zoneId);
+            entry = new Entry(zone, now);
+            sEntries.put(zoneId, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Searches from {@code now} in steps of {@code step} for the zone's offset to differ from
+     * {@code offset}. Searching forward, returns the first instant with a different offset;
+     * searching back, the first instant of the period with {@code offset} that contains
+     * {@code now}. Returns the end of the search horizon if there is no transition.
+     */
+    private static long findTransition(TimeZone zone, long now, int offset, long step) {
+        final long horizon = step > 0
+                ? now + TRANSITION_SEARCH_HORIZON : now - TRANSITION_SEARCH_HORIZON;
+        long same = now;
+        for (long t = now + step; step > 0 ? t <= horizon : t >= horizon; t += step) {
+            if (zone.getOffset(t) != offset) {
+                // The transition is between same and t; bisect down to the millisecond.
+                long other = t;
+                while (Math.abs(other - same) > 1) {
+                    final long mid = same + (other - same) / 2;
+                    if (zone.getOffset(mid) == offset) {
+                        same = mid;
+                    } else {
+                        other = mid;
+                    }
+                }
+                return step > 0 ? other : same;
+            }
+            same = t;
+        }
+        return horizon;
+    }
+}
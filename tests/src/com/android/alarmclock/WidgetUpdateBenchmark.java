@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.alarmclock;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.test.InstrumentationTestCase;
+
+import com.android.deskclock.BenchmarkUtils;
+
+/**
+ * Benchmarks the cost of updating the digital clock widget:
+ * <ul>
+ *     <li>{@code update_cold}: {@link DigitalAppWidgetProvider#onUpdate} of a widget the provider
+ *     has no state for. The widget id is not bound, so the update is dropped by the widget
+ *     service after it is built.</li>
+ *     <li>{@code update_installed}: {@link DigitalAppWidgetProvider#onUpdate} of all the widgets
+ *     on the device, if there are any.</li>
+ *     <li>{@code list_load}: loading the world clock list of a new
+ *     {@link DigitalWidgetViewsFactory} and building all its rows.</li>
+ *     <li>{@code list_refresh}: the same for a factory whose cities are already loaded.</li>
+ * </ul>
+ *
+ * <pre>
+ * adb shell am instrument -r -e class com.android.alarmclock.WidgetUpdateBenchmark \
+ *         -w com.android.deskclock.tests/android.test.InstrumentationTestRunner
+ * </pre>
+ */
+public class WidgetUpdateBenchmark extends InstrumentationTestCase {
+
+    private static final String TAG = "WidgetUpdateBenchmark";
+
+    private static final int ITERATIONS = 50;
+    /** Id of a widget that doesn't exist. */
+    private static final int UNBOUND_WIDGET_ID = Integer.MAX_VALUE;
+
+    public void testUpdate() {
+        final Bundle results = new Bundle();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                measure(results);
+            }
+        });
+        BenchmarkUtils.report(getInstrumentation(), TAG, "widget_update", results);
+    }
+
+    private void measure(Bundle results) {
+        final Context context = getInstrumentation().getTargetContext();
+        final AppWidgetManager manager = AppWidgetManager.getInstance(context);
+        final DigitalAppWidgetProvider provider = new DigitalAppWidgetProvider();
+
+        final int[] unbound = { UNBOUND_WIDGET_ID };
+        final long[] coldNanos = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            final long start = System.nanoTime();
+            provider.onUpdate(context, manager, unbound);
+            coldNanos[i] = System.nanoTime() - start;
+            provider.onDeleted(context, unbound);
+        }
+        BenchmarkUtils.putPercentiles(results, "update_cold", coldNanos);
+
+        final int[] installed = manager.getAppWidgetIds(
+                new ComponentName(context, DigitalAppWidgetProvider.class));
+        results.putInt("installed_widgets", installed.length);
+        if (installed.length > 0) {
+            final long[] installedNanos = new long[ITERATIONS];
+            for (int i = 0; i < ITERATIONS; i++) {
+                final long start = System.nanoTime();
+                provider.onUpdate(context, manager, installed);
+                installedNanos[i] = System.nanoTime() - start;
+            }
+            BenchmarkUtils.putPercentiles(results, "update_installed", installedNanos);
+        }
+
+        final Intent intent = new Intent()
+                .putExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, UNBOUND_WIDGET_ID);
+        final long[] loadNanos = new long[ITERATIONS];
+        final long[] refreshNanos = new long[ITERATIONS];
+        int rows = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            final DigitalWidgetViewsFactory factory =
+                    new DigitalWidgetViewsFactory(context, intent);
+            factory.onCreate();
+            long start = System.nanoTime();
+            rows = buildList(factory);
+            loadNanos[i] = System.nanoTime() - start;
+            start = System.nanoTime();
+            buildList(factory);
+            refreshNanos[i] = System.nanoTime() - start;
+            factory.onDestroy();
+        }
+        WidgetUtils.removeLayoutMetrics(UNBOUND_WIDGET_ID);
+        results.putInt("list_rows", rows);
+        BenchmarkUtils.putPercentiles(results, "list_load", loadNanos);
+        BenchmarkUtils.putPercentiles(results, "list_refresh", refreshNanos);
+    }
+
+    /**
+     * Runs the calls the widget host makes after a data change and returns the number of rows.
+     */
+    private static int buildList(DigitalWidgetViewsFactory factory) {
+        factory.onDataSetChanged();
+        final int count = factory.getCount();
+        for (int position = 0; position < count; position++) {
+            factory.getViewAt(position);
+        }
+        return count;
+    }
+}
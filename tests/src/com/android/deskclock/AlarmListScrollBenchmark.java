@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock;
+
+import android.app.Activity;
+import android.content.ContentResolver;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.widget.ListView;
+
+import com.android.deskclock.provider.Alarm;
+
+import java.util.ArrayList;
+
+/**
+ * Benchmarks scrolling the alarm list of {@link AlarmClockFragment} with 10, 100 and 1,000
+ * alarms added to any existing ones. The alarms are added disabled, so that none is scheduled,
+ * and deleted afterwards.
+ * For each size it reports the frame intervals while the list is scrolled by a fixed step per
+ * frame, turning around at either end.
+ *
+ * <pre>
+ * adb shell am instrument -r -e class com.android.deskclock.AlarmListScrollBenchmark \
+ *         -w com.android.deskclock.tests/android.test.InstrumentationTestRunner
+ * </pre>
+ */
+public class AlarmListScrollBenchmark extends InstrumentationTestCase {
+
+    private static final String TAG = "AlarmListScrollBenchmark";
+
+    private static final String LABEL = "AlarmListScrollBenchmark";
+    private static final int SCROLL_FRAMES = 300;
+    private static final int SCROLL_STEP = 40;
+    private static final long LOAD_TIMEOUT_MS = 30000;
+
+    private final ArrayList<Long> mAlarmIds = new ArrayList<Long>();
+    private Activity mActivity;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mActivity != null) {
+            BenchmarkUtils.finish(getInstrumentation(), mActivity);
+            mActivity = null;
+        }
+        final ContentResolver cr = getInstrumentation().getTargetContext().getContentResolver();
+        for (long id : mAlarmIds) {
+            Alarm.deleteAlarm(cr, id);
+        }
+        mAlarmIds.clear();
+        super.tearDown();
+    }
+
+    public void testScroll10() throws InterruptedException {
+        runBenchmark(10);
+    }
+
+    public void testScroll100() throws InterruptedException {
+        runBenchmark(100);
+    }
+
+    public void testScroll1000() throws InterruptedException {
+        runBenchmark(1000);
+    }
+
+    private void runBenchmark(int count) throws InterruptedException {
+        final ContentResolver cr = getInstrumentation().getTargetContext().getContentResolver();
+        // The list also shows the alarms that existed before the benchmark.
+        final int expected = Alarm.getAlarms(cr, null).size() + count;
+        for (int i = 0; i < count; i++) {
+            final Alarm alarm = new Alarm(i / 60 % 24, i % 60);
+            alarm.label = LABEL;
+            mAlarmIds.add(Alarm.addAlarm(cr, alarm).id);
+        }
+
+        final Intent intent = new Intent(Intent.ACTION_MAIN)
+                .setClass(getInstrumentation().getTargetContext(), DeskClock.class)
+                .putExtra(DeskClock.SELECT_TAB_INTENT_EXTRA, DeskClock.ALARM_TAB_INDEX);
+        mActivity = BenchmarkUtils.launch(getInstrumentation(), intent).activity;
+        final ListView list = (ListView) mActivity.findViewById(R.id.alarms_list);
+
+        // The alarms are loaded asynchronously.
+        final long deadline = SystemClock.uptimeMillis() + LOAD_TIMEOUT_MS;
+        int loaded;
+        while ((loaded = getCount(list)) < expected) {
+            if (SystemClock.uptimeMillis() > deadline) {
+                fail("Only " + loaded + " of " + expected + " alarms were loaded");
+            }
+            SystemClock.sleep(100);
+        }
+        getInstrumentation().waitForIdleSync();
+
+        final long[] intervals = BenchmarkUtils.recordFrames(getInstrumentation(), SCROLL_FRAMES,
+                new Runnable() {
+                    private int mStep = SCROLL_STEP;
+
+                    @Override
+                    public void run() {
+                        if (!list.canScrollList(mStep)) {
+                            mStep = -mStep;
+                        }
+                        list.scrollListBy(mStep);
+                    }
+                });
+
+        final Bundle results = new Bundle();
+        results.putInt("alarms", getCount(list));
+        BenchmarkUtils.putFrameIntervals(mActivity, results, "scroll_frame", intervals);
+        BenchmarkUtils.report(getInstrumentation(), TAG, "alarm_list_" + count, results);
+    }
+
+    /**
+     * Returns the number of items in the list, read on the main thread that updates it.
+     */
+    private int getCount(final ListView list) {
+        final int[] count = new int[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                count[0] = list.getCount();
+            }
+        });
+        return count[0];
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock;
+
+import android.app.Activity;
+import android.app.Application;
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import android.view.WindowManager;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Helpers shared by the DeskClock benchmarks.
+ *
+ * Every benchmark reports its results as instrumentation status bundles of numbers, so a run can
+ * be collected with {@code am instrument -r} and compared between builds. Times are reported in
+ * milliseconds as {@code <name>_p50_ms}, {@code <name>_p90_ms} and {@code <name>_max_ms}.
+ */
+public final class BenchmarkUtils {
+
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private BenchmarkUtils() {
+    }
+
+    /**
+     * Adds the median, 90th percentile and maximum of the given times to the results.
+     */
+    public static void putPercentiles(Bundle results, String name, long[] nanos) {
+        final long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        results.putFloat(name + "_p50_ms", sorted[sorted.length / 2] / 1e6f);
+        results.putFloat(name + "_p90_ms", sorted[sorted.length * 9 / 10] / 1e6f);
+        results.putFloat(name + "_max_ms", sorted[sorted.length - 1] / 1e6f);
+    }
+
+    /**
+     * Adds the percentiles of the given frame intervals to the results, along with the number of
+     * janky frames, i.e. those that took longer than one and a half display refresh periods.
+     */
+    public static void putFrameIntervals(Context context, Bundle results, String name,
+            long[] intervals) {
+        final Display display = ((WindowManager) context.getSystemService(Context.WINDOW_SERVICE))
+                .getDefaultDisplay();
+        final long jankNanos = (long) (1.5e9 / display.getRefreshRate());
+        int janky = 0;
+        for (long interval : intervals) {
+            if (interval > jankNanos) {
+                janky++;
+            }
+        }
+        putPercentiles(results, name, intervals);
+        results.putInt(name + "_frames", intervals.length);
+        results.putInt(name + "_janky_frames", janky);
+    }
+
+    /**
+     * Logs the results and sends them as an instrumentation status bundle.
+     */
+    public static void report(Instrumentation instrumentation, String tag, String name,
+            Bundle results) {
+        results.putString("benchmark", name);
+        Log.i(tag, name + ": " + results);
+        instrumentation.sendStatus(0, results);
+    }
+
+    /**
+     * Records the intervals between the given number of consecutive frames. The intervals grow
+     * past the display refresh period whenever the main thread misses a frame.
+     *
+     * @param onFrame run on the main thread at the start of every frame, e.g. to scroll a list;
+     *     may be null
+     */
+    public static long[] recordFrames(Instrumentation instrumentation, final int frames,
+            final Runnable onFrame) throws InterruptedException {
+        final long[] intervals = new long[frames];
+        final CountDownLatch done = new CountDownLatch(1);
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final Choreographer choreographer = Choreographer.getInstance();
+                choreographer.postFrameCallback(new Choreographer.FrameCallback() {
+                    private long mLastFrame;
+                    private int mCount;
+
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        if (mLastFrame != 0) {
+                            intervals[mCount++] = frameTimeNanos - mLastFrame;
+                            if (mCount == frames) {
+                                done.countDown();
+                                return;
+                            }
+                        }
+                        mLastFrame = frameTimeNanos;
+                        if (onFrame != null) {
+                            onFrame.run();
+                        }
+                        choreographer.postFrameCallback(this);
+                    }
+                });
+            }
+        });
+        await(done);
+        return intervals;
+    }
+
+    /** An activity started by {@link #launch}. */
+    public static final class Launch {
+        public final Activity activity;
+        /** Time from starting the activity until it drew its first frame. */
+        public final long firstFrameNanos;
+
+        Launch(Activity activity, long firstFrameNanos) {
+            this.activity = activity;
+            this.firstFrameNanos = firstFrameNanos;
+        }
+    }
+
+    /**
+     * Starts the given activity in a new task and waits until it has drawn its first frame and
+     * the main thread has gone idle, including any work the activity deferred until then.
+     */
+    public static Launch launch(Instrumentation instrumentation, Intent intent)
+            throws InterruptedException {
+        final FirstFrameWatcher watcher = new FirstFrameWatcher(instrumentation);
+        try {
+            final long start = System.nanoTime();
+            final Activity activity = instrumentation.startActivitySync(
+                    intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK
+                            | Intent.FLAG_ACTIVITY_CLEAR_TASK));
+            // startActivitySync returns from an idle handler that may run before the activity's
+            // own ones in the same idle pass.
+            instrumentation.waitForIdleSync();
+            return new Launch(activity, watcher.await() - start);
+        } finally {
+            watcher.unregister();
+        }
+    }
+
+    /**
+     * Sends the activity's task to the background by starting the home screen, and waits until
+     * the activity is stopped.
+     */
+    public static void moveToBackground(Instrumentation instrumentation, final Activity activity)
+            throws InterruptedException {
+        final Application application = activity.getApplication();
+        final CountDownLatch stopped = new CountDownLatch(1);
+        final Application.ActivityLifecycleCallbacks callbacks = new LifecycleAdapter() {
+            @Override
+            public void onActivityStopped(Activity stoppedActivity) {
+                if (stoppedActivity == activity) {
+                    stopped.countDown();
+                }
+            }
+        };
+        application.registerActivityLifecycleCallbacks(callbacks);
+        try {
+            instrumentation.getTargetContext().startActivity(new Intent(Intent.ACTION_MAIN)
+                    .addCategory(Intent.CATEGORY_HOME)
+                    .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK));
+            await(stopped);
+        } finally {
+            application.unregisterActivityLifecycleCallbacks(callbacks);
+        }
+        instrumentation.waitForIdleSync();
+    }
+
+    /**
+     * Brings the existing task of the given activity back to the front with the intent, and
+     * returns how long it took until the activity drew its first frame. Waits until the main
+     * thread has gone idle.
+     */
+    public static long bringToFront(Instrumentation instrumentation, Intent intent)
+            throws InterruptedException {
+        final FirstFrameWatcher watcher = new FirstFrameWatcher(instrumentation);
+        try {
+            final long start = System.nanoTime();
+            instrumentation.getTargetContext().startActivity(
+                    intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK));
+            final long drawnAt = watcher.await();
+            instrumentation.waitForIdleSync();
+            return drawnAt - start;
+        } finally {
+            watcher.unregister();
+        }
+    }
+
+    /**
+     * Finishes the activity and waits until it is destroyed.
+     */
+    public static void finish(Instrumentation instrumentation, final Activity activity)
+            throws InterruptedException {
+        final Application application = activity.getApplication();
+        final CountDownLatch destroyed = new CountDownLatch(1);
+        final Application.ActivityLifecycleCallbacks callbacks = new LifecycleAdapter() {
+            @Override
+            public void onActivityDestroyed(Activity destroyedActivity) {
+                if (destroyedActivity == activity) {
+                    destroyed.countDown();
+                }
+            }
+        };
+        application.registerActivityLifecycleCallbacks(callbacks);
+        try {
+            activity.finish();
+            await(destroyed);
+        } finally {
+            application.unregisterActivityLifecycleCallbacks(callbacks);
+        }
+        instrumentation.waitForIdleSync();
+    }
+
+    /**
+     * Waits for the latch, failing if it isn't released within the benchmark timeout.
+     */
+    public static void await(CountDownLatch latch) throws InterruptedException {
+        if (!latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Timed out after " + TIMEOUT_SECONDS + " s");
+        }
+    }
+
+    /**
+     * Records when the next activity to resume draws its first frame.
+     */
+    private static final class FirstFrameWatcher extends LifecycleAdapter {
+        private final Application mApplication;
+        private final CountDownLatch mDrawn = new CountDownLatch(1);
+        private volatile long mDrawnAt;
+
+        FirstFrameWatcher(Instrumentation instrumentation) {
+            mApplication =
+                    (Application) instrumentation.getTargetContext().getApplicationContext();
+            mApplication.registerActivityLifecycleCallbacks(this);
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+            // The window is made visible right after the resume, so this listener sees the
+            // first traversal.
+            final View decor = activity.getWindow().getDecorView();
+            decor.getViewTreeObserver().addOnPreDrawListener(
+                    new ViewTreeObserver.OnPreDrawListener() {
+                @Override
+                public boolean onPreDraw() {
+                    decor.getViewTreeObserver().removeOnPreDrawListener(this);
+                    if (mDrawn.getCount() > 0) {
+                        mDrawnAt = System.nanoTime();
+                        mDrawn.countDown();
+                    }
+                    return true;
+                }
+            });
+        }
+
+        /** Waits for the first frame and returns when it was drawn, in nanoTime. */
+        long await() throws InterruptedException {
+            BenchmarkUtils.await(mDrawn);
+            return mDrawnAt;
+        }
+
+        void unregister() {
+            mApplication.unregisterActivityLifecycleCallbacks(this);
+        }
+    }
+
+    private static class LifecycleAdapter implements Application.ActivityLifecycleCallbacks {
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+        }
+    }
+}
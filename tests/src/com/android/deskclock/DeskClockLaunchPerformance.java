@@ -22,6 +22,9 @@ import android.os.Bundle;
 
 /**
  * Instrumentation class for DeskClock launch performance testing.
+ *
+ * The tab to start on may be given as an argument, e.g. {@code -e tab 0} for the alarms; by
+ * default the clock tab is selected.
  */
 public class DeskClockLaunchPerformance extends LaunchPerformanceBase {
 
@@ -30,6 +33,11 @@ public class DeskClockLaunchPerformance extends LaunchPerformanceBase {
         super.onCreate(arguments);
 
         mIntent.setClassName(getTargetContext(), "com.android.deskclock.DeskClock");
+        final String tab = arguments.getString("tab");
+        if (tab != null) {
+            mIntent.putExtra(DeskClock.SELECT_TAB_INTENT_EXTRA, Integer.parseInt(tab));
+            mResults.putString("tab", tab);
+        }
         start();
     }
 
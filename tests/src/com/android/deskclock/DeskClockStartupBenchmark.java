@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Intent;
+import android.os.Bundle;
+import android.test.InstrumentationTestCase;
+
+/**
+ * Benchmarks showing {@link DeskClock} on each of its tabs, with the process already running.
+ * For each tab it reports:
+ * <ul>
+ *     <li>{@code create_first_frame}: creating a new activity in a new task until its first frame
+ *     is drawn</li>
+ *     <li>{@code create_idle}: creating a new activity until the main thread goes idle, which
+ *     includes creating the other tabs</li>
+ *     <li>{@code to_front_first_frame}: bringing the task back from the background with a launch
+ *     intent until the activity draws its first frame</li>
+ * </ul>
+ * Starting the process is measured by {@link DeskClockLaunchPerformance}, e.g. with
+ * {@code -e tab 2}.
+ *
+ * <pre>
+ * adb shell am instrument -r -e class com.android.deskclock.DeskClockStartupBenchmark \
+ *         -w com.android.deskclock.tests/android.test.InstrumentationTestRunner
+ * </pre>
+ */
+public class DeskClockStartupBenchmark extends InstrumentationTestCase {
+
+    private static final String TAG = "DeskClockStartupBenchmark";
+
+    private static final int CREATE_LAUNCHES = 5;
+    private static final int TO_FRONT_LAUNCHES = 10;
+
+    public void testAlarmTab() throws InterruptedException {
+        runBenchmark("alarms", DeskClock.ALARM_TAB_INDEX);
+    }
+
+    public void testClockTab() throws InterruptedException {
+        runBenchmark("clock", DeskClock.CLOCK_TAB_INDEX);
+    }
+
+    public void testTimerTab() throws InterruptedException {
+        runBenchmark("timer", DeskClock.TIMER_TAB_INDEX);
+    }
+
+    public void testStopwatchTab() throws InterruptedException {
+        runBenchmark("stopwatch", DeskClock.STOPWATCH_TAB_INDEX);
+    }
+
+    private void runBenchmark(String name, int tab) throws InterruptedException {
+        final Instrumentation instrumentation = getInstrumentation();
+        final Intent intent = new Intent(Intent.ACTION_MAIN)
+                .setClass(instrumentation.getTargetContext(), DeskClock.class)
+                .putExtra(DeskClock.SELECT_TAB_INTENT_EXTRA, tab);
+
+        // Once untimed, so that classes and resources are loaded.
+        BenchmarkUtils.finish(instrumentation,
+                BenchmarkUtils.launch(instrumentation, new Intent(intent)).activity);
+
+        final long[] createNanos = new long[CREATE_LAUNCHES];
+        final long[] createIdleNanos = new long[CREATE_LAUNCHES];
+        for (int i = 0; i < CREATE_LAUNCHES; i++) {
+            final long start = System.nanoTime();
+            final BenchmarkUtils.Launch launch =
+                    BenchmarkUtils.launch(instrumentation, new Intent(intent));
+            createIdleNanos[i] = System.nanoTime() - start;
+            createNanos[i] = launch.firstFrameNanos;
+            BenchmarkUtils.finish(instrumentation, launch.activity);
+        }
+
+        final Activity activity =
+                BenchmarkUtils.launch(instrumentation, new Intent(intent)).activity;
+        final long[] toFrontNanos = new long[TO_FRONT_LAUNCHES];
+        for (int i = 0; i < TO_FRONT_LAUNCHES; i++) {
+            BenchmarkUtils.moveToBackground(instrumentation, activity);
+            toFrontNanos[i] = BenchmarkUtils.bringToFront(instrumentation, new Intent(intent));
+        }
+        BenchmarkUtils.finish(instrumentation, activity);
+
+        final Bundle results = new Bundle();
+        results.putInt("tab", tab);
+        BenchmarkUtils.putPercentiles(results, "create_first_frame", createNanos);
+        BenchmarkUtils.putPercentiles(results, "create_idle", createIdleNanos);
+        BenchmarkUtils.putPercentiles(results, "to_front_first_frame", toFrontNanos);
+        BenchmarkUtils.report(instrumentation, TAG, "startup_" + name, results);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.View;
+
+import com.android.deskclock.stopwatch.StopwatchService;
+import com.android.deskclock.stopwatch.Stopwatches;
+import com.android.deskclock.timer.TimerObj;
+import com.android.deskclock.timer.Timers;
+
+/**
+ * Benchmarks the frame intervals of the stopwatch and timer tabs while their clocks tick.
+ *
+ * The stopwatch benchmark starts, stops and resets the stopwatch, so it is skipped unless the
+ * stopwatch is reset to begin with. The timer benchmark adds a running timer and deletes it
+ * afterwards.
+ *
+ * <pre>
+ * adb shell am instrument -r -e class com.android.deskclock.TickFrameBenchmark \
+ *         -w com.android.deskclock.tests/android.test.InstrumentationTestRunner
+ * </pre>
+ */
+public class TickFrameBenchmark extends InstrumentationTestCase {
+
+    private static final String TAG = "TickFrameBenchmark";
+
+    private static final int TICK_FRAMES = 300;
+    private static final long TIMER_LENGTH = 10 * 60 * 1000;
+
+    public void testStopwatchTick() throws InterruptedException {
+        final Context context = getInstrumentation().getTargetContext();
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        if (prefs.getInt(Stopwatches.PREF_STATE, Stopwatches.STOPWATCH_RESET)
+                != Stopwatches.STOPWATCH_RESET) {
+            Log.w(TAG, "Skipping stopwatch benchmark, the stopwatch is in use");
+            return;
+        }
+
+        final long[] intervals;
+        try {
+            final Activity activity = launch(DeskClock.STOPWATCH_TAB_INDEX);
+            final View startStop = activity.findViewById(R.id.fab);
+            click(startStop);
+            intervals = BenchmarkUtils.recordFrames(getInstrumentation(), TICK_FRAMES, null);
+            click(startStop);
+            click(activity.findViewById(R.id.left_button));
+            BenchmarkUtils.finish(getInstrumentation(), activity);
+        } finally {
+            // Resets the stopwatch even if the benchmark failed while it was running.
+            context.startService(new Intent(context, StopwatchService.class)
+                    .setAction(Stopwatches.RESET_STOPWATCH)
+                    .putExtra(Stopwatches.SHOW_NOTIF, false));
+        }
+
+        final Bundle results = new Bundle();
+        BenchmarkUtils.putFrameIntervals(context, results, "tick_frame", intervals);
+        BenchmarkUtils.report(getInstrumentation(), TAG, "stopwatch_tick", results);
+    }
+
+    public void testTimerTick() throws InterruptedException {
+        final Context context = getInstrumentation().getTargetContext();
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        final TimerObj timer = new TimerObj(TIMER_LENGTH, context);
+        timer.mState = TimerObj.STATE_RUNNING;
+        timer.mStartTime = Utils.getTimeNow();
+        timer.writeToSharedPref(prefs);
+
+        final long[] intervals;
+        try {
+            final Activity activity = launch(DeskClock.TIMER_TAB_INDEX);
+            intervals = BenchmarkUtils.recordFrames(getInstrumentation(), TICK_FRAMES, null);
+            BenchmarkUtils.finish(getInstrumentation(), activity);
+        } finally {
+            timer.deleteFromSharedPref(prefs);
+            context.sendBroadcast(new Intent(Timers.DELETE_TIMER)
+                    .putExtra(Timers.TIMER_INTENT_EXTRA, timer.mTimerId));
+        }
+
+        final Bundle results = new Bundle();
+        BenchmarkUtils.putFrameIntervals(context, results, "tick_frame", intervals);
+        BenchmarkUtils.report(getInstrumentation(), TAG, "timer_tick", results);
+    }
+
+    private Activity launch(int tab) throws InterruptedException {
+        final Intent intent = new Intent(Intent.ACTION_MAIN)
+                .setClass(getInstrumentation().getTargetContext(), DeskClock.class)
+                .putExtra(DeskClock.SELECT_TAB_INTENT_EXTRA, tab);
+        return BenchmarkUtils.launch(getInstrumentation(), intent).activity;
+    }
+
+    private void click(final View view) {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                view.performClick();
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+    }
+}
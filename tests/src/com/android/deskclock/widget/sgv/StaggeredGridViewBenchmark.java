@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.widget.sgv;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Debug;
+import android.test.InstrumentationTestCase;
+import android.view.View;
+import android.view.View.MeasureSpec;
+import android.view.ViewGroup;
+
+import com.android.deskclock.BenchmarkUtils;
+
+/**
+ * Benchmarks layout and scrolling of {@link StaggeredGridView} over synthetic adapters of 100 to
+ * 10,000 items. For each size it reports the time of a full layout after a data change, scroll
+ * frame times, the scrap heap hit rate and the number of objects allocated per laid out item.
+ *
+ * Results are logged and sent as instrumentation status bundles, one per adapter size, so they
+ * can be collected with {@code am instrument -r}:
+ *
+ * <pre>
+ * adb shell am instrument -r -e class com.android.deskclock.widget.sgv.StaggeredGridViewBenchmark \
+ *         -w com.android.deskclock.tests/android.test.InstrumentationTestRunner
+ * </pre>
+ */
+public class StaggeredGridViewBenchmark extends InstrumentationTestCase {
+
+    private static final String TAG = "SgvBenchmark";
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int COLUMNS = 3;
+
+    private static final int LAYOUT_ITERATIONS = 20;
+    private static final int SCROLL_FRAMES = 300;
+    private static final int SCROLL_STEP = 48;
+
+    /**
+     * Adapter of plain views with a handful of different heights, some spanning two columns.
+     */
+    private static final class SyntheticAdapter extends GridAdapter {
+        private final Context mContext;
+        private final int mCount;
+
+        SyntheticAdapter(Context context, int count) {
+            mContext = context;
+            mCount = count;
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return position;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public int getItemColumnSpan(Object item, int position) {
+            return position % 11 == 0 ? 2 : 1;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            final View view = convertView != null ? convertView : new View(mContext);
+            final int height = 120 + (position * 37) % 5 * 60;
+            StaggeredGridView.LayoutParams lp =
+                    (StaggeredGridView.LayoutParams) view.getLayoutParams();
+            if (lp == null) {
+                lp = new StaggeredGridView.LayoutParams(height);
+            } else {
+                lp.height = height;
+            }
+            lp.span = getItemColumnSpan(null, position);
+            view.setLayoutParams(lp);
+            setItemId(view, position);
+            return view;
+        }
+    }
+
+    public void testLayout100() {
+        runBenchmark(100);
+    }
+
+    public void testLayout1000() {
+        runBenchmark(1000);
+    }
+
+    public void testLayout10000() {
+        runBenchmark(10000);
+    }
+
+    private void runBenchmark(final int count) {
+        final Bundle results = new Bundle();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                measure(count, results);
+            }
+        });
+        BenchmarkUtils.report(getInstrumentation(), TAG, "sgv_" + count, results);
+    }
+
+    private void measure(int count, Bundle results) {
+        final Context context = getInstrumentation().getTargetContext();
+        final StaggeredGridView grid = new StaggeredGridView(context);
+        final SyntheticAdapter adapter = new SyntheticAdapter(context, count);
+        grid.setColumnCount(COLUMNS);
+        grid.setAdapter(adapter);
+        layout(grid);
+
+        // Full layout after a data change, from the middle of the list so that layout records
+        // above the first visible item are recomputed as well.
+        final StaggeredGridView.LayoutStats stats = grid.getLayoutStats();
+        final long[] layoutNanos = new long[LAYOUT_ITERATIONS];
+        stats.reset();
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        for (int i = 0; i < LAYOUT_ITERATIONS; i++) {
+            grid.setFirstPositionAndOffsets(count / 2, 0);
+            adapter.notifyDataSetChanged();
+            final long start = System.nanoTime();
+            layout(grid);
+            layoutNanos[i] = System.nanoTime() - start;
+        }
+        final int layoutAllocs = Debug.getThreadAllocCount();
+        final int laidOut = LAYOUT_ITERATIONS * (count / 2 + grid.getChildCount());
+        results.putInt("items", count);
+        results.putInt("layout_passes", stats.layoutPasses);
+        BenchmarkUtils.putPercentiles(results, "layout", layoutNanos);
+        results.putFloat("layout_allocs_per_item", (float) layoutAllocs / laidOut);
+        results.putInt("records_created", stats.recordsCreated);
+        results.putInt("record_store_resizes", stats.recordStoreResizes);
+
+        // Scroll down from the top one step per frame.
+        grid.setFirstPositionAndOffsets(0, 0);
+        adapter.notifyDataSetChanged();
+        layout(grid);
+        stats.reset();
+        final long[] frameNanos = new long[SCROLL_FRAMES];
+        Debug.resetThreadAllocCount();
+        for (int i = 0; i < SCROLL_FRAMES; i++) {
+            final long start = System.nanoTime();
+            grid.scrollBy(0, -SCROLL_STEP);
+            frameNanos[i] = System.nanoTime() - start;
+        }
+        final int scrollAllocs = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+        BenchmarkUtils.putPercentiles(results, "scroll_frame", frameNanos);
+        results.putFloat("scroll_allocs_per_frame", (float) scrollAllocs / SCROLL_FRAMES);
+        final int scrapLookups = stats.scrapHits + stats.scrapMisses;
+        results.putFloat("scrap_hit_rate",
+                scrapLookups == 0 ? 0f : (float) stats.scrapHits / scrapLookups);
+    }
+
+    private static void layout(StaggeredGridView grid) {
+        grid.measure(MeasureSpec.makeMeasureSpec(WIDTH, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(HEIGHT, MeasureSpec.EXACTLY));
+        grid.layout(0, 0, WIDTH, HEIGHT);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.worldclock;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.widget.Filter;
+import android.widget.Filterable;
+import android.widget.HeaderViewListAdapter;
+import android.widget.ListAdapter;
+import android.widget.ListView;
+
+import com.android.deskclock.BenchmarkUtils;
+import com.android.deskclock.R;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Benchmarks filtering the city list of {@link CitiesActivity} as a query is typed, from the
+ * call to the filter until the filtered list is published on the main thread. The first query
+ * is reported separately, as it includes loading the classes and caches used by the filter.
+ *
+ * <pre>
+ * adb shell am instrument -r -e class com.android.deskclock.worldclock.CityFilterBenchmark \
+ *         -w com.android.deskclock.tests/android.test.InstrumentationTestRunner
+ * </pre>
+ */
+public class CityFilterBenchmark extends InstrumentationTestCase {
+
+    private static final String TAG = "CityFilterBenchmark";
+
+    /** Queries as they are typed, then cleared. */
+    private static final String[] QUERIES = { "s", "sa", "san", "san ", "san f", "san fr", "",
+            "l", "lo", "lon", "lond", "london", "", "zu", "gmt+5", "" };
+    private static final int ROUNDS = 10;
+    private static final long LOAD_TIMEOUT_MS = 30000;
+
+    public void testFilter() throws InterruptedException {
+        final Intent intent = new Intent(Intent.ACTION_MAIN)
+                .setClass(getInstrumentation().getTargetContext(), CitiesActivity.class);
+        final Activity activity = BenchmarkUtils.launch(getInstrumentation(), intent).activity;
+        final ListView list = (ListView) activity.findViewById(R.id.cities_list);
+
+        // The list is set up once the selected cities are read.
+        final long deadline = SystemClock.uptimeMillis() + LOAD_TIMEOUT_MS;
+        ListAdapter adapter;
+        while ((adapter = getAdapter(list)) == null) {
+            if (SystemClock.uptimeMillis() > deadline) {
+                fail("The city list was not set up");
+            }
+            SystemClock.sleep(100);
+        }
+        if (adapter instanceof HeaderViewListAdapter) {
+            adapter = ((HeaderViewListAdapter) adapter).getWrappedAdapter();
+        }
+        final Filter filter = ((Filterable) adapter).getFilter();
+
+        final long firstNanos = filter(filter, QUERIES[0]);
+        final long[] nanos = new long[ROUNDS * QUERIES.length];
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < QUERIES.length; i++) {
+                nanos[round * QUERIES.length + i] = filter(filter, QUERIES[i]);
+            }
+        }
+        BenchmarkUtils.finish(getInstrumentation(), activity);
+
+        final Bundle results = new Bundle();
+        results.putFloat("filter_first_ms", firstNanos / 1e6f);
+        BenchmarkUtils.putPercentiles(results, "filter", nanos);
+        BenchmarkUtils.report(getInstrumentation(), TAG, "city_filter", results);
+    }
+
+    /**
+     * Returns the adapter of the list, read on the main thread that sets it.
+     */
+    private ListAdapter getAdapter(final ListView list) {
+        final ListAdapter[] adapter = new ListAdapter[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                adapter[0] = list.getAdapter();
+            }
+        });
+        return adapter[0];
+    }
+
+    /**
+     * Filters the list by the query and returns how long it took until the result was published.
+     */
+    private long filter(final Filter filter, final String query) throws InterruptedException {
+        final CountDownLatch published = new CountDownLatch(1);
+        final long[] nanos = new long[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final long start = System.nanoTime();
+                filter.filter(query, new Filter.FilterListener() {
+                    @Override
+                    public void onFilterComplete(int count) {
+                        nanos[0] = System.nanoTime() - start;
+                        published.countDown();
+                    }
+                });
+            }
+        });
+        BenchmarkUtils.await(published);
+        return nanos[0];
+    }
+}